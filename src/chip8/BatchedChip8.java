@@ -0,0 +1,569 @@
+package chip8;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public final class BatchedChip8
+{
+	/*
+	Many CHIP8 machines stepped in lockstep, stored struct-of-arrays : each field is one flat primitive array holding it for every
+	machine, machine m's part starting at m * (size of the field), e.g. memory[m * 4096 + address] or V[m * 16 + x].
+
+	step() advances every machine by one instruction :
+	# fetch each machine's opcode and classify it (DecodedChip8Core.handlerFor(), tabulated for all 65536 opcodes)
+	# bucket the machines by instruction, with a counting sort into a preallocated index array
+	# run each bucket in its own tight loop, so the branch on the instruction type is taken once per bucket, not once per machine.
+	Machines running the same ROM mostly sit on the same few instructions, so buckets are large and the loops predictable.
+
+	The instruction semantics are those of the Chip8Core.opXXXX() methods under the ORIGINAL quirks profile (the only one it
+	implements, see Chip8Quirks), and CXKK draws numbers exactly like
+	java.util.Random, so machine m seeded like a Chip8Core runs identically to it (EngineLockstep --batched checks this).
+	Where Chip8Core would throw (stack over/underflow, addresses past 4 KB, key numbers above F) a machine wraps around inside
+	its own part of the arrays instead, so one broken program can't corrupt or stop its neighbours. Unsupported opcodes leave pc
+	where it is, without printing.
+
+	All machines execute the same number of cycles, so they share one clock (see Chip8Core.advanceClock()).
+	Nothing is allocated after construction.
+	*/
+
+	/*
+	 * Scores a machine, e.g. from a score kept in its registers or memory. Implementations should not allocate.
+	 */
+	public interface RewardFunction
+	{
+		float reward(BatchedChip8 batch, int machine);
+	}
+
+	private static final int HANDLER_COUNT = DecodedChip8Core.H_FX65 + 1;
+	private static final long RANDOM_MULTIPLIER	= Chip8Core.RANDOM_MULTIPLIER;
+	private static final long RANDOM_MASK		= Chip8Core.RANDOM_MASK;
+	/*
+	 * handlerFor() of every possible opcode, so classifying is a single load.
+	 */
+	private static final byte[] HANDLER_OF = new byte[0x10000];
+	static
+	{
+		for(int opcode = 0; opcode < HANDLER_OF.length; opcode++)	{	HANDLER_OF[opcode] = (byte) DecodedChip8Core.handlerFor(opcode);	}
+	}
+
+	private final int machines;
+
+	private final byte[] memory;	// machines * 4096
+	private final char[] V;			// machines * 16
+	private final char[] I;
+	private final char[] pc;
+	private final char[] stack;		// machines * 16
+	private final int[] stackPointer;
+	private final int[] delayTimer;
+	private final int[] soundTimer;
+	private final long[] display;	// machines * 32 rows, bit-packed like Chip8Core.display
+	private final int[] keys;		// bit k set = key k held
+	private final boolean[] drawFlag;
+	private final long[] randomState;
+
+	private int clockRate = Chip8Core.DEFAULT_CLOCK_RATE;
+	private int timerPhase;
+	private long cycleCount;
+
+	// scratch for step()
+	private final int[] opcodes;
+	private final int[] handlers;
+	private final int[] order;
+	private final int[] bucketStart	= new int[HANDLER_COUNT];
+	private final int[] bucketEnd	= new int[HANDLER_COUNT];
+
+	/*
+	 * Creates machines in their power-on state, each with its own random seed.
+	 */
+	public BatchedChip8(int machines)
+	{
+		if(machines <= 0)	{	throw new IllegalArgumentException("Need at least one machine : " + machines);	}
+		this.machines	= machines;
+		memory			= new byte[machines * 4096];
+		V				= new char[machines * 16];
+		I				= new char[machines];
+		pc				= new char[machines];
+		stack			= new char[machines * 16];
+		stackPointer	= new int[machines];
+		delayTimer		= new int[machines];
+		soundTimer		= new int[machines];
+		display			= new long[machines * 32];
+		keys			= new int[machines];
+		drawFlag		= new boolean[machines];
+		randomState		= new long[machines];
+		opcodes			= new int[machines];
+		handlers		= new int[machines];
+		order			= new int[machines];
+
+		Random seeds = new Random();
+		for(int m = 0; m < machines; m++)
+		{
+			reset(m);
+			setSeed(m, seeds.nextLong());
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Puts one machine back into its power-on state, like Chip8Core.reset(). Its seed and the shared clock are kept.
+	 */
+	public void reset(int machine)
+	{
+		Arrays.fill(memory, machine * 4096, (machine + 1) * 4096, (byte) 0);
+		for(int i = 0; i < Chip8Core.FONTSET.length; i++)	{	memory[machine * 4096 + 0x50 + i] = (byte) Chip8Core.FONTSET[i];	}
+		Arrays.fill(V, machine * 16, (machine + 1) * 16, (char) 0);
+		Arrays.fill(stack, machine * 16, (machine + 1) * 16, (char) 0);
+		Arrays.fill(display, machine * 32, (machine + 1) * 32, 0L);
+		I[machine]				= 0;
+		pc[machine]				= 0x200;
+		stackPointer[machine]	= 0;
+		delayTimer[machine]		= 0;
+		soundTimer[machine]		= 0;
+		keys[machine]			= 0;
+		drawFlag[machine]		= false;
+	}
+
+	/*
+	 * Copies a ROM image into one machine's memory at 0x200.
+	 */
+	public void loadProgram(int machine, byte[] program)
+	{
+		if(program.length > 4096 - 0x200)	{	throw new IllegalArgumentException("Program too large : " + program.length + " bytes");	}
+		System.arraycopy(program, 0, memory, machine * 4096 + 0x200, program.length);
+	}
+
+	/*
+	 * Seeds one machine's CXKK generator. Same sequence as Chip8Core.setSeed() with the same seed.
+	 */
+	public void setSeed(int machine, long seed)	{	randomState[machine] = (seed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;	}
+
+	/*
+	 * Sets which keys machine holds, bit k standing for key k.
+	 */
+	public void setKeys(int machine, int keyMask)	{	keys[machine] = keyMask & 0xffff;	}
+
+	public void setClockRate(int hz)
+	{
+		if(hz < 0)	{	throw new IllegalArgumentException("Clock rate must be positive or CLOCK_UNLIMITED : " + hz);	}
+		clockRate	= hz;
+		timerPhase	= 0;
+	}
+//############################################################################################################################################################
+	public int size()						{	return machines;	}
+	public long getCycleCount()				{	return cycleCount;	}
+	public int getV(int machine, int x)		{	return V[machine * 16 + x];	}
+	public int getI(int machine)			{	return I[machine];	}
+	public int getPC(int machine)			{	return pc[machine];	}
+	public int getStackPointer(int machine)	{	return stackPointer[machine];	}
+	public int getStack(int machine, int i)	{	return stack[machine * 16 + i];	}
+	public int getDelayTimer(int machine)	{	return delayTimer[machine];	}
+	public int getSoundTimer(int machine)	{	return soundTimer[machine];	}
+	public int readMemory(int machine, int address)	{	return memory[machine * 4096 + address] & 0xff;	}
+	public boolean isHalted(int machine)	{	return fetch(machine) == (0x1000 | pc[machine]);	}
+	/*
+	 * Live view of every machine's screen rows : machine m's 32 rows start at index m * 32. Callers must not modify it.
+	 */
+	public long[] getDisplayRows()			{	return display;	}
+	public boolean isPixelSet(int machine, int x, int y)	{	return (display[machine * 32 + y] << x) < 0;	}
+	/*
+	 * Returns whether machine drew since the last call, and clears the flag.
+	 */
+	public boolean takeDrawFlag(int machine)
+	{
+		boolean drawn = drawFlag[machine];
+		drawFlag[machine] = false;
+		return drawn;
+	}
+
+	/*
+	 * Scores every machine into rewards[0 .. size() - 1].
+	 */
+	public void computeRewards(RewardFunction function, float[] rewards)
+	{
+		for(int m = 0; m < machines; m++)
+		{
+			rewards[m] = function.reward(this, m);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Executes one instruction on every machine.
+	 */
+	public void step()
+	{
+		Arrays.fill(bucketEnd, 0);
+		for(int m = 0; m < machines; m++)
+		{
+			int opcode = fetch(m);
+			int handler = HANDLER_OF[opcode];
+			opcodes[m] = opcode;
+			handlers[m] = handler;
+			bucketEnd[handler]++;
+		}
+		int start = 0;
+		for(int h = 0; h < HANDLER_COUNT; h++)
+		{
+			int count = bucketEnd[h];
+			bucketStart[h] = start;
+			bucketEnd[h] = start;
+			start += count;
+		}
+		for(int m = 0; m < machines; m++)
+		{
+			order[bucketEnd[handlers[m]]++] = m;
+		}
+		for(int h = 0; h < HANDLER_COUNT; h++)
+		{
+			if(bucketEnd[h] > bucketStart[h])	{	execute(h, bucketStart[h], bucketEnd[h]);	}
+		}
+		advanceClock();
+	}
+
+	/*
+	 * Executes steps instructions on every machine.
+	 */
+	public void run(int steps)
+	{
+		for(int i = 0; i < steps; i++)	{	step();	}
+	}
+
+	private int fetch(int m)
+	{
+		int base = m * 4096;
+		int address = pc[m];
+		return ((memory[base + (address & 0xfff)] & 0xff) << 8) | (memory[base + ((address + 1) & 0xfff)] & 0xff);
+	}
+
+	private void advanceClock()
+	{
+		cycleCount++;
+		if(clockRate == Chip8Core.CLOCK_UNLIMITED)	{	return;	}
+		timerPhase += 60;
+		while(timerPhase >= clockRate)
+		{
+			timerPhase -= clockRate;
+			tickTimers();
+		}
+	}
+
+	/*
+	 * One 60 Hz timer step for every machine. Driven by step(), or by the host when running with CLOCK_UNLIMITED.
+	 */
+	public void tickTimers()
+	{
+		for(int m = 0; m < machines; m++)
+		{
+			if(delayTimer[m] > 0)	{	delayTimer[m]--;	}
+			if(soundTimer[m] > 0)	{	soundTimer[m]--;	}
+		}
+	}
+
+	/*
+	 * Chip8Core.nextRandom(), on machine m's generator state.
+	 */
+	private int nextRandom(int m)
+	{
+		int bits, value;
+		do
+		{
+			long state = (randomState[m] * RANDOM_MULTIPLIER + 0xBL) & RANDOM_MASK;
+			randomState[m] = state;
+			bits = (int) (state >>> 17);
+			value = bits % 255;
+		}while(bits - value + 254 < 0);
+		return value;
+	}
+//############################################################################################################################################################
+	/*
+	 * Runs the machines order[from .. to - 1], which all sit on an instruction of the given handler type.
+	 */
+	private void execute(int handler, int from, int to)
+	{
+		switch(handler)
+		{
+			case DecodedChip8Core.H_00E0:	run00E0(from, to);	break;
+			case DecodedChip8Core.H_00EE:	run00EE(from, to);	break;
+			case DecodedChip8Core.H_1NNN:	run1NNN(from, to);	break;
+			case DecodedChip8Core.H_2NNN:	run2NNN(from, to);	break;
+			case DecodedChip8Core.H_3XKK:	run3XKK(from, to);	break;
+			case DecodedChip8Core.H_4XKK:	run4XKK(from, to);	break;
+			case DecodedChip8Core.H_5XY0:	run5XY0(from, to);	break;
+			case DecodedChip8Core.H_6XKK:	run6XKK(from, to);	break;
+			case DecodedChip8Core.H_7XKK:	run7XKK(from, to);	break;
+			case DecodedChip8Core.H_8XY0:	case DecodedChip8Core.H_8XY1:	case DecodedChip8Core.H_8XY2:
+			case DecodedChip8Core.H_8XY3:	case DecodedChip8Core.H_8XY4:	case DecodedChip8Core.H_8XY5:
+			case DecodedChip8Core.H_8XY6:	case DecodedChip8Core.H_8XY7:	case DecodedChip8Core.H_8XYE:
+				run8XY(handler, from, to);	break;
+			case DecodedChip8Core.H_9XY0:	run9XY0(from, to);	break;
+			case DecodedChip8Core.H_ANNN:	runANNN(from, to);	break;
+			case DecodedChip8Core.H_BNNN:	runBNNN(from, to);	break;
+			case DecodedChip8Core.H_CXKK:	runCXKK(from, to);	break;
+			case DecodedChip8Core.H_DXYN:	runDXYN(from, to);	break;
+			case DecodedChip8Core.H_EX9E:	runEX9E(from, to);	break;
+			case DecodedChip8Core.H_EXA1:	runEXA1(from, to);	break;
+			case DecodedChip8Core.H_UNSUPPORTED:	break;
+			default:						runFX(handler, from, to);	break;
+		}
+	}
+
+	private void run00E0(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			Arrays.fill(display, m * 32, m * 32 + 32, 0L);
+			pc[m] += 2;
+		}
+	}
+
+	private void run00EE(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int sp = --stackPointer[m];
+			pc[m] = (char) (stack[m * 16 + (sp & 0xf)] + 2);
+		}
+	}
+
+	private void run1NNN(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			pc[m] = (char) (opcodes[m] & 0xfff);
+		}
+	}
+
+	private void run2NNN(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			stack[m * 16 + (stackPointer[m]++ & 0xf)] = pc[m];
+			pc[m] = (char) (opcodes[m] & 0xfff);
+		}
+	}
+
+	private void run3XKK(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			pc[m] += (V[m * 16 + ((opcode >> 8) & 0xf)] == (opcode & 0xff)) ? 4 : 2;
+		}
+	}
+
+	private void run4XKK(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			pc[m] += (V[m * 16 + ((opcode >> 8) & 0xf)] != (opcode & 0xff)) ? 4 : 2;
+		}
+	}
+
+	private void run5XY0(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			pc[m] += (V[m * 16 + ((opcode >> 8) & 0xf)] == V[m * 16 + ((opcode >> 4) & 0xf)]) ? 4 : 2;
+		}
+	}
+
+	private void run6XKK(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			V[m * 16 + ((opcode >> 8) & 0xf)] = (char) (opcode & 0xff);
+			pc[m] += 2;
+		}
+	}
+
+	private void run7XKK(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			int vx = m * 16 + ((opcode >> 8) & 0xf);
+			V[vx] = (char) ((V[vx] + (opcode & 0xff)) & 0xff);
+			pc[m] += 2;
+		}
+	}
+
+	/*
+	 * The 8XY. group. Like Chip8Core, VF is written before Vx is computed, which matters when x or y is F.
+	 */
+	private void run8XY(int handler, int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			int vx = m * 16 + ((opcode >> 8) & 0xf);
+			int vy = m * 16 + ((opcode >> 4) & 0xf);
+			int vf = m * 16 + 0xf;
+			switch(handler)
+			{
+				case DecodedChip8Core.H_8XY0:	V[vx] = V[vy];									break;
+				case DecodedChip8Core.H_8XY1:	V[vx] = (char) ((V[vx] | V[vy]) & 0xff);		break;
+				case DecodedChip8Core.H_8XY2:	V[vx] = (char) (V[vx] & V[vy]);				break;
+				case DecodedChip8Core.H_8XY3:	V[vx] = (char) ((V[vx] ^ V[vy]) & 0xff);		break;
+				case DecodedChip8Core.H_8XY4:
+					V[vf] = (char) (((V[vx] + V[vy]) > 0xff) ? 1 : 0);
+					V[vx] = (char) ((V[vx] + V[vy]) & 0xff);
+					break;
+				case DecodedChip8Core.H_8XY5:
+					V[vf] = (char) ((V[vy] > V[vx]) ? 0 : 1);
+					V[vx] = (char) ((V[vx] - V[vy]) & 0xff);
+					break;
+				case DecodedChip8Core.H_8XY6:
+					V[vf] = (char) (V[vx] & 0x80);
+					V[vx] = (char) (V[vx] >> 1);
+					break;
+				case DecodedChip8Core.H_8XY7:
+					V[vf] = (char) ((V[vx] > V[vy]) ? 0 : 1);
+					V[vx] = (char) ((V[vy] - V[vx]) & 0xff);
+					break;
+				default:	//8XYE
+					V[vf] = (char) (V[vx] & 0x1);
+					V[vx] = (char) ((V[vx] << 1) & 0xff);
+					break;
+			}
+			pc[m] += 2;
+		}
+	}
+
+	private void run9XY0(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			pc[m] += (V[m * 16 + ((opcode >> 8) & 0xf)] != V[m * 16 + ((opcode >> 4) & 0xf)]) ? 4 : 2;
+		}
+	}
+
+	private void runANNN(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			I[m] = (char) (opcodes[m] & 0xfff);
+			pc[m] += 2;
+		}
+	}
+
+	private void runBNNN(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			pc[m] = (char) ((V[m * 16] + (opcodes[m] & 0xfff)) & 0xff);
+		}
+	}
+
+	private void runCXKK(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			V[m * 16 + ((opcode >> 8) & 0xf)] = (char) (nextRandom(m) & opcode & 0xff);
+			pc[m] += 2;
+		}
+	}
+
+	private void runDXYN(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int opcode = opcodes[m];
+			int base = m * 4096;
+			int rows = m * 32;
+			int xcoord = V[m * 16 + ((opcode >> 8) & 0xf)] & 63;
+			int ycoord = V[m * 16 + ((opcode >> 4) & 0xf)];
+			int n = opcode & 0xf;
+			int address = I[m];
+			int collision = 0;
+			for(int ycounter = 0; ycounter < n; ycounter++)
+			{
+				long sprite = Long.rotateRight((long) (memory[base + ((address + ycounter) & 0xfff)] & 0xff) << 56, xcoord);
+				int row = rows + (ycoord + ycounter) % 32;
+				if((display[row] & sprite) != 0)	{	collision = 1;	}
+				display[row] ^= sprite;
+			}
+			V[m * 16 + 0xf] = (char) collision;
+			pc[m] += 2;
+			drawFlag[m] = true;
+		}
+	}
+
+	private void runEX9E(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int key = V[m * 16 + ((opcodes[m] >> 8) & 0xf)] & 0xf;
+			pc[m] += ((keys[m] >> key) & 1) != 0 ? 4 : 2;
+		}
+	}
+
+	private void runEXA1(int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int key = V[m * 16 + ((opcodes[m] >> 8) & 0xf)] & 0xf;
+			pc[m] += ((keys[m] >> key) & 1) != 0 ? 2 : 4;
+		}
+	}
+
+	/*
+	 * The FX.. group.
+	 */
+	private void runFX(int handler, int from, int to)
+	{
+		for(int i = from; i < to; i++)
+		{
+			int m = order[i];
+			int x = (opcodes[m] >> 8) & 0xf;
+			int v = m * 16;
+			int base = m * 4096;
+			int address = I[m];
+			switch(handler)
+			{
+				case DecodedChip8Core.H_FX07:	V[v + x] = (char) delayTimer[m];	break;
+				case DecodedChip8Core.H_FX0A:
+					int held = keys[m];
+					//the highest held key wins, as in Chip8Core
+					if(held != 0)	{	V[v + x] = (char) (31 - Integer.numberOfLeadingZeros(held));	}
+					break;
+				case DecodedChip8Core.H_FX15:	delayTimer[m] = V[v + x];						break;
+				case DecodedChip8Core.H_FX18:	soundTimer[m] = V[v + x];						break;
+				case DecodedChip8Core.H_FX1E:	I[m] = (char) (address + V[v + x]);				break;
+				case DecodedChip8Core.H_FX29:	I[m] = (char) (0x50 + V[v + x] * 5);			break;
+				case DecodedChip8Core.H_FX33:
+					int value = V[v + x];
+					memory[base + (address & 0xfff)]		= (byte) (value / 100);
+					memory[base + ((address + 1) & 0xfff)]	= (byte) ((value / 10) % 10);
+					memory[base + ((address + 2) & 0xfff)]	= (byte) (value % 10);
+					break;
+				case DecodedChip8Core.H_FX55:
+					for(int r = 0; r <= x; r++)	{	memory[base + ((address + r) & 0xfff)] = (byte) V[v + r];	}
+					break;
+				default:	//FX65
+					for(int r = 0; r <= x; r++)	{	V[v + r] = (char) (memory[base + ((address + r) & 0xfff)] & 0xff);	}
+					break;
+			}
+			pc[m] += 2;
+		}
+	}
+}
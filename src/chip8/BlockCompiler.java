@@ -0,0 +1,337 @@
+package chip8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class BlockCompiler
+{
+	/*
+	Turns a basic block of CHIP8 code into a hidden JVM class implementing JitBlock.
+
+	A basic block is a straight run of instructions starting at some address, ending with (and including) the first instruction that
+	# transfers control (00EE, 1NNN, 2NNN, the skips, BNNN, unsupported opcodes), or
+	# writes memory (FX33, FX55), since that may overwrite code this or another block was compiled from,
+	or after MAX_LENGTH instructions. An instruction that reads or sets a timer (FX07, FX15, FX18) may only start a block : the engine
+	applies the timer ticks a block is worth once it has run (Chip8Core.advanceClock()), which is only equivalent to ticking after every
+	instruction if no later instruction in the block looks at the timers. Likewise a 1NNN jumping to its own address always starts
+	a block of its own, so the engine sees the program halt (Chip8Core.isHalted()) exactly where the interpreter does.
+
+	The generated execute() is straight-line bytecode : for each instruction, one call to the matching Chip8Core.opXXXX() method with
+	its operands as constants. Fetch, decode and dispatch disappear, and HotSpot is free to inline the op methods
+	into the block. The machine's quirks profile (see Chip8Quirks) is resolved at compile time too : the call goes straight to the variant
+	the profile picks, so a block is only valid for the profile it was compiled for. Block boundaries don't depend on the profile. There are no branches, so the class file needs no stack map frames.
+
+	The class file is written by hand (just a constant pool, a constructor and one method) to avoid depending on ASM.
+	*/
+
+	static final int MAX_LENGTH = 32;
+
+	private static final String CORE		= "chip8/Chip8Core";
+	private static final String BLOCK		= "chip8/JitBlock";
+	private static final String OBJECT		= "java/lang/Object";
+	private static final String CLASS_NAME	= "chip8/JitBlock$Compiled";
+
+	// The few opcodes and access flags the generated code uses.
+	private static final int ALOAD_0		= 0x2a;
+	private static final int ALOAD_1		= 0x2b;
+	private static final int BIPUSH			= 0x10;
+	private static final int SIPUSH			= 0x11;
+	private static final int LDC_W			= 0x13;
+	private static final int ICONST_0		= 0x03;
+	private static final int RETURN			= 0xb1;
+	private static final int INVOKEVIRTUAL	= 0xb6;
+	private static final int INVOKESPECIAL	= 0xb7;
+	private static final int ACC_PUBLIC		= 0x0001;
+	private static final int ACC_FINAL		= 0x0010;
+	private static final int ACC_SUPER		= 0x0020;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private BlockCompiler()	{	}
+//############################################################################################################################################################
+	/*
+	 * Number of instructions in the block starting at address, following the rules above.
+	 */
+	static int blockLength(PagedMemory memory, int address)
+	{
+		int length = 0;
+		while(length < MAX_LENGTH && address + 1 < PagedMemory.SIZE)
+		{
+			int opcode = (memory.read(address) << 8) | memory.read(address + 1);
+			if(length > 0 && (usesTimers(opcode) || opcode == (0x1000 | address)))	{	break;	}
+			length++;
+			if(endsBlock(opcode))	{	break;	}
+			address += 2;
+		}
+		return length;
+	}
+
+	static boolean endsBlock(int opcode)
+	{
+		switch(DecodedChip8Core.handlerFor(opcode))
+		{
+			case DecodedChip8Core.H_00E0:
+			case DecodedChip8Core.H_6XKK:	case DecodedChip8Core.H_7XKK:
+			case DecodedChip8Core.H_8XY0:	case DecodedChip8Core.H_8XY1:	case DecodedChip8Core.H_8XY2:
+			case DecodedChip8Core.H_8XY3:	case DecodedChip8Core.H_8XY4:	case DecodedChip8Core.H_8XY5:
+			case DecodedChip8Core.H_8XY6:	case DecodedChip8Core.H_8XY7:	case DecodedChip8Core.H_8XYE:
+			case DecodedChip8Core.H_ANNN:	case DecodedChip8Core.H_CXKK:	case DecodedChip8Core.H_DXYN:
+			case DecodedChip8Core.H_FX07:	case DecodedChip8Core.H_FX0A:	case DecodedChip8Core.H_FX15:
+			case DecodedChip8Core.H_FX18:	case DecodedChip8Core.H_FX1E:	case DecodedChip8Core.H_FX29:
+			case DecodedChip8Core.H_FX65:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	static boolean usesTimers(int opcode)
+	{
+		switch(DecodedChip8Core.handlerFor(opcode))
+		{
+			case DecodedChip8Core.H_FX07:	case DecodedChip8Core.H_FX15:	case DecodedChip8Core.H_FX18:
+				return true;
+			default:
+				return false;
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Compiles the block of the given length at address, and loads it as a hidden class in this package.
+	 */
+	static JitBlock compile(PagedMemory memory, int address, int length, Chip8Quirks quirks)
+	{
+		try
+		{
+			byte[] classFile = generate(memory, address, length, quirks);
+			Class<?> blockClass = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+			return (JitBlock) blockClass.getDeclaredConstructor().newInstance();
+		}catch (ReflectiveOperationException | IOException e)
+		{
+			throw new IllegalStateException("Failed to compile block at 0x" + Integer.toHexString(address), e);
+		}
+	}
+//############################################################################################################################################################
+	private static byte[] generate(PagedMemory memory, int address, int length, Chip8Quirks quirks) throws IOException
+	{
+		ConstantPool pool = new ConstantPool();
+		int thisClass	= pool.classRef(CLASS_NAME);
+		int superClass	= pool.classRef(OBJECT);
+		int blockIface	= pool.classRef(BLOCK);
+		int objectInit	= pool.methodRef(OBJECT, "<init>", "()V");
+		int codeAttr	= pool.utf8("Code");
+		int initName	= pool.utf8("<init>");
+		int initDesc	= pool.utf8("()V");
+		int execName	= pool.utf8("execute");
+		int execDesc	= pool.utf8("(L" + CORE + ";)V");
+
+		ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+		DataOutputStream code = new DataOutputStream(codeBytes);
+		for(int i = 0; i < length; i++)
+		{
+			int opcode = (memory.read(address + 2 * i) << 8) | memory.read(address + 2 * i + 1);
+			emitInstruction(code, pool, opcode, quirks);
+		}
+		code.writeByte(RETURN);
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);		// minor version
+		out.writeShort(52);		// major version : Java 8 class file format, no stack map frames needed for straight-line code
+		pool.writeTo(out);
+		out.writeShort(ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);		// interfaces
+		out.writeShort(blockIface);
+		out.writeShort(0);		// fields
+		out.writeShort(2);		// methods
+
+		// public <init>() { super(); }
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(initName);
+		out.writeShort(initDesc);
+		writeCode(out, codeAttr, 1, 1, new byte[] { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN });
+
+		// public void execute(Chip8Core core) { ...block... }
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(execName);
+		out.writeShort(execDesc);
+		writeCode(out, codeAttr, 4, 2, codeBytes.toByteArray());
+
+		out.writeShort(0);		// class attributes
+		return classBytes.toByteArray();
+	}
+
+	private static void writeCode(DataOutputStream out, int codeAttr, int maxStack, int maxLocals, byte[] code) throws IOException
+	{
+		out.writeShort(1);		// method attributes
+		out.writeShort(codeAttr);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0);		// exception table
+		out.writeShort(0);		// code attributes
+	}
+//############################################################################################################################################################
+	/*
+	 * Emits "core.opXXXX(operands...)" for one opcode, or its variant under quirks. Operand extraction mirrors DecodedChip8Core's handler table.
+	 */
+	private static void emitInstruction(DataOutputStream code, ConstantPool pool, int opcode, Chip8Quirks quirks) throws IOException
+	{
+		int nnn	= opcode & 0xfff;
+		int x	= (opcode >> 8) & 0xf;
+		int y	= (opcode >> 4) & 0xf;
+		int kk	= opcode & 0xff;
+		int n	= opcode & 0xf;
+
+		switch(quirks.handlers[DecodedChip8Core.handlerFor(opcode)])
+		{
+			case DecodedChip8Core.H_00E0:	call(code, pool, "op00E0");				break;
+			case DecodedChip8Core.H_00EE:	call(code, pool, "op00EE");				break;
+			case DecodedChip8Core.H_1NNN:	call(code, pool, "op1NNN", nnn);		break;
+			case DecodedChip8Core.H_2NNN:	call(code, pool, "op2NNN", nnn);		break;
+			case DecodedChip8Core.H_3XKK:	call(code, pool, "op3XKK", x, kk);		break;
+			case DecodedChip8Core.H_4XKK:	call(code, pool, "op4XKK", x, kk);		break;
+			case DecodedChip8Core.H_5XY0:	call(code, pool, "op5XY0", x, y);		break;
+			case DecodedChip8Core.H_6XKK:	call(code, pool, "op6XKK", x, kk);		break;
+			case DecodedChip8Core.H_7XKK:	call(code, pool, "op7XKK", x, kk);		break;
+			case DecodedChip8Core.H_8XY0:	call(code, pool, "op8XY0", x, y);		break;
+			case DecodedChip8Core.H_8XY1:	call(code, pool, "op8XY1", x, y);		break;
+			case DecodedChip8Core.H_8XY2:	call(code, pool, "op8XY2", x, y);		break;
+			case DecodedChip8Core.H_8XY3:	call(code, pool, "op8XY3", x, y);		break;
+			case DecodedChip8Core.H_8XY4:	call(code, pool, "op8XY4", x, y);		break;
+			case DecodedChip8Core.H_8XY5:	call(code, pool, "op8XY5", x, y);		break;
+			case DecodedChip8Core.H_8XY6:	call(code, pool, "op8XY6", x, y);		break;
+			case DecodedChip8Core.H_8XY7:	call(code, pool, "op8XY7", x, y);		break;
+			case DecodedChip8Core.H_8XYE:	call(code, pool, "op8XYE", x, y);		break;
+			case DecodedChip8Core.H_9XY0:	call(code, pool, "op9XY0", x, y);		break;
+			case DecodedChip8Core.H_ANNN:	call(code, pool, "opANNN", nnn);		break;
+			case DecodedChip8Core.H_BNNN:	call(code, pool, "opBNNN", nnn);		break;
+			case DecodedChip8Core.H_CXKK:	call(code, pool, "opCXKK", x, kk);		break;
+			case DecodedChip8Core.H_DXYN:	call(code, pool, "opDXYN", x, y, n);	break;
+			case DecodedChip8Core.H_EX9E:	call(code, pool, "opEX9E", x);			break;
+			case DecodedChip8Core.H_EXA1:	call(code, pool, "opEXA1", x);			break;
+			case DecodedChip8Core.H_FX07:	call(code, pool, "opFX07", x);			break;
+			case DecodedChip8Core.H_FX0A:	call(code, pool, "opFX0A", x);			break;
+			case DecodedChip8Core.H_FX15:	call(code, pool, "opFX15", x);			break;
+			case DecodedChip8Core.H_FX18:	call(code, pool, "opFX18", x);			break;
+			case DecodedChip8Core.H_FX1E:	call(code, pool, "opFX1E", x);			break;
+			case DecodedChip8Core.H_FX29:	call(code, pool, "opFX29", x);			break;
+			case DecodedChip8Core.H_FX33:	call(code, pool, "opFX33", x);			break;
+			case DecodedChip8Core.H_FX55:	call(code, pool, "opFX55", x);			break;
+			case DecodedChip8Core.H_FX65:	call(code, pool, "opFX65", x);			break;
+			case DecodedChip8Core.H_8XY1_VF:	call(code, pool, "op8XY1ResetVF", x, y);		break;
+			case DecodedChip8Core.H_8XY2_VF:	call(code, pool, "op8XY2ResetVF", x, y);		break;
+			case DecodedChip8Core.H_8XY3_VF:	call(code, pool, "op8XY3ResetVF", x, y);		break;
+			case DecodedChip8Core.H_8XY6_VX:	call(code, pool, "op8XY6ShiftVx", x, y);		break;
+			case DecodedChip8Core.H_8XY6_VY:	call(code, pool, "op8XY6ShiftVy", x, y);		break;
+			case DecodedChip8Core.H_8XYE_VX:	call(code, pool, "op8XYEShiftVx", x, y);		break;
+			case DecodedChip8Core.H_8XYE_VY:	call(code, pool, "op8XYEShiftVy", x, y);		break;
+			case DecodedChip8Core.H_BNNN_V0:	call(code, pool, "opBNNNWide", nnn);			break;
+			case DecodedChip8Core.H_BXNN:		call(code, pool, "opBXNN", x, nnn);				break;
+			case DecodedChip8Core.H_DXYN_CLIP:	call(code, pool, "opDXYNClip", x, y, n);		break;
+			case DecodedChip8Core.H_FX55_I_X:	call(code, pool, "opFX55AddX", x);				break;
+			case DecodedChip8Core.H_FX55_I_X1:	call(code, pool, "opFX55AddX1", x);				break;
+			case DecodedChip8Core.H_FX65_I_X:	call(code, pool, "opFX65AddX", x);				break;
+			case DecodedChip8Core.H_FX65_I_X1:	call(code, pool, "opFX65AddX1", x);				break;
+			default:	call(code, pool, "opUnsupported", opcode);	break;
+		}
+	}
+
+	private static void call(DataOutputStream code, ConstantPool pool, String method, int... args) throws IOException
+	{
+		StringBuilder descriptor = new StringBuilder("(");
+		code.writeByte(ALOAD_1);
+		for(int arg : args)
+		{
+			if(arg <= 5)			{	code.writeByte(ICONST_0 + arg);	}
+			else if(arg <= 127)		{	code.writeByte(BIPUSH);	code.writeByte(arg);	}
+			else if(arg <= 32767)	{	code.writeByte(SIPUSH);	code.writeShort(arg);	}
+			else
+			{
+				// only unsupported opcodes get here (0x8000 and up); too big for sipush, so load from the constant pool
+				code.writeByte(LDC_W);
+				code.writeShort(pool.integer(arg));
+			}
+			descriptor.append('I');
+		}
+		descriptor.append(")V");
+		code.writeByte(INVOKEVIRTUAL);
+		code.writeShort(pool.methodRef(CORE, method, descriptor.toString()));
+	}
+//############################################################################################################################################################
+	/*
+	 * Just enough of a constant pool : UTF8, Integer, Class, NameAndType and Methodref entries, deduplicated.
+	 */
+	private static final class ConstantPool
+	{
+		private final List<byte[]> entries = new ArrayList<byte[]>();
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+		int utf8(String value) throws IOException
+		{
+			Integer known = indices.get("U" + value);
+			if(known != null)	{	return known;	}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(1);
+			out.writeUTF(value);
+			return add("U" + value, bytes.toByteArray());
+		}
+
+		int integer(int value)
+		{
+			Integer known = indices.get("I" + value);
+			if(known != null)	{	return known;	}
+			return add("I" + value, new byte[] { 3, (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value });
+		}
+
+		int classRef(String internalName) throws IOException
+		{
+			Integer known = indices.get("C" + internalName);
+			if(known != null)	{	return known;	}
+			int name = utf8(internalName);
+			return add("C" + internalName, new byte[] { 7, (byte) (name >> 8), (byte) name });
+		}
+
+		int methodRef(String owner, String name, String descriptor) throws IOException
+		{
+			String key = "M" + owner + "." + name + descriptor;
+			Integer known = indices.get(key);
+			if(known != null)	{	return known;	}
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			Integer nameAndType = indices.get("N" + name + descriptor);
+			if(nameAndType == null)
+			{
+				nameAndType = add("N" + name + descriptor, new byte[] { 12, (byte) (nameIndex >> 8), (byte) nameIndex, (byte) (descriptorIndex >> 8), (byte) descriptorIndex });
+			}
+			return add(key, new byte[] { 10, (byte) (ownerIndex >> 8), (byte) ownerIndex, (byte) (nameAndType >> 8), (byte) (int) nameAndType });
+		}
+
+		private int add(String key, byte[] entry)
+		{
+			entries.add(entry);
+			int index = entries.size();		// constant pool indices start at 1
+			indices.put(key, index);
+			return index;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException
+		{
+			out.writeShort(entries.size() + 1);
+			for(byte[] entry : entries)	{	out.write(entry);	}
+		}
+	}
+}
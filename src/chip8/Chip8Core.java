@@ -3,7 +3,8 @@ package chip8;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Chip8Core
 {
@@ -27,77 +28,387 @@ public class Chip8Core
 		Fontset space starts from 0x50
 	# Stack of 16 levels
 	# 2 timers (delay and sound) which count down at 60 Hz.
-		This essentially means the CHIP-8 runs at 60 FPS, or 60 updates per second.
+		The CPU itself has no fixed speed. The clock rate (setClockRate()) says how many instructions make up one second of
+		emulated time, and the timers tick once per 1/60 of it, however fast the host actually executes them.
 	*/
 
-	private char[]  Memory;
-	private char[]  V;
+	/*
+	 * Clock rate used unless setClockRate() says otherwise : 10 instructions per 60 Hz frame, a common speed for CHIP-8 games.
+	 */
+	public static final int DEFAULT_CLOCK_RATE = 600;
+	/*
+	 * Clock rate meaning "as fast as possible". Executed cycles then don't drive the timers; the host calls tickTimers() at 60 Hz itself.
+	 */
+	public static final int CLOCK_UNLIMITED = 0;
+	/*
+	 * Programs load at 0x200 and may fill memory up to 0xFFF.
+	 */
+	public static final int PROGRAM_START		= 0x200;
+	public static final int MAX_PROGRAM_SIZE	= 4096 - PROGRAM_START;
+	/*
+	 * runUntil() checks the time once per this many cycles.
+	 */
+	private static final int RUN_UNTIL_BATCH = 1024;
+
+	/*
+	 * 4 KB, paged so that fork() can share it copy-on-write (see PagedMemory).
+	 */
+	final PagedMemory memory;
+	/*
+	 * Behaviour profile, fixed for the machine's life, and its table from handler index to the variant implementing it (see Chip8Quirks).
+	 */
+	final Chip8Quirks quirks;
+	final int[] quirkHandlers;
+	/*
+	 * V0 - VF, each always 0 - 255 : every instruction writing one keeps it to 8 bits, so readers never need to mask.
+	 */
+	private int[]	V;
 	private char	I;
-	private char	pc;
+	char	pc;
 	private char[]	stack;
 	private int stackPointer;
 	public byte[]	keypad;
-	private byte[]	display;
+	/*
+	 * The 64x32 screen, bit-packed : one long per row, the most significant bit being x = 0.
+	 * A sprite row then becomes a single rotate + XOR, and collision a single AND.
+	 */
+	private long[]	display;
+	/*
+	 * What changed on the screen since the last clearDirty() : bit y of dirtyRows for row y, and the columns in the same layout
+	 * as a display row (the most significant bit being x = 0). DXYN ORs in the rows and the sprite bits it drew, 00E0 and
+	 * anything replacing the screen wholesale mark everything.
+	 */
+	private int		dirtyRows;
+	private long	dirtyColumns;
+	/*
+	 * One byte per pixel copy of the screen, only allocated if someone asks for getDisplay().
+	 */
+	private byte[]	pixels;
 	private int delayTimer;
 	private int soundTimer;
+	/*
+	 * Emulated clock. Every executed cycle adds 60 to timerPhase, and each time it reaches clockRate one timer tick is due :
+	 * exactly 60 ticks per clockRate cycles, without rounding drift.
+	 */
+	private int clockRate = DEFAULT_CLOCK_RATE;
+	private int timerPhase;
+	private long cycleCount;
+	/*
+	 * Statistics for Chip8Metrics : sprites drawn, sprite rows drawn, and timers that ran down to zero. Plain fields, as only
+	 * the thread running the machine writes them; they aren't machine state, so snapshots and restore() leave them alone.
+	 */
+	private long drawCount;
+	private long spriteRowCount;
+	private long timerExpiries;
 	
 	public boolean drawFlag;
+
+	Chip8Tracer tracer = Chip8Tracer.NONE;
+	/*
+	 * Keys an instruction looked at (EX9E, EXA1, FX0A) since the last takeKeysRead(), bit k = key k. For input latency measurements.
+	 */
+	int keysRead;
+	/*
+	 * One generator per machine, so CXKK doesn't allocate and runs can be made reproducible with setSeed().
+	 * It is java.util.Random's 48 bit LCG, kept as a plain field so snapshots can capture it.
+	 */
+	private long randomState;
+	static final long RANDOM_MULTIPLIER	= 0x5DEECE66DL;
+	static final long RANDOM_MASK		= (1L << 48) - 1;
+
+	static final char[] FONTSET = 
+		{ 
+		  0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
+		  0x20, 0x60, 0x20, 0x20, 0x70, // 1
+		  0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
+		  0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
+		  0x90, 0x90, 0xF0, 0x10, 0x10, // 4
+		  0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
+		  0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
+		  0xF0, 0x10, 0x20, 0x40, 0x40, // 7
+		  0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
+		  0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
+		  0xF0, 0x90, 0xF0, 0x90, 0x90, // A
+		  0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
+		  0xF0, 0x80, 0x80, 0x80, 0xF0, // C
+		  0xE0, 0x90, 0x90, 0x90, 0xE0, // D
+		  0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
+		  0xF0, 0x80, 0xF0, 0x80, 0x80  // F
+		};
+
 	/*
 	Constructor for init
 	*/
 	public Chip8Core()
 	{
-		Memory 			= new char[4096];
-		V      			= new char[16];
+		this(Chip8Quirks.ORIGINAL);
+	}
+
+	/*
+	 * For engines and profile interpreters (see QuirkInterpreters) : cycle() itself always runs the ORIGINAL op methods.
+	 * Everyone else gets a machine with another profile from Chip8Engine.create(Chip8Quirks).
+	 */
+	Chip8Core(Chip8Quirks quirks)
+	{
+		this(new PagedMemory(), quirks);
+		loadFontset();
+	}
+
+	/*
+	 * Machine around an existing memory, for fork(). Everything else starts cleared.
+	 */
+	Chip8Core(PagedMemory memory, Chip8Quirks quirks)
+	{
+		this.memory		= memory;
+		this.quirks		= quirks;
+		quirkHandlers	= quirks.handlers;
+		V      			= new int[16];
 		I 				= 0;
 		pc 				= 0x200;
 		stack 			= new char[16];
 		stackPointer 	= 0;	 
 		keypad			= new byte[16];
-		display 		= new byte[64*32];
+		display 		= new long[32];
+		markAllDirty();
 		delayTimer 		= 0;
 		soundTimer 		= 0;
 
+		setSeed(ThreadLocalRandom.current().nextLong());
+	}
+//############################################################################################################################################################
+	/*
+	 * Puts the machine back into its power-on state (empty memory apart from the fontset, cleared screen and registers) without allocating.
+	 * The tracer is kept.
+	 */
+	public void reset()
+	{
+		memory.clear();
+		Arrays.fill(V, 0);
+		I				= 0;
+		pc				= 0x200;
+		Arrays.fill(stack, (char) 0);
+		stackPointer	= 0;
+		Arrays.fill(keypad, (byte) 0);
+		Arrays.fill(display, 0L);
+		markAllDirty();
+		delayTimer		= 0;
+		soundTimer		= 0;
+		timerPhase		= 0;
+		cycleCount		= 0;
+		drawCount		= 0;
+		spriteRowCount	= 0;
+		timerExpiries	= 0;
+		drawFlag		= false;
+
 		loadFontset();
+		memoryWritten(0, PagedMemory.SIZE - 1);
+	}
+//############################################################################################################################################################
+	/*
+	 * Live view of the screen rows (see display). Callers must not modify it.
+	 */
+	public long[] getDisplayRows()	{	return display;	}
+	public boolean isPixelSet(int x, int y)	{	return (display[y] << x) < 0;	}
+	/*
+	 * The screen region changed since the last clearDirty() (see dirtyRows). A renderer only needs to redraw
+	 * rows with their bit set, and within them columns with their bit set.
+	 */
+	public int getDirtyRows()		{	return dirtyRows;	}
+	public long getDirtyColumns()	{	return dirtyColumns;	}
+	public void clearDirty()
+	{
+		dirtyRows		= 0;
+		dirtyColumns	= 0;
+	}
+	private void markAllDirty()
+	{
+		dirtyRows		= -1;
+		dirtyColumns	= -1L;
+	}
+	/*
+	 * The screen as one byte per pixel (1 = lit), index y * 64 + x, as it used to be stored.
+	 * Expands the rows into a buffer reused between calls, so prefer getDisplayRows() on hot paths.
+	 */
+	public byte[] getDisplay()
+	{
+		if(pixels == null)	{	pixels = new byte[64*32];	}
+		for(int y = 0; y < 32; y++)
+		{
+			long row = display[y];
+			for(int x = 0; x < 64; x++)
+			{
+				pixels[y * 64 + x] = (byte) ((row << x) >>> 63);
+			}
+		}
+		return pixels;
+	}
+	public int getV(int x)		{	return V[x];	}
+	public int getI()			{	return I;	}
+	public int getPC()			{	return pc;	}
+	public int getStackPointer(){	return stackPointer;	}
+	public int getStack(int i)	{	return stack[i];	}
+	public int getDelayTimer()	{	return delayTimer;	}
+	public int getSoundTimer()	{	return soundTimer;	}
+	public int readMemory(int address)	{	return memory.read(address);	}
+	public Chip8Tracer getTracer()		{	return tracer;	}
+	/*
+	 * Installs a per-instruction tracer. Pass null (or Chip8Tracer.NONE) to switch tracing off.
+	 */
+	public void setTracer(Chip8Tracer tracer)	{	this.tracer = (tracer == null) ? Chip8Tracer.NONE : tracer;	}
+	/*
+	 * Seeds the generator behind CXKK. Two machines with the same seed, program and input run identically.
+	 */
+	public void setSeed(long seed)	{	randomState = (seed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;	}
+	/*
+	 * Sets the whole keypad at once from a bit mask, bit k standing for key k (like BatchedChip8.setKeys()).
+	 */
+	public void setKeys(int keyMask)
+	{
+		for(int key = 0; key < 16; key++)	{	keypad[key] = (byte) ((keyMask >>> key) & 1);	}
+	}
+	/*
+	 * Keys the program has read (EX9E, EXA1, FX0A) since the last call, as a bit mask, and starts collecting afresh.
+	 */
+	public int takeKeysRead()
+	{
+		int read = keysRead;
+		keysRead = 0;
+		return read;
+	}
+//############################################################################################################################################################
+	/*
+	 * Copies the complete machine state into target (see Chip8State) and returns it. Allocates nothing, so one
+	 * Chip8State can be reused for every snapshot.
+	 */
+	public Chip8State snapshot(Chip8State target)
+	{
+		memory.copyTo(0, target.memory, 0, PagedMemory.SIZE);
+		System.arraycopy(V, 0, target.V, 0, V.length);
+		System.arraycopy(stack, 0, target.stack, 0, stack.length);
+		System.arraycopy(display, 0, target.display, 0, display.length);
+		System.arraycopy(keypad, 0, target.keypad, 0, keypad.length);
+		target.I			= I;
+		target.pc			= pc;
+		target.stackPointer	= stackPointer;
+		target.delayTimer	= delayTimer;
+		target.soundTimer	= soundTimer;
+		target.drawFlag		= drawFlag;
+		target.randomState	= randomState;
+		target.clockRate	= clockRate;
+		target.timerPhase	= timerPhase;
+		target.cycleCount	= cycleCount;
+		target.quirks		= quirks;
+		return target;
+	}
+
+	/*
+	 * Puts the machine back into a state taken by snapshot() (on any engine), clock rate included. The tracer is kept.
+	 * Throws IllegalArgumentException if the state was taken under another quirks profile.
+	 */
+	public void restore(Chip8State source)
+	{
+		if(source.quirks != quirks)
+		{
+			throw new IllegalArgumentException("State was saved with quirks " + source.quirks + ", machine has " + quirks);
+		}
+		//only the range that actually differs is written and reported, so engine caches and shared pages survive restoring a close state
+		int changed = memory.copyChanged(source.memory);
+		if(changed >= 0)	{	memoryWritten(changed & 0xffff, changed >>> 16);	}
+		System.arraycopy(source.V, 0, V, 0, V.length);
+		System.arraycopy(source.stack, 0, stack, 0, stack.length);
+		System.arraycopy(source.display, 0, display, 0, display.length);
+		markAllDirty();
+		System.arraycopy(source.keypad, 0, keypad, 0, keypad.length);
+		I				= source.I;
+		pc				= source.pc;
+		stackPointer	= source.stackPointer;
+		delayTimer		= source.delayTimer;
+		soundTimer		= source.soundTimer;
+		drawFlag		= source.drawFlag;
+		randomState		= source.randomState;
+		clockRate		= source.clockRate;
+		timerPhase		= source.timerPhase;
+		cycleCount		= source.cycleCount;
+	}
+//############################################################################################################################################################
+	/*
+	 * Returns a copy of this machine that shares its memory copy-on-write (see PagedMemory) : only the 256 byte pages
+	 * either side writes afterwards get duplicated. Registers, stack, screen, keypad, clock and the CXKK generator state are copied,
+	 * so the fork continues exactly like this machine would unless it is given another seed or input.
+	 * The fork is the same kind of engine with the same quirks profile, with empty caches and no tracer.
+	 */
+	public Chip8Core fork()
+	{
+		Chip8Core child = newFork(memory.fork());
+		System.arraycopy(V, 0, child.V, 0, V.length);
+		System.arraycopy(stack, 0, child.stack, 0, stack.length);
+		System.arraycopy(display, 0, child.display, 0, display.length);
+		child.markAllDirty();
+		System.arraycopy(keypad, 0, child.keypad, 0, keypad.length);
+		child.I				= I;
+		child.pc			= pc;
+		child.stackPointer	= stackPointer;
+		child.delayTimer	= delayTimer;
+		child.soundTimer	= soundTimer;
+		child.drawFlag		= drawFlag;
+		child.randomState	= randomState;
+		child.clockRate		= clockRate;
+		child.timerPhase	= timerPhase;
+		child.cycleCount	= cycleCount;
+		return child;
+	}
+
+	/*
+	 * Creates the fork's machine around the forked memory. Engines override this to return their own kind.
+	 */
+	Chip8Core newFork(PagedMemory forkedMemory)
+	{
+		return new Chip8Core(forkedMemory, quirks);
+	}
+
+	/*
+	 * Number of memory pages this machine doesn't share with a parent or fork.
+	 */
+	public int privateMemoryPages()	{	return memory.privatePages();	}
+
+	public Chip8Quirks getQuirks()	{	return quirks;	}
+//############################################################################################################################################################
+	/*
+	 * Returns the opcode that the next cycle will execute, without executing it.
+	 */
+	public int peekOpcode()
+	{
+		return (memory.read(pc) << 8) | memory.read(pc + 1);
+	}
+//############################################################################################################################################################
+	/*
+	 * True if the next instruction is a 1NNN jump to its own address.
+	 * CHIP8 has no halt instruction, so programs "end" by spinning on a self-jump; nothing can change after that except the timers.
+	 */
+	public boolean isHalted()
+	{
+		return peekOpcode() == (0x1000 | pc);
 	}
-	public byte[] getDisplay()	{	return display;	}
 //############################################################################################################################################################
 	/*
 	Loads fontset into memory, starting at 0x50
 	*/
 	private void loadFontset()
 	{
-		char[] fontset = 
-			{ 
-			  0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
-			  0x20, 0x60, 0x20, 0x20, 0x70, // 1
-			  0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
-			  0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
-			  0x90, 0x90, 0xF0, 0x10, 0x10, // 4
-			  0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
-			  0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
-			  0xF0, 0x10, 0x20, 0x40, 0x40, // 7
-			  0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
-			  0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
-			  0xF0, 0x90, 0xF0, 0x90, 0x90, // A
-			  0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
-			  0xF0, 0x80, 0x80, 0x80, 0xF0, // C
-			  0xE0, 0x90, 0x90, 0x90, 0xE0, // D
-			  0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
-			  0xF0, 0x80, 0xF0, 0x80, 0x80  // F
-			};
-		
-		for (int i = 0; i < fontset.length ; i++)
+		for (int i = 0; i < FONTSET.length ; i++)
 		{
-			Memory[ 0x50 + i] = fontset[i];
+			memory.write(0x50 + i, FONTSET[i]);
 		}
 	}
 //############################################################################################################################################################
 	/*
 	A cycle of the emulator
 	Fetch / Decode / execute
+
+	This is the reference interpreter : it decodes every opcode from scratch. The actual semantics of each instruction
+	live in the opXXXX() methods below, so that other engines (see Chip8Engine) can share them and only differ in how they fetch and dispatch.
 	*/
-	private void cycle()
+	void cycle()
 	{
 		int nnn;	// 12 bits, address.
 		int x;		// index of register array V[]. Basically, V[x] = the VXth register, where x = 0 to 15
@@ -109,397 +420,613 @@ public class Chip8Core
 		 * 		We can then logical AND the opcode with 0xf000, 0x0f00, 0x00f0, or 0x000f depending on which nibble we need to "extract" and compare for further processing.
 		 * Note that the program counter needs to be incremented by 2 each time, as with the merge into one opcode, we're reading 2 instructions at a time.
 		 */
-		char opcode = (char) ((Memory[pc] << 8) | Memory[pc + 1]);
-		System.out.print("\n"+ Integer.toHexString(opcode).toUpperCase() + " : ");
+		char opcode = (char) ((memory.read(pc) << 8) | memory.read(pc + 1));
+		tracer.trace(this, pc, opcode);
+
+		nnn	= opcode & 0x0fff;
+		x	= (opcode & 0x0f00) >> 8;
+		y	= (opcode & 0x00f0) >> 4;
+		kk	= opcode & 0x00ff;
+
 		switch(opcode & 0xf000)	//isolate first nibble, and compare
 		{
-			//-------------------------------------------------------------------------------------
-			case	0x0000: 			//all instructions beginning with 0
+			case 0x0000:	//all instructions beginning with 0
 				switch(opcode & 0x000f) //isolate last nibble, and compare
 				{
-					case 0x0:			//00E0 CLS : Clears the screen.
-						System.out.print("CLS");
-						for(int i = 0 ; i < display.length ; i++)	{	display[i] = 0;	 }
-						pc+=2;
-						break;
-					case 0xe:			//00EE RET : Returns from a subroutine.
-						System.out.print("RET");
-						pc = (char) (stack[--stackPointer] + 2);
-						break;
-					default:
-						System.err.println("Unsupported opcode!");
-						break;
+					case 0x0:	op00E0();				break;
+					case 0xe:	op00EE();				break;
+					default:	opUnsupported(opcode);	break;
 				}
-			break;
-//			//-------------------------------------------------------------------------------------
-			case	0x1000:				//1NNN JP addr : Jumps to given 12bit address
-				
-				nnn = opcode & 0x0fff;
-				System.out.print("JP "+nnn);
-				pc = (char) nnn;
 				break;
-			//-------------------------------------------------------------------------------------
-			case	0x2000:				//2NNN CALL addr : Calls subroutine at given 12bit address
-			
-				nnn = opcode & 0xfff;
-				System.out.print("CALL "+nnn);
-				stack[stackPointer] = pc;
-				stackPointer++;
-				pc = (char) nnn;
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x3000:				//3XKK SE Vx, byte : Skip next instruction if Vx = kk
-				
-				x 	= (opcode & 0x0f00) >> 8;
-				kk 	= (char) opcode & 0x00ff;
-				System.out.print("SE V"+x+", "+kk);
-				if( V[x] == kk)	{	pc+=4;	}
-				else            {	pc+=2;	}
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x4000:				//4XKK SNE Vx, byte : Skip next instruction if Vx != kk
-					
-				x = (opcode & 0x0f00) >> 8;
-				kk = opcode & 0xff;
-				System.out.print("SNE V"+x+", "+kk);
-				if( V[x] != kk)	{	pc+=4;	}
-				else			{	pc+=2;	}
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x5000:				//5xy0 - SE Vx, Vy : Skip next instruction if Vx = Vy.
-				
-				x = (opcode & 0x0f00) >> 8;
-				y = (opcode & 0x00f0) >> 4;
-				System.out.print("SE V"+x+", V"+y);
-				if(V[x] == V[y])	{	pc+=2;	}
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x6000:				//6xkk - LD Vx, byte : Set Vx = kk.
-				
-				x = (opcode & 0x0f00) >> 8;
-				kk = (char)(opcode & 0x00ff);
-					System.out.print("LD V"+x+", "+kk);
-				V[x] = (char) kk;
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x7000:				//7xkk - ADD Vx, byte : Set Vx = Vx + kk.
-				
-				x = (opcode & 0x0f00) >> 8;
-				kk = (char) opcode & 0xff;
-				System.out.print("ADD V"+x+", " + kk);
-				V[x] += kk;	// logical AND with 255, to account for overflow
-				V[x] &= 0xff;
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case	0x8000:				//all instructions beginning with 8
+			case 0x1000:	op1NNN(nnn);		break;
+			case 0x2000:	op2NNN(nnn);		break;
+			case 0x3000:	op3XKK(x, kk);		break;
+			case 0x4000:	op4XKK(x, kk);		break;
+			case 0x5000:	op5XY0(x, y);		break;
+			case 0x6000:	op6XKK(x, kk);		break;
+			case 0x7000:	op7XKK(x, kk);		break;
+			case 0x8000:	//all instructions beginning with 8
 				switch (opcode & 0x000f)
 				{
-					case 0x0:			//8xy0 : LD Vx, Vy : Set Vx = Vy.
-						
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("LD V"+x+", V"+y);
-						V[x] = V[y];
-						pc+=2;
-						break;
-					case 0x1:			//8xy1 : OR Vx, Vy : Set Vx = Vx OR Vy
-
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("OR V"+x+", V"+y);
-						V[x] = (char) ((V[x] | V[y]) & 0xff);//account for overflow
-						pc+=2;
-						break;
-					case 0x2:			//8xy2 : AND Vx, Vy : Set Vx = Vx AND Vy
-
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("AND V"+x+", V"+y);
-						V[x] = (char) (V[x] & V[y]);
-						pc+=2;
-						break;
-					case 0x3:			//8xy3 : XOR Vx, Vy : Set Vx = Vx XOR Vy
-
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("XOR V"+x+", V"+y);
-						V[x] = (char) ((V[x] ^ V[y]) & 0xff);//account for overflow
-						pc+=2;
-						break;
-					case 0x4:			//8xy4 : ADD Vx, Vy. Set Vx = Vx + Vy. Set VF = carry
-						
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("ADD V"+x+", V"+y);
-						V[0xf] = (char) (((V[x] + V[y]) > 0xff)? 1:0);
-						V[x] = (char) ((V[x] + V[y]) & 0xff);//account for overflow
-						pc+=2;
-						break;
-					case 0x5:			//8xy5 : SUB Vx, Vy. Set Vx = Vx - Vy. Set VF = NOT borrow
-						
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("SUB V"+x+", V"+y);
-						V[0xf] = (char) ((V[y] > V[x])? 0:1);
-						V[x] = (char) (V[x] - V[y]);
-						pc+=2;
-						break;
-					case 0x6:			//8xy6 : SHR Vx, {,Vy} : Set Vx = Vx >> 1. Set VF = MSB of Vx before shift.
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("SHR V"+x);
-						V[0xf]  = (char) (V[x] & 0x80); //MSB of V[x]
-						V[x]  = (char) (V[x] >> 1);
-						pc+=2;
-						break;
-					case 0x7:			//8xy7 : SUBN Vx, Vy. Set Vx = Vy - Vx. Set VF = NOT borrow
-						
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("SUBN V"+x+", V"+y);
-						V[0xf] = (char) ((V[x] > V[y])? 0:1);
-						V[x] = V[y] - V[x];
-						pc+=2;
- 						break;
-					case 0xe:			//8xye : SHL Vx, Vy. Set Vx = Vx << 1. Set VF = LSB of Vx before shift.
-			
-						x = (opcode & 0x0f00) >> 8;
-						y = (opcode & 0x00f0) >> 4;
-						System.out.print("SHL V"+x+", V"+y);
-						V[0xf] = (char) (V[x] & 0x1); //LSB of Vx
-						V[x]  = (char) (V[x] << 1);
-						pc+=2;
-						break;
-					default:
-						System.err.println("Unsupported opcode");
-						break;
+					case 0x0:	op8XY0(x, y);			break;
+					case 0x1:	op8XY1(x, y);			break;
+					case 0x2:	op8XY2(x, y);			break;
+					case 0x3:	op8XY3(x, y);			break;
+					case 0x4:	op8XY4(x, y);			break;
+					case 0x5:	op8XY5(x, y);			break;
+					case 0x6:	op8XY6(x, y);			break;
+					case 0x7:	op8XY7(x, y);			break;
+					case 0xe:	op8XYE(x, y);			break;
+					default:	opUnsupported(opcode);	break;
 				}
 				break;
-			//-------------------------------------------------------------------------------------
-			case 0x9000: 				//9xy0 : SNE Vx, Vy. Skip next instruction if Vx != Vy.
-				
-				x = (opcode & 0x0f00) >> 8;
-				y = (opcode & 0x00f0) >> 4;
-				System.out.print("SNE V"+x+", V"+y);
-				if(V[x]!=V[y])	{	pc+=2;	}
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case 0xA000:				//Annn : LD I, addr. Set I = 12 bit address.
-				
-				nnn = (char)opcode & 0x0fff;
-				System.out.print("LD I, "+nnn);
-				I = (char)nnn;
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case 0xB000:				//Bnnn : JP V0, addr. Jump to location (nnn + V0)
-				
-				nnn = opcode & 0x0fff;
-				System.out.print("JP V0, "+nnn);
-				pc = (char) ((V[0x0] + nnn) & 0xff);
-				break;
-			//-------------------------------------------------------------------------------------
-			case 0XC000:				//Cxkk : RND Vx, byte. Set Vx = random byte AND kk
-				
-				x = (opcode & 0x0f00) >> 8;
-				kk = opcode & 0x00ff;
-				System.out.print("RND V"+x+", "+kk);
-				Random random = new Random();
-				int rnd = random.nextInt(255);
-				V[x] = (char) (rnd & kk);
-				pc+=2;
-				break;
-			//-------------------------------------------------------------------------------------
-			case 0xD000:				//Dxyn - DRW Vx, Vy, nibble. VF = 1 if collision, 0 if not.
-				
-				x = (opcode & 0x0f00) >> 8;
-				y = (opcode & 0x00f0) >> 4;
-				char xcoord = (char) V[x];
-				char ycoord = (char) V[y];
-				//where n = pixel height
-				int n = (char)(opcode & 0x000f);
-				System.out.print("DRW V"+x+", V"+y+", "+n);
-				char pixelData;
-				//collision marker
-				V[0xf] = 0;
-				for(int ycounter = 0; ycounter < n ; ycounter++)
-				{
-					pixelData = Memory[I + ycounter];
-					//since all CHIP8 sprites are 8 bits in width...
-					for (int xcounter = 0; xcounter < 8 ; xcounter++)
-					{
-						if( (pixelData & (0x80 >> xcounter)) != 0)
-						{
-							int totalX = xcoord + xcounter;
-							int totalY = ycoord + ycounter;
-							totalX %= 64;	//wraparound
-							totalY %= 32;	//wraparound
-							int finalIndex = totalY * 64 + totalX;
-							if (display[finalIndex] == 1)	{	V[0xf] =1;	}
-							//draw the pixel, finally
-							display[finalIndex] ^=1;
-						}
-					}//end xcounter loop
-				}//end ycounter loop
-				pc+=2;
-				drawFlag = true;
-				break;
-			//-------------------------------------------------------------------------------------
-			case 0xE000:				//All instructions beginning with E
+			case 0x9000:	op9XY0(x, y);					break;
+			case 0xA000:	opANNN(nnn);					break;
+			case 0xB000:	opBNNN(nnn);					break;
+			case 0xC000:	opCXKK(x, kk);					break;
+			case 0xD000:	opDXYN(x, y, opcode & 0x000f);	break;
+			case 0xE000:	//All instructions beginning with E
 				switch(opcode & 0xf)
 				{
-					case 0x000e:		//Ex9E : SKP Vx. Skip next instruction if key stored in V[x] is pressed.
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("SKP V"+x);
-						if(keypad[V[x]] == 1)	{	pc+=4;	}//skip
-						else					{	pc+=2;	}//don't skip
-					case 0x0001:		//ExA1 : SKNP Vx. Skip next instruction if key stored in V[x] is NOT pressed.
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("SKNP V"+x);
-						if(keypad[V[x]] == 1)	{	pc+=2;	}//dont skip
-						else					{	pc+=4;	}//skip
+					case 0xe:	opEX9E(x);				break;
+					case 0x1:	opEXA1(x);				break;
+					default:	opUnsupported(opcode);	break;
 				}
 				break;
-			//-------------------------------------------------------------------------------------
-			case 0xF000:				//All instructions beginning with F
-				switch(opcode & 0x00ff)
+			case 0xF000:	//All instructions beginning with F
+				switch(kk)
 				{
-					case 0x0007:		//Fx07 : LD Vx, DT. Set Vx = value of Delay Timer.
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD V"+x+", DT");
-						V[x] = (char) delayTimer;
-						pc+=2;
-						break;
-					case 0x000a:		//Fx0A : LD Vx, K. Await a keypress, and then set Vx = key which was pressed.
-						
-						x = (opcode & 0x0f00) >> 8;
-						int keyPressed = 0;//this is purely for the print statement
-						for(int i = 0 ; i < keypad.length; i++)
-						{
-							if(keypad[i] == 1)
-							{
-								keyPressed = i;
-								V[x] = (char) i;
-							}
-							System.out.println(" Awaiting keypress...");
-						}
-						System.out.print("LD V"+x+", "+keyPressed);
-						pc+=2;
-						break;
-					case 0x0015:		//FX15 : LD DT, Vx. Set delayTimer = value stored in Vx
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD DT, V"+x);
-						delayTimer = V[x];
-						pc+=2;
-						break;
-					case 0x0018:		//FX18 : LD ST, Vx. Set soundTimer = value stored in Vx
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD ST, V"+x);
-						soundTimer = V[x];
-						pc+=2;
-						break;
-					case 0x001e:		//FX1E : ADD I, Vx. Set I = I + Value in Vx
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("ADD I, V"+x);
-						I = (char) (I + V[x]);
-						pc+=2;
-						break;
-					case 0x0029:		//FX29 : LD F, Vx. Set I = location of sprite for character stored in Vx.
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD F, V"+x);
-						int character = V[x];
-						I = (char) (0x50 + (character * 5));//character sprites in fontset are 5 bits long
-						pc+=2;
-						break;
-					case 0x0033:		//FX33 : LD B, VX. Store BCD representation of Vx in Mem[I, I+1, and I+2]
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD B, V"+x);
-						int hundreds = V[x] / 100;
-						int tens = (V[x] /10) % 10;
-						int ones = (V[x] % 10) ;
-
-						Memory[I] = (char) hundreds;
-						Memory[I + 1] = (char) tens;
-						Memory[I + 2] = (char) ones;
-
-						pc+=2;
-						break;
-					case 0x0055:		//FX55 : LD [I], Vx. Stores V0 to Vx in memory starting at location I
-						
-						
-						x = (opcode & 0x0f00) >> 8;
-						System.out.print("LD [I], V"+x);
-						for(int i = 0; i <= x ; i++)
-						{
-							Memory[I + i] = V[i];
-						}
-						pc+=2;
-						break;
-					case 0x0065:		//FX65 : LD Vx, [I]. LoadS V0 to Vx with contents of memory starting at location I
-						
-						x = (opcode & 0x0f00 ) >> 8;
-						System.out.print("LD V"+x+", [I]");
-						for(int i = 0; i <= x ; i ++)
-						{
-							V[i] = Memory[I + i];
-						}
-						pc+=2;
-						break;
+					case 0x07:	opFX07(x);				break;
+					case 0x0a:	opFX0A(x);				break;
+					case 0x15:	opFX15(x);				break;
+					case 0x18:	opFX18(x);				break;
+					case 0x1e:	opFX1E(x);				break;
+					case 0x29:	opFX29(x);				break;
+					case 0x33:	opFX33(x);				break;
+					case 0x55:	opFX55(x);				break;
+					case 0x65:	opFX65(x);				break;
+					default:	opUnsupported(opcode);	break;
 				}
 				break;
-			//-------------------------------------------------------------------------------------
-			default:
-				System.err.print("Unsupported opcode");
-				break;
-			}
-			
-			/*
-			 * Timers have to updated at the end of every CPU cycle
-			 */
-		if(delayTimer > 0)	{	delayTimer--;	}
-		if (soundTimer >0)	{	soundTimer--;	}
-		
+		}
 	}//end of a cycle
 //############################################################################################################################################################
 	/*
-	 * Publicly visible function (let's call it a wrapper function) that calls the actual private cycle() without revealing its inner workings.
+	 * One 60 Hz timer step. Driven by advanceClock(), or by the host when running with CLOCK_UNLIMITED.
 	 */
-	public void run()
+	public void tickTimers()
 	{
-		cycle();
+		if(delayTimer > 0 && --delayTimer == 0)	{	timerExpiries++;	}
+		if(soundTimer > 0 && --soundTimer == 0)	{	timerExpiries++;	}
 	}
+
+	/*
+	 * Accounts for cycles that have just been executed : counts them, and applies the timer ticks that much emulated time adds up to.
+	 * Engines executing several instructions at once may call it once for all of them, as long as none of those reads or sets a timer.
+	 */
+	final void advanceClock(int cycles)
+	{
+		cycleCount += cycles;
+		if(clockRate == CLOCK_UNLIMITED)	{	return;	}
+		timerPhase += 60 * cycles;
+		while(timerPhase >= clockRate)
+		{
+			timerPhase -= clockRate;
+			tickTimers();
+		}
+	}
+
+	/*
+	 * Sets the emulated CPU frequency in instructions per second, or CLOCK_UNLIMITED.
+	 */
+	public void setClockRate(int hz)
+	{
+		if(hz < 0)	{	throw new IllegalArgumentException("Clock rate must be positive or CLOCK_UNLIMITED : " + hz);	}
+		clockRate	= hz;
+		timerPhase	= 0;
+	}
+	public int getClockRate()	{	return clockRate;	}
+	/*
+	 * Instructions executed since power-on / reset().
+	 */
+	public long getCycleCount()	{	return cycleCount;	}
+	/*
+	 * DXYN instructions executed since power-on / reset(), and the total height of the sprites they drew.
+	 */
+	public long getDrawCount()		{	return drawCount;	}
+	public long getSpriteRowCount()	{	return spriteRowCount;	}
+	/*
+	 * Number of times the delay or sound timer counted down to zero since power-on / reset().
+	 */
+	public long getTimerExpiries()	{	return timerExpiries;	}
 //############################################################################################################################################################
 	/*
-	 * Loads a file at given filepath into CHIP8 memory starting at address 0x200.
+	 * Called after an instruction (FX33, FX55) or a loader wrote to memory[from .. to], inclusive.
+	 * Engines that cache anything derived from memory override this to drop stale entries.
 	 */
-	public void loadProgram(String filename)
+	void memoryWritten(int from, int to)	{	}
+//############################################################################################################################################################
+	/*
+	 * Instruction semantics. Each method executes one instruction, including moving pc on.
+	 * x and y are register indices, kk an 8 bit constant, nnn a 12 bit address, n a 4 bit constant.
+	 */
+	void op00E0()				//00E0 CLS : Clears the screen.
+	{
+		Arrays.fill(display, 0L);
+		markAllDirty();
+		pc+=2;
+	}
+
+	void op00EE()				//00EE RET : Returns from a subroutine.
 	{
-		try{
-			//read all bytes from file at given filepath
-			byte[] fileBuffer = Files.readAllBytes(new File(filename).toPath());
-			for(int i = 0 ; i < fileBuffer.length; i++)
+		pc = (char) (stack[--stackPointer] + 2);
+	}
+
+	void op1NNN(int nnn)		//1NNN JP addr : Jumps to given 12bit address
+	{
+		pc = (char) nnn;
+	}
+
+	void op2NNN(int nnn)		//2NNN CALL addr : Calls subroutine at given 12bit address
+	{
+		stack[stackPointer] = pc;
+		stackPointer++;
+		pc = (char) nnn;
+	}
+
+	void op3XKK(int x, int kk)	//3XKK SE Vx, byte : Skip next instruction if Vx = kk
+	{
+		if( V[x] == kk)	{	pc+=4;	}
+		else            {	pc+=2;	}
+	}
+
+	void op4XKK(int x, int kk)	//4XKK SNE Vx, byte : Skip next instruction if Vx != kk
+	{
+		if( V[x] != kk)	{	pc+=4;	}
+		else			{	pc+=2;	}
+	}
+
+	void op5XY0(int x, int y)	//5xy0 - SE Vx, Vy : Skip next instruction if Vx = Vy.
+	{
+		if(V[x] == V[y])	{	pc+=2;	}
+		pc+=2;
+	}
+
+	void op6XKK(int x, int kk)	//6xkk - LD Vx, byte : Set Vx = kk.
+	{
+		V[x] = kk;
+		pc+=2;
+	}
+
+	void op7XKK(int x, int kk)	//7xkk - ADD Vx, byte : Set Vx = Vx + kk.
+	{
+		V[x] = (V[x] + kk) & 0xff;	// logical AND with 255, to account for overflow
+		pc+=2;
+	}
+
+	void op8XY0(int x, int y)	//8xy0 : LD Vx, Vy : Set Vx = Vy.
+	{
+		V[x] = V[y];
+		pc+=2;
+	}
+
+	void op8XY1(int x, int y)	//8xy1 : OR Vx, Vy : Set Vx = Vx OR Vy
+	{
+		V[x] = V[x] | V[y];
+		pc+=2;
+	}
+
+	void op8XY2(int x, int y)	//8xy2 : AND Vx, Vy : Set Vx = Vx AND Vy
+	{
+		V[x] = V[x] & V[y];
+		pc+=2;
+	}
+
+	void op8XY3(int x, int y)	//8xy3 : XOR Vx, Vy : Set Vx = Vx XOR Vy
+	{
+		V[x] = V[x] ^ V[y];
+		pc+=2;
+	}
+
+	/*
+	 * 8XY4 - 8XYE write VF first and then compute Vx from the registers, so with x or y = F the result is computed from the new VF.
+	 * BatchedChip8.run8XY() does the same; keep them in step.
+	 */
+	void op8XY4(int x, int y)	//8xy4 : ADD Vx, Vy. Set Vx = Vx + Vy. Set VF = carry
+	{
+		V[0xf] = ((V[x] + V[y]) > 0xff)? 1:0;
+		V[x] = (V[x] + V[y]) & 0xff;//account for overflow
+		pc+=2;
+	}
+
+	void op8XY5(int x, int y)	//8xy5 : SUB Vx, Vy. Set Vx = Vx - Vy. Set VF = NOT borrow
+	{
+		V[0xf] = (V[y] > V[x])? 0:1;
+		V[x] = (V[x] - V[y]) & 0xff;//wraps around like the 8 bit register it is
+		pc+=2;
+	}
+
+	void op8XY6(int x, int y)	//8xy6 : SHR Vx, {,Vy} : Set Vx = Vx >> 1. Set VF = MSB of Vx before shift.
+	{
+		V[0xf]  = V[x] & 0x80; //MSB of V[x]
+		V[x]  = V[x] >> 1;
+		pc+=2;
+	}
+
+	void op8XY7(int x, int y)	//8xy7 : SUBN Vx, Vy. Set Vx = Vy - Vx. Set VF = NOT borrow
+	{
+		V[0xf] = (V[x] > V[y])? 0:1;
+		V[x] = (V[y] - V[x]) & 0xff;
+		pc+=2;
+	}
+
+	void op8XYE(int x, int y)	//8xye : SHL Vx, Vy. Set Vx = Vx << 1. Set VF = LSB of Vx before shift.
+	{
+		V[0xf] = V[x] & 0x1; //LSB of Vx
+		V[x]  = (V[x] << 1) & 0xff;//the bit shifted out is dropped, like the 8 bit register it is
+		pc+=2;
+	}
+
+	void op9XY0(int x, int y)	//9xy0 : SNE Vx, Vy. Skip next instruction if Vx != Vy.
+	{
+		if(V[x]!=V[y])	{	pc+=2;	}
+		pc+=2;
+	}
+
+	void opANNN(int nnn)		//Annn : LD I, addr. Set I = 12 bit address.
+	{
+		I = (char)nnn;
+		pc+=2;
+	}
+
+	void opBNNN(int nnn)		//Bnnn : JP V0, addr. Jump to location (nnn + V0)
+	{
+		pc = (char) ((V[0x0] + nnn) & 0xff);
+	}
+
+	void opCXKK(int x, int kk)	//Cxkk : RND Vx, byte. Set Vx = random byte AND kk
+	{
+		int rnd = nextRandom();
+		V[x] = rnd & kk;
+		pc+=2;
+	}
+
+	/*
+	 * Same numbers as java.util.Random.nextInt(255) with the same seed.
+	 */
+	private int nextRandom()
+	{
+		int bits, value;
+		do
+		{
+			randomState = (randomState * RANDOM_MULTIPLIER + 0xBL) & RANDOM_MASK;
+			bits = (int) (randomState >>> 17);
+			value = bits % 255;
+		}while(bits - value + 254 < 0);
+		return value;
+	}
+
+	void opDXYN(int x, int y, int n)	//Dxyn - DRW Vx, Vy, nibble. VF = 1 if collision, 0 if not.
+	{
+		//sprites are 8 pixels wide : place the row byte at x = 0 (the top 8 bits), then rotate it into place, wrapping around horizontally
+		int xcoord = V[x] & 63;
+		int ycoord = V[y];
+		//collision marker
+		V[0xf] = 0;
+		//where n = pixel height
+		for(int ycounter = 0; ycounter < n ; ycounter++)
+		{
+			long sprite = Long.rotateRight((long) (memory.read(I + ycounter) & 0xff) << 56, xcoord);
+			int row = (ycoord + ycounter) % 32;	//wraparound
+			if((display[row] & sprite) != 0)	{	V[0xf] = 1;	}
+			//draw the row, finally
+			display[row] ^= sprite;
+			dirtyRows |= 1 << row;
+			dirtyColumns |= sprite;
+		}
+		pc+=2;
+		drawFlag = true;
+		drawCount++;
+		spriteRowCount += n;
+	}
+
+	void opEX9E(int x)			//Ex9E : SKP Vx. Skip next instruction if key stored in V[x] is pressed.
+	{
+		keysRead |= 1 << V[x];
+		if(keypad[V[x]] == 1)	{	pc+=4;	}//skip
+		else					{	pc+=2;	}//don't skip
+	}
+
+	void opEXA1(int x)			//ExA1 : SKNP Vx. Skip next instruction if key stored in V[x] is NOT pressed.
+	{
+		keysRead |= 1 << V[x];
+		if(keypad[V[x]] == 1)	{	pc+=2;	}//dont skip
+		else					{	pc+=4;	}//skip
+	}
+
+	void opFX07(int x)			//Fx07 : LD Vx, DT. Set Vx = value of Delay Timer.
+	{
+		V[x] = delayTimer & 0xff;
+		pc+=2;
+	}
+
+	void opFX0A(int x)			//Fx0A : LD Vx, K. Await a keypress, and then set Vx = key which was pressed.
+	{
+		keysRead = 0xffff;
+		for(int i = 0 ; i < keypad.length; i++)
+		{
+			if(keypad[i] == 1)
 			{
-				//copy buffer over to actual CHIP8 Memory, skipping 0x0 - 0x1FF
-				Memory[0x200 + i] = (char) (fileBuffer[i] & 0xff);
+				V[x] = i;
 			}
-		}catch (IOException e)
+		}
+		pc+=2;
+	}
+
+	void opFX15(int x)			//FX15 : LD DT, Vx. Set delayTimer = value stored in Vx
+	{
+		delayTimer = V[x];
+		pc+=2;
+	}
+
+	void opFX18(int x)			//FX18 : LD ST, Vx. Set soundTimer = value stored in Vx
+	{
+		soundTimer = V[x];
+		pc+=2;
+	}
+
+	void opFX1E(int x)			//FX1E : ADD I, Vx. Set I = I + Value in Vx
+	{
+		I = (char) (I + V[x]);
+		pc+=2;
+	}
+
+	void opFX29(int x)			//FX29 : LD F, Vx. Set I = location of sprite for character stored in Vx.
+	{
+		int character = V[x];
+		I = (char) (0x50 + (character * 5));//character sprites in fontset are 5 bits long
+		pc+=2;
+	}
+
+	void opFX33(int x)			//FX33 : LD B, VX. Store BCD representation of Vx in Mem[I, I+1, and I+2]
+	{
+		int hundreds = V[x] / 100;
+		int tens = (V[x] /10) % 10;
+		int ones = (V[x] % 10) ;
+
+		memory.write(I, hundreds);
+		memory.write(I + 1, tens);
+		memory.write(I + 2, ones);
+		memoryWritten(I, I + 2);
+
+		pc+=2;
+	}
+
+	void opFX55(int x)			//FX55 : LD [I], Vx. Stores V0 to Vx in memory starting at location I
+	{
+		storeRegisters(x);
+		pc+=2;
+	}
+
+	void opFX65(int x)			//FX65 : LD Vx, [I]. LoadS V0 to Vx with contents of memory starting at location I
+	{
+		loadRegisters(x);
+		pc+=2;
+	}
+
+	/*
+	 * The memory side of FX55 / FX65, shared with their variants. The variants mustn't call opFX55 / opFX65 : QuirkInterpreters
+	 * overrides those to call the variants.
+	 */
+	private void storeRegisters(int x)
+	{
+		for(int i = 0; i <= x ; i++)
 		{
-			e.printStackTrace();
+			memory.write(I + i, V[i]);
 		}
-		
-	
+		memoryWritten(I, I + x);
+	}
+
+	private void loadRegisters(int x)
+	{
+		for(int i = 0; i <= x ; i ++)
+		{
+			V[i] = memory.read(I + i);
+		}
+	}
+
+//############################################################################################################################################################
+	/*
+	 * Variants of the instructions above for the other quirks profiles (see Chip8Quirks). Where they set VF, they do it last,
+	 * so the flag wins when the result register is VF itself.
+	 */
+	void op8XY1ResetVF(int x, int y)	//8xy1 on the COSMAC VIP : the ALU leaves VF = 0
+	{
+		V[x] = V[x] | V[y];
+		V[0xf] = 0;
+		pc+=2;
+	}
+
+	void op8XY2ResetVF(int x, int y)	//8xy2 on the COSMAC VIP : the ALU leaves VF = 0
+	{
+		V[x] = V[x] & V[y];
+		V[0xf] = 0;
+		pc+=2;
+	}
+
+	void op8XY3ResetVF(int x, int y)	//8xy3 on the COSMAC VIP : the ALU leaves VF = 0
+	{
+		V[x] = V[x] ^ V[y];
+		V[0xf] = 0;
+		pc+=2;
+	}
+
+	void op8XY6ShiftVx(int x, int y)	//8xy6 on CHIP-48 : Set Vx = Vx >> 1, VF = bit shifted out. Vy is ignored.
+	{
+		int before = V[x];
+		V[x] = before >> 1;
+		V[0xf] = before & 0x1;
+		pc+=2;
+	}
+
+	void op8XY6ShiftVy(int x, int y)	//8xy6 on the COSMAC VIP : Set Vx = Vy >> 1, VF = bit shifted out.
+	{
+		int before = V[y];
+		V[x] = before >> 1;
+		V[0xf] = before & 0x1;
+		pc+=2;
+	}
+
+	void op8XYEShiftVx(int x, int y)	//8xye on CHIP-48 : Set Vx = Vx << 1, VF = bit shifted out. Vy is ignored.
+	{
+		int before = V[x];
+		V[x] = (before << 1) & 0xff;
+		V[0xf] = before >> 7;
+		pc+=2;
+	}
+
+	void op8XYEShiftVy(int x, int y)	//8xye on the COSMAC VIP : Set Vx = Vy << 1, VF = bit shifted out.
+	{
+		int before = V[y];
+		V[x] = (before << 1) & 0xff;
+		V[0xf] = before >> 7;
+		pc+=2;
+	}
+
+	void opBNNNWide(int nnn)			//Bnnn on the COSMAC VIP : jump to nnn + V0 anywhere in memory
+	{
+		pc = (char) ((V[0x0] + nnn) & 0xfff);
+	}
+
+	void opBXNN(int x, int xnn)			//Bxnn on CHIP-48 : jump to xnn + Vx
+	{
+		pc = (char) ((V[x] + xnn) & 0xfff);
+	}
+
+	void opDXYNClip(int x, int y, int n)	//Dxyn, clipping : the sprite starts at (Vx mod 64, Vy mod 32), pixels off the screen are dropped
+	{
+		int xcoord = V[x] & 63;
+		int ycoord = V[y] & 31;
+		int rows = Math.min(n, 32 - ycoord);
+		V[0xf] = 0;
+		for(int ycounter = 0; ycounter < rows; ycounter++)
+		{
+			//a logical shift instead of opDXYN's rotation : columns past the right edge fall off
+			long sprite = ((long) (memory.read(I + ycounter) & 0xff) << 56) >>> xcoord;
+			int row = ycoord + ycounter;
+			if((display[row] & sprite) != 0)	{	V[0xf] = 1;	}
+			display[row] ^= sprite;
+			dirtyRows |= 1 << row;
+			dirtyColumns |= sprite;
+		}
+		pc+=2;
+		drawFlag = true;
+		drawCount++;
+		spriteRowCount += rows;
+	}
+
+	void opFX55AddX(int x)				//FX55 on CHIP-48 : as opFX55, then I = I + x
+	{
+		storeRegisters(x);
+		I = (char) (I + x);
+		pc+=2;
+	}
+
+	void opFX55AddX1(int x)				//FX55 on the COSMAC VIP : as opFX55, then I = I + x + 1
+	{
+		storeRegisters(x);
+		I = (char) (I + x + 1);
+		pc+=2;
+	}
+
+	void opFX65AddX(int x)				//FX65 on CHIP-48 : as opFX65, then I = I + x
+	{
+		loadRegisters(x);
+		I = (char) (I + x);
+		pc+=2;
+	}
+
+	void opFX65AddX1(int x)				//FX65 on the COSMAC VIP : as opFX65, then I = I + x + 1
+	{
+		loadRegisters(x);
+		I = (char) (I + x + 1);
+		pc+=2;
+	}
+
+	void opUnsupported(int opcode)
+	{
+		System.err.println("Unsupported opcode " + Integer.toHexString(opcode).toUpperCase());
+	}
+//############################################################################################################################################################
+	/*
+	 * Publicly visible function (let's call it a wrapper function) that calls the actual package-private cycle() without revealing its inner workings.
+	 */
+	public void run()
+	{
+		cycle();
+		advanceClock(1);
+	}
+//############################################################################################################################################################
+	/*
+	 * Runs up to the given number of cycles, stopping early if the program halts (see isHalted()).
+	 * Returns the number of cycles actually executed. Engines that execute several instructions at a time override this.
+	 */
+	public int runFor(int cycles)
+	{
+		for(int i = 0; i < cycles; i++)
+		{
+			if(isHalted())	{	return i;	}
+			cycle();
+			advanceClock(1);
+		}
+		return cycles;
+	}
+//############################################################################################################################################################
+	/*
+	 * Runs until System.nanoTime() reaches the given deadline or the program halts, checking the time every RUN_UNTIL_BATCH cycles.
+	 * Returns the number of cycles executed.
+	 */
+	public long runUntil(long deadlineNanos)
+	{
+		long done = 0;
+		while(System.nanoTime() - deadlineNanos < 0)
+		{
+			int executed = runFor(RUN_UNTIL_BATCH);
+			done += executed;
+			if(executed < RUN_UNTIL_BATCH)	{	break;	}
+		}
+		return done;
+	}
+//############################################################################################################################################################
+	/*
+	 * Copies a ROM image into CHIP8 memory starting at address 0x200.
+	 * Throws IllegalArgumentException if it doesn't fit below 0x1000 (see MAX_PROGRAM_SIZE).
+	 */
+	public void loadProgram(byte[] program)
+	{
+		loadProgram(program, 0, program.length);
+	}
+
+	/*
+	 * Copies length bytes of program starting at offset into CHIP8 memory at 0x200, page by page.
+	 */
+	public void loadProgram(byte[] program, int offset, int length)
+	{
+		if(length > MAX_PROGRAM_SIZE)	{	throw new IllegalArgumentException("Program too large : " + length + " bytes, at most " + MAX_PROGRAM_SIZE + " fit");	}
+		if(length == 0)	{	return;	}
+		memory.load(PROGRAM_START, program, offset, length);
+		memoryWritten(PROGRAM_START, PROGRAM_START + length - 1);
+	}
+//############################################################################################################################################################
+	/*
+	 * Loads a file at given filepath into CHIP8 memory starting at address 0x200.
+	 * Read errors are passed on, and a file too large for memory is rejected with IllegalArgumentException, rather than loading half a program.
+	 */
+	public void loadProgram(String filename) throws IOException
+	{
+		//read all bytes from file at given filepath
+		byte[] fileBuffer = Files.readAllBytes(new File(filename).toPath());
+		loadProgram(fileBuffer);
 	}
 //############################################################################################################################################################
 	/*
@@ -0,0 +1,40 @@
+package chip8;
+
+public enum Chip8Engine
+{
+	/*
+	Selectable execution engines. All of them share the instruction semantics in Chip8Core and must give identical results;
+	they only differ in how instructions are fetched and dispatched.
+	*/
+
+	INTERPRETER		// Chip8Core.cycle() : decode every instruction from scratch through the nested switch (see QuirkInterpreters for profiles).
+	{
+		@Override
+		public Chip8Core create(Chip8Quirks quirks)	{	return QuirkInterpreters.create(quirks);	}
+	},
+	DECODED			// DecodedChip8Core : per-address decode cache, dispatch through a handler table.
+	{
+		@Override
+		public Chip8Core create(Chip8Quirks quirks)	{	return new DecodedChip8Core(quirks);	}
+	},
+	JIT				// JitChip8Core : basic blocks compiled to hidden JVM classes, executed a block at a time by runFor().
+	{
+		@Override
+		public Chip8Core create(Chip8Quirks quirks)	{	return new JitChip8Core(quirks);	}
+	};
+
+	public abstract Chip8Core create(Chip8Quirks quirks);
+
+	/*
+	 * A machine with the ORIGINAL quirks profile.
+	 */
+	public Chip8Core create()	{	return create(Chip8Quirks.ORIGINAL);	}
+
+	/*
+	 * Case-insensitive lookup for command line arguments.
+	 */
+	public static Chip8Engine parse(String name)
+	{
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,94 @@
+package chip8;
+
+public enum Chip8Quirks
+{
+	/*
+	Behaviour profiles for the instructions CHIP8 implementations historically disagree on. A machine gets its profile at
+	construction (Chip8Engine.create(Chip8Quirks)) and keeps it for life; forks inherit it. Saved states (Chip8State, 4 bits)
+	and input logs (InputRecorder) record it by ordinal : add new profiles at the end.
+
+						8XY1/2/3	8XY6/8XYE				BNNN				DXYN	FX55/FX65
+		ORIGINAL		VF kept		shift Vx, odd flags		(V0 + NNN) & 0xFF	wraps	I unchanged
+		COSMAC_VIP		VF = 0		Vx = Vy shifted			V0 + NNN			clips	I += X + 1
+		CHIP_48			VF kept		shift Vx				BXNN : VX + XNN		clips	I += X
+		SUPER_CHIP		VF kept		shift Vx				BXNN : VX + XNN		clips	I unchanged
+
+	ORIGINAL is what this emulator always did, and stays the default so golden images, recordings and saved states keep replaying.
+	Its shifts put 0x80 / the low bit in VF the other way round from the other profiles, and its BNNN can only reach the first page;
+	the other profiles set VF to the bit shifted out, and write VF after the result.
+	Clipping : sprites still start at Vx mod 64, Vy mod 32, but pixels past the right or bottom edge are dropped instead of wrapping.
+
+	Each profile is a table from the handler index an opcode decodes to (DecodedChip8Core.handlerFor()) to the handler implementing it
+	under the profile, one Chip8Core.opXXXX() method per variant. Engines look the table up where they resolve an opcode anyway :
+	DecodedChip8Core when it caches the decoded instruction, the JIT when it compiles a block (and when it single steps, through the
+	decoded handlers). The interpreter has no decode step to hide it in, so it gets one Chip8Core subclass per profile instead
+	(QuirkInterpreters), whose overrides of the affected opXXXX() call the variants. No instruction tests the profile while it executes.
+	*/
+
+	ORIGINAL
+	(
+		DecodedChip8Core.H_8XY1,	DecodedChip8Core.H_8XY2,	DecodedChip8Core.H_8XY3,
+		DecodedChip8Core.H_8XY6,	DecodedChip8Core.H_8XYE,
+		DecodedChip8Core.H_BNNN,
+		DecodedChip8Core.H_DXYN,
+		DecodedChip8Core.H_FX55,	DecodedChip8Core.H_FX65
+	),
+	COSMAC_VIP
+	(
+		DecodedChip8Core.H_8XY1_VF,	DecodedChip8Core.H_8XY2_VF,	DecodedChip8Core.H_8XY3_VF,
+		DecodedChip8Core.H_8XY6_VY,	DecodedChip8Core.H_8XYE_VY,
+		DecodedChip8Core.H_BNNN_V0,
+		DecodedChip8Core.H_DXYN_CLIP,
+		DecodedChip8Core.H_FX55_I_X1,	DecodedChip8Core.H_FX65_I_X1
+	),
+	CHIP_48
+	(
+		DecodedChip8Core.H_8XY1,	DecodedChip8Core.H_8XY2,	DecodedChip8Core.H_8XY3,
+		DecodedChip8Core.H_8XY6_VX,	DecodedChip8Core.H_8XYE_VX,
+		DecodedChip8Core.H_BXNN,
+		DecodedChip8Core.H_DXYN_CLIP,
+		DecodedChip8Core.H_FX55_I_X,	DecodedChip8Core.H_FX65_I_X
+	),
+	SUPER_CHIP
+	(
+		DecodedChip8Core.H_8XY1,	DecodedChip8Core.H_8XY2,	DecodedChip8Core.H_8XY3,
+		DecodedChip8Core.H_8XY6_VX,	DecodedChip8Core.H_8XYE_VX,
+		DecodedChip8Core.H_BXNN,
+		DecodedChip8Core.H_DXYN_CLIP,
+		DecodedChip8Core.H_FX55,	DecodedChip8Core.H_FX65
+	);
+
+	/*
+	 * Handler index -> handler index under this profile. The identity except for the instructions above.
+	 */
+	final int[] handlers = new int[DecodedChip8Core.HANDLER_COUNT];
+
+	Chip8Quirks(int or, int and, int xor, int shiftRight, int shiftLeft, int jump, int draw, int store, int load)
+	{
+		for(int handler = 0; handler < handlers.length; handler++)	{	handlers[handler] = handler;	}
+		handlers[DecodedChip8Core.H_8XY1]	= or;
+		handlers[DecodedChip8Core.H_8XY2]	= and;
+		handlers[DecodedChip8Core.H_8XY3]	= xor;
+		handlers[DecodedChip8Core.H_8XY6]	= shiftRight;
+		handlers[DecodedChip8Core.H_8XYE]	= shiftLeft;
+		handlers[DecodedChip8Core.H_BNNN]	= jump;
+		handlers[DecodedChip8Core.H_DXYN]	= draw;
+		handlers[DecodedChip8Core.H_FX55]	= store;
+		handlers[DecodedChip8Core.H_FX65]	= load;
+	}
+
+	/*
+	 * Case-insensitive lookup for command line arguments; "vip", "chip48", "schip" and "superchip" work too.
+	 */
+	public static Chip8Quirks parse(String name)
+	{
+		switch(name.toLowerCase().replace("-", "").replace("_", ""))
+		{
+			case "vip":	case "cosmacvip":			return COSMAC_VIP;
+			case "chip48":							return CHIP_48;
+			case "schip":	case "superchip":		return SUPER_CHIP;
+			case "original":						return ORIGINAL;
+			default:	throw new IllegalArgumentException("Unknown quirks profile " + name + " (original, vip, chip48, schip)");
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package chip8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class Chip8State
+{
+	/*
+	A complete copy of a machine, filled by Chip8Core.snapshot() and put back by Chip8Core.restore().
+	One instance can be reused for any number of snapshots; taking or restoring one allocates nothing.
+
+	Everything that decides what the machine does next is in here : memory, registers, stack, timers, screen, keypad,
+	the CXKK generator, the clock and the quirks profile. The engine kind and the tracer are not, so a state taken on one engine
+	restores on any other running the same profile.
+
+	Binary format (big endian), version 2 :
+		int		magic "C8ST"
+		short	version
+		byte	flags : bit 0 set = memory stored as 2 bytes per cell (only written by versions whose cells could hold more than 8 bits)
+				bits 4-7 = Chip8Quirks ordinal (version 2 on; version 1 states are all ORIGINAL)
+		4096	memory, 1 or 2 bytes per cell
+		16		V0 - VF, 2 bytes each
+		short	I,	short pc
+		16		stack, 2 bytes each
+		byte	stack pointer
+		short	delay timer,	short sound timer
+		32		screen rows, 8 bytes each
+		16		keypad, 1 byte per key
+		byte	draw flag
+		long	generator state
+		int		clock rate,	int timer phase,	long cycle count
+	Registers are stored 16 bits wide because Chip8Core used to let some arithmetic results grow past 8 bits.
+	It now keeps registers and memory to 8 bits, always writes narrow memory, and masks wider values from older files on reading.
+	*/
+
+	public static final int FORMAT_VERSION = 2;
+	/*
+	 * Largest serialized size, i.e. with wide memory (as older versions could write).
+	 */
+	public static final int MAX_SIZE = 4 + 2 + 1 + 4096 * 2 + 32 + 2 + 2 + 32 + 1 + 2 + 2 + 32 * 8 + 16 + 1 + 8 + 4 + 4 + 8;
+
+	private static final int MAGIC			= 0x43385354;	// "C8ST"
+	private static final int WIDE_MEMORY	= 0x1;
+	private static final int QUIRKS_SHIFT	= 4;
+
+	final byte[] memory		= new byte[4096];
+	final int[] V			= new int[16];
+	char I;
+	char pc;
+	final char[] stack		= new char[16];
+	int stackPointer;
+	int delayTimer;
+	int soundTimer;
+	final long[] display	= new long[32];
+	final byte[] keypad		= new byte[16];
+	boolean drawFlag;
+	long randomState;
+	int clockRate;
+	int timerPhase;
+	long cycleCount;
+	Chip8Quirks quirks		= Chip8Quirks.ORIGINAL;
+
+	public long getCycleCount()		{	return cycleCount;	}
+	/*
+	 * Profile of the machine the state was taken from. Only a machine created with it (Chip8Engine.create(Chip8Quirks)) can restore the state.
+	 */
+	public Chip8Quirks getQuirks()	{	return quirks;	}
+//############################################################################################################################################################
+	/*
+	 * Copies another state into this one.
+	 */
+	public void copyFrom(Chip8State other)
+	{
+		System.arraycopy(other.memory, 0, memory, 0, memory.length);
+		System.arraycopy(other.V, 0, V, 0, V.length);
+		System.arraycopy(other.stack, 0, stack, 0, stack.length);
+		System.arraycopy(other.display, 0, display, 0, display.length);
+		System.arraycopy(other.keypad, 0, keypad, 0, keypad.length);
+		I				= other.I;
+		pc				= other.pc;
+		stackPointer	= other.stackPointer;
+		delayTimer		= other.delayTimer;
+		soundTimer		= other.soundTimer;
+		drawFlag		= other.drawFlag;
+		randomState		= other.randomState;
+		clockRate		= other.clockRate;
+		timerPhase		= other.timerPhase;
+		cycleCount		= other.cycleCount;
+		quirks			= other.quirks;
+	}
+//############################################################################################################################################################
+	/*
+	 * Number of bytes writeTo() will need for this state.
+	 */
+	public int serializedSize()
+	{
+		return MAX_SIZE - 4096;
+	}
+
+	/*
+	 * Writes the state at the buffer's position, in the format described above.
+	 */
+	public void writeTo(ByteBuffer buffer)
+	{
+		buffer.putInt(MAGIC);
+		buffer.putShort((short) FORMAT_VERSION);
+		buffer.put((byte) (quirks.ordinal() << QUIRKS_SHIFT));
+		buffer.put(memory);
+		for(int register : V)	{	buffer.putChar((char) register);	}
+		buffer.putChar(I);
+		buffer.putChar(pc);
+		for(char address : stack)	{	buffer.putChar(address);	}
+		buffer.put((byte) stackPointer);
+		buffer.putChar((char) delayTimer);
+		buffer.putChar((char) soundTimer);
+		for(long row : display)	{	buffer.putLong(row);	}
+		buffer.put(keypad);
+		buffer.put((byte) (drawFlag ? 1 : 0));
+		buffer.putLong(randomState);
+		buffer.putInt(clockRate);
+		buffer.putInt(timerPhase);
+		buffer.putLong(cycleCount);
+	}
+
+	/*
+	 * Reads a state written by writeTo() from the buffer's position. Throws IllegalArgumentException if it isn't one,
+	 * was written by a newer version or holds values no machine could be in; this state is left untouched then.
+	 */
+	public void readFrom(ByteBuffer buffer)
+	{
+		if(buffer.remaining() < 7 || buffer.getInt() != MAGIC)	{	throw new IllegalArgumentException("Not a CHIP8 save state");	}
+		int version = buffer.getShort();
+		if(version < 1 || version > FORMAT_VERSION)	{	throw new IllegalArgumentException("Unsupported save state version " + version);	}
+		int flags = buffer.get() & 0xff;
+		boolean wide = (flags & WIDE_MEMORY) != 0;
+		int profile = flags >>> QUIRKS_SHIFT;
+		if(buffer.remaining() < (wide ? MAX_SIZE : MAX_SIZE - 4096) - 7)	{	throw new IllegalArgumentException("Truncated save state");	}
+		if(profile >= Chip8Quirks.values().length || !isConsistent(buffer, buffer.position() + (wide ? 8192 : 4096)))
+		{
+			throw new IllegalArgumentException("Corrupt save state");
+		}
+		quirks			= Chip8Quirks.values()[profile];
+
+		if(wide)
+		{
+			for(int i = 0; i < memory.length; i++)	{	memory[i] = (byte) buffer.getChar();	}
+		}
+		else
+		{
+			buffer.get(memory);
+		}
+		for(int i = 0; i < V.length; i++)	{	V[i] = buffer.getChar() & 0xff;	}
+		I				= buffer.getChar();
+		pc				= buffer.getChar();
+		for(int i = 0; i < stack.length; i++)	{	stack[i] = buffer.getChar();	}
+		stackPointer	= buffer.get();
+		delayTimer		= buffer.getChar();
+		soundTimer		= buffer.getChar();
+		for(int i = 0; i < display.length; i++)	{	display[i] = buffer.getLong();	}
+		buffer.get(keypad);
+		drawFlag		= buffer.get() != 0;
+		randomState		= buffer.getLong();
+		clockRate		= buffer.getInt();
+		timerPhase		= buffer.getInt();
+		cycleCount		= buffer.getLong();
+	}
+
+	/*
+	 * Checks, without consuming anything, that the fields after the memory (starting at the absolute index registers) hold values
+	 * a machine can run from : a stack pointer within the stack, addresses within the 4 KB, a valid clock rate and a timer phase below it.
+	 */
+	private static boolean isConsistent(ByteBuffer buffer, int registers)
+	{
+		int I				= buffer.getChar(registers + 32);
+		int pc				= buffer.getChar(registers + 34);
+		int stackPointer	= buffer.get(registers + 68);
+		int clockRate		= buffer.getInt(registers + 354);
+		int timerPhase		= buffer.getInt(registers + 358);
+		if(I > 0xfff || pc > 0xfff || stackPointer < 0 || stackPointer > 16)	{	return false;	}
+		for(int i = 0; i < 16; i++)
+		{
+			if(buffer.getChar(registers + 36 + 2 * i) > 0xfff)	{	return false;	}
+		}
+		if(clockRate == Chip8Core.CLOCK_UNLIMITED)	{	return timerPhase >= 0;	}
+		return clockRate > 0 && timerPhase >= 0 && timerPhase < clockRate;
+	}
+//############################################################################################################################################################
+	/*
+	 * Writes the state to a file, replacing it if it exists.
+	 */
+	public void save(Path file) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+		writeTo(buffer);
+		buffer.flip();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while(buffer.hasRemaining())	{	channel.write(buffer);	}
+		}
+	}
+
+	/*
+	 * Reads a state saved by save().
+	 */
+	public void load(Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() > MAX_SIZE)	{	throw new IllegalArgumentException("Not a CHIP8 save state : " + file);	}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0)	{	}
+			buffer.flip();
+			readFrom(buffer);
+		}
+	}
+}
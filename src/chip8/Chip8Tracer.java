@@ -0,0 +1,19 @@
+package chip8;
+
+public interface Chip8Tracer
+{
+	/*
+	 * Called by the core once per instruction, after fetch and before execute.
+	 * Implementations must not keep the core reference past the call, and should not allocate if they want execution to stay allocation-free.
+	 */
+	void trace(Chip8Core chip8core, int pc, int opcode);
+
+	/*
+	 * Default tracer. Its body is empty, so once the call site only ever sees this instance the JIT inlines it away entirely.
+	 */
+	Chip8Tracer NONE = new Chip8Tracer()
+	{
+		@Override
+		public void trace(Chip8Core chip8core, int pc, int opcode)	{	}
+	};
+}
@@ -0,0 +1,260 @@
+package chip8;
+
+import java.util.Arrays;
+
+public class DecodedChip8Core extends Chip8Core
+{
+	/*
+	Engine that decodes each address once and dispatches through a handler table.
+
+	decoded[addr] caches the instruction starting at addr as a packed int :
+		bits 0 - 15		the opcode itself (x, y, n, kk and nnn are just bit slices of it, so there is nothing to gain from storing them apart)
+		bits 16 - 23	index into HANDLERS, with the two-level switch of cycle() and the quirks profile (see Chip8Quirks) already resolved
+	0 means "not decoded yet". Entries are filled lazily on first execution and dropped whenever memory under them is written
+	(FX33, FX55, program loads), so self-modifying ROMs still see their own writes.
+	*/
+
+	interface Handler
+	{
+		void execute(Chip8Core core, int opcode);
+	}
+
+	/*
+	 * Handler indices, shared with BlockCompiler. 0 means "not decoded".
+	 */
+	static final int H_UNSUPPORTED	= 1;
+	static final int H_00E0		= 2;
+	static final int H_00EE		= 3;
+	static final int H_1NNN		= 4;
+	static final int H_2NNN		= 5;
+	static final int H_3XKK		= 6;
+	static final int H_4XKK		= 7;
+	static final int H_5XY0		= 8;
+	static final int H_6XKK		= 9;
+	static final int H_7XKK		= 10;
+	static final int H_8XY0		= 11;
+	static final int H_8XY1		= 12;
+	static final int H_8XY2		= 13;
+	static final int H_8XY3		= 14;
+	static final int H_8XY4		= 15;
+	static final int H_8XY5		= 16;
+	static final int H_8XY6		= 17;
+	static final int H_8XY7		= 18;
+	static final int H_8XYE		= 19;
+	static final int H_9XY0		= 20;
+	static final int H_ANNN		= 21;
+	static final int H_BNNN		= 22;
+	static final int H_CXKK		= 23;
+	static final int H_DXYN		= 24;
+	static final int H_EX9E		= 25;
+	static final int H_EXA1		= 26;
+	static final int H_FX07		= 27;
+	static final int H_FX0A		= 28;
+	static final int H_FX15		= 29;
+	static final int H_FX18		= 30;
+	static final int H_FX1E		= 31;
+	static final int H_FX29		= 32;
+	static final int H_FX33		= 33;
+	static final int H_FX55		= 34;
+	static final int H_FX65		= 35;
+	/*
+	 * Variants for quirks profiles (see Chip8Quirks). handlerFor() never returns these; a profile maps the handlers above to them.
+	 */
+	static final int H_8XY1_VF		= 36;
+	static final int H_8XY2_VF		= 37;
+	static final int H_8XY3_VF		= 38;
+	static final int H_8XY6_VX		= 39;
+	static final int H_8XY6_VY		= 40;
+	static final int H_8XYE_VX		= 41;
+	static final int H_8XYE_VY		= 42;
+	static final int H_BNNN_V0		= 43;
+	static final int H_BXNN			= 44;
+	static final int H_DXYN_CLIP	= 45;
+	static final int H_FX55_I_X		= 46;
+	static final int H_FX55_I_X1	= 47;
+	static final int H_FX65_I_X		= 48;
+	static final int H_FX65_I_X1	= 49;
+	static final int HANDLER_COUNT	= 50;
+
+	private static final Handler[] HANDLERS =
+		{
+			null,														// 0 : reserved for "not decoded"
+			(core, op) -> core.opUnsupported(op),						// 1
+			(core, op) -> core.op00E0(),								// 2
+			(core, op) -> core.op00EE(),								// 3
+			(core, op) -> core.op1NNN(op & 0xfff),						// 4
+			(core, op) -> core.op2NNN(op & 0xfff),						// 5
+			(core, op) -> core.op3XKK((op >> 8) & 0xf, op & 0xff),		// 6
+			(core, op) -> core.op4XKK((op >> 8) & 0xf, op & 0xff),		// 7
+			(core, op) -> core.op5XY0((op >> 8) & 0xf, (op >> 4) & 0xf),	// 8
+			(core, op) -> core.op6XKK((op >> 8) & 0xf, op & 0xff),		// 9
+			(core, op) -> core.op7XKK((op >> 8) & 0xf, op & 0xff),		// 10
+			(core, op) -> core.op8XY0((op >> 8) & 0xf, (op >> 4) & 0xf),	// 11
+			(core, op) -> core.op8XY1((op >> 8) & 0xf, (op >> 4) & 0xf),	// 12
+			(core, op) -> core.op8XY2((op >> 8) & 0xf, (op >> 4) & 0xf),	// 13
+			(core, op) -> core.op8XY3((op >> 8) & 0xf, (op >> 4) & 0xf),	// 14
+			(core, op) -> core.op8XY4((op >> 8) & 0xf, (op >> 4) & 0xf),	// 15
+			(core, op) -> core.op8XY5((op >> 8) & 0xf, (op >> 4) & 0xf),	// 16
+			(core, op) -> core.op8XY6((op >> 8) & 0xf, (op >> 4) & 0xf),	// 17
+			(core, op) -> core.op8XY7((op >> 8) & 0xf, (op >> 4) & 0xf),	// 18
+			(core, op) -> core.op8XYE((op >> 8) & 0xf, (op >> 4) & 0xf),	// 19
+			(core, op) -> core.op9XY0((op >> 8) & 0xf, (op >> 4) & 0xf),	// 20
+			(core, op) -> core.opANNN(op & 0xfff),						// 21
+			(core, op) -> core.opBNNN(op & 0xfff),						// 22
+			(core, op) -> core.opCXKK((op >> 8) & 0xf, op & 0xff),		// 23
+			(core, op) -> core.opDXYN((op >> 8) & 0xf, (op >> 4) & 0xf, op & 0xf),	// 24
+			(core, op) -> core.opEX9E((op >> 8) & 0xf),					// 25
+			(core, op) -> core.opEXA1((op >> 8) & 0xf),					// 26
+			(core, op) -> core.opFX07((op >> 8) & 0xf),					// 27
+			(core, op) -> core.opFX0A((op >> 8) & 0xf),					// 28
+			(core, op) -> core.opFX15((op >> 8) & 0xf),					// 29
+			(core, op) -> core.opFX18((op >> 8) & 0xf),					// 30
+			(core, op) -> core.opFX1E((op >> 8) & 0xf),					// 31
+			(core, op) -> core.opFX29((op >> 8) & 0xf),					// 32
+			(core, op) -> core.opFX33((op >> 8) & 0xf),					// 33
+			(core, op) -> core.opFX55((op >> 8) & 0xf),					// 34
+			(core, op) -> core.opFX65((op >> 8) & 0xf),					// 35
+			(core, op) -> core.op8XY1ResetVF((op >> 8) & 0xf, (op >> 4) & 0xf),	// 36
+			(core, op) -> core.op8XY2ResetVF((op >> 8) & 0xf, (op >> 4) & 0xf),	// 37
+			(core, op) -> core.op8XY3ResetVF((op >> 8) & 0xf, (op >> 4) & 0xf),	// 38
+			(core, op) -> core.op8XY6ShiftVx((op >> 8) & 0xf, (op >> 4) & 0xf),	// 39
+			(core, op) -> core.op8XY6ShiftVy((op >> 8) & 0xf, (op >> 4) & 0xf),	// 40
+			(core, op) -> core.op8XYEShiftVx((op >> 8) & 0xf, (op >> 4) & 0xf),	// 41
+			(core, op) -> core.op8XYEShiftVy((op >> 8) & 0xf, (op >> 4) & 0xf),	// 42
+			(core, op) -> core.opBNNNWide(op & 0xfff),					// 43
+			(core, op) -> core.opBXNN((op >> 8) & 0xf, op & 0xfff),		// 44
+			(core, op) -> core.opDXYNClip((op >> 8) & 0xf, (op >> 4) & 0xf, op & 0xf),	// 45
+			(core, op) -> core.opFX55AddX((op >> 8) & 0xf),				// 46
+			(core, op) -> core.opFX55AddX1((op >> 8) & 0xf),				// 47
+			(core, op) -> core.opFX65AddX((op >> 8) & 0xf),				// 48
+			(core, op) -> core.opFX65AddX1((op >> 8) & 0xf),				// 49
+		};
+
+	private static final String[] NAMES =
+		{
+			null, "unsupported", "00E0", "00EE", "1NNN", "2NNN", "3XKK", "4XKK", "5XY0", "6XKK", "7XKK",
+			"8XY0", "8XY1", "8XY2", "8XY3", "8XY4", "8XY5", "8XY6", "8XY7", "8XYE", "9XY0", "ANNN", "BNNN", "CXKK", "DXYN",
+			"EX9E", "EXA1", "FX07", "FX0A", "FX15", "FX18", "FX1E", "FX29", "FX33", "FX55", "FX65",
+		};
+
+	private final int[] decoded = new int[4096];
+
+	public DecodedChip8Core()						{	super();	}
+	public DecodedChip8Core(Chip8Quirks quirks)		{	super(quirks);	}
+
+	DecodedChip8Core(PagedMemory memory, Chip8Quirks quirks)	{	super(memory, quirks);	}
+
+	@Override
+	Chip8Core newFork(PagedMemory forkedMemory)
+	{
+		return new DecodedChip8Core(forkedMemory, quirks);
+	}
+
+	@Override
+	void cycle()
+	{
+		int entry = decoded[pc];
+		if(entry == 0)	{	entry = decode(pc);	}
+		int opcode = entry & 0xffff;
+		tracer.trace(this, pc, opcode);
+		HANDLERS[entry >>> 16].execute(this, opcode);
+	}
+//############################################################################################################################################################
+	/*
+	 * Decodes the instruction at address, resolves the quirks profile's variant of it and caches it. Mirrors the switch in Chip8Core.cycle().
+	 */
+	private int decode(int address)
+	{
+		int opcode = (memory.read(address) << 8) | memory.read(address + 1);
+		int entry = (quirkHandlers[handlerFor(opcode)] << 16) | opcode;
+		decoded[address] = entry;
+		return entry;
+	}
+
+	/*
+	 * Runs one instruction through the handler table, for engines that step outside the decode cache (JitChip8Core).
+	 */
+	static void execute(Chip8Core core, int handler, int opcode)
+	{
+		HANDLERS[handler].execute(core, opcode);
+	}
+
+	/*
+	 * Name of the instruction the engines execute for opcode, e.g. "EXA1" for E431 (only the last nibble of E instructions is decoded)
+	 * or "unsupported".
+	 */
+	public static String instructionName(int opcode)
+	{
+		return NAMES[handlerFor(opcode)];
+	}
+
+	static int handlerFor(int opcode)
+	{
+		switch(opcode & 0xf000)
+		{
+			case 0x0000:
+				switch(opcode & 0x000f)
+				{
+					case 0x0:	return H_00E0;
+					case 0xe:	return H_00EE;
+				}
+				return H_UNSUPPORTED;
+			case 0x1000:	return H_1NNN;
+			case 0x2000:	return H_2NNN;
+			case 0x3000:	return H_3XKK;
+			case 0x4000:	return H_4XKK;
+			case 0x5000:	return H_5XY0;
+			case 0x6000:	return H_6XKK;
+			case 0x7000:	return H_7XKK;
+			case 0x8000:
+				switch(opcode & 0x000f)
+				{
+					case 0x0:	return H_8XY0;
+					case 0x1:	return H_8XY1;
+					case 0x2:	return H_8XY2;
+					case 0x3:	return H_8XY3;
+					case 0x4:	return H_8XY4;
+					case 0x5:	return H_8XY5;
+					case 0x6:	return H_8XY6;
+					case 0x7:	return H_8XY7;
+					case 0xe:	return H_8XYE;
+				}
+				return H_UNSUPPORTED;
+			case 0x9000:	return H_9XY0;
+			case 0xA000:	return H_ANNN;
+			case 0xB000:	return H_BNNN;
+			case 0xC000:	return H_CXKK;
+			case 0xD000:	return H_DXYN;
+			case 0xE000:
+				switch(opcode & 0x000f)
+				{
+					case 0xe:	return H_EX9E;
+					case 0x1:	return H_EXA1;
+				}
+				return H_UNSUPPORTED;
+			default:	//0xF000
+				switch(opcode & 0x00ff)
+				{
+					case 0x07:	return H_FX07;
+					case 0x0a:	return H_FX0A;
+					case 0x15:	return H_FX15;
+					case 0x18:	return H_FX18;
+					case 0x1e:	return H_FX1E;
+					case 0x29:	return H_FX29;
+					case 0x33:	return H_FX33;
+					case 0x55:	return H_FX55;
+					case 0x65:	return H_FX65;
+				}
+				return H_UNSUPPORTED;
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * An instruction at address a covers bytes a and a+1, so a write to [from, to] invalidates entries from - 1 through to.
+	 */
+	@Override
+	void memoryWritten(int from, int to)
+	{
+		Arrays.fill(decoded, Math.max(from - 1, 0), Math.min(to + 1, decoded.length), 0);
+	}
+}
@@ -0,0 +1,74 @@
+package chip8;
+
+public class Disassembler
+{
+	/*
+	 * Turns a single opcode into its assembly mnemonic, e.g. 0xA30C -> "LD I, 0x30C".
+	 * Meant for traces, reports and debugging output, never for the execution path.
+	 */
+	public static String disassemble(int opcode)
+	{
+		int nnn	= opcode & 0x0fff;
+		int x	= (opcode & 0x0f00) >> 8;
+		int y	= (opcode & 0x00f0) >> 4;
+		int kk	= opcode & 0x00ff;
+		int n	= opcode & 0x000f;
+
+		switch(opcode & 0xf000)
+		{
+			case 0x0000:
+				if(opcode == 0x00e0)	{	return "CLS";	}
+				if(opcode == 0x00ee)	{	return "RET";	}
+				return "SYS " + hex3(nnn);
+			case 0x1000:	return "JP " + hex3(nnn);
+			case 0x2000:	return "CALL " + hex3(nnn);
+			case 0x3000:	return "SE V" + hex1(x) + ", " + hex2(kk);
+			case 0x4000:	return "SNE V" + hex1(x) + ", " + hex2(kk);
+			case 0x5000:	return "SE V" + hex1(x) + ", V" + hex1(y);
+			case 0x6000:	return "LD V" + hex1(x) + ", " + hex2(kk);
+			case 0x7000:	return "ADD V" + hex1(x) + ", " + hex2(kk);
+			case 0x8000:
+				switch(n)
+				{
+					case 0x0:	return "LD V" + hex1(x) + ", V" + hex1(y);
+					case 0x1:	return "OR V" + hex1(x) + ", V" + hex1(y);
+					case 0x2:	return "AND V" + hex1(x) + ", V" + hex1(y);
+					case 0x3:	return "XOR V" + hex1(x) + ", V" + hex1(y);
+					case 0x4:	return "ADD V" + hex1(x) + ", V" + hex1(y);
+					case 0x5:	return "SUB V" + hex1(x) + ", V" + hex1(y);
+					case 0x6:	return "SHR V" + hex1(x);
+					case 0x7:	return "SUBN V" + hex1(x) + ", V" + hex1(y);
+					case 0xe:	return "SHL V" + hex1(x) + ", V" + hex1(y);
+				}
+				break;
+			case 0x9000:	return "SNE V" + hex1(x) + ", V" + hex1(y);
+			case 0xA000:	return "LD I, " + hex3(nnn);
+			case 0xB000:	return "JP V0, " + hex3(nnn);
+			case 0xC000:	return "RND V" + hex1(x) + ", " + hex2(kk);
+			case 0xD000:	return "DRW V" + hex1(x) + ", V" + hex1(y) + ", " + n;
+			case 0xE000:
+				if(kk == 0x9e)	{	return "SKP V" + hex1(x);	}
+				if(kk == 0xa1)	{	return "SKNP V" + hex1(x);	}
+				break;
+			case 0xF000:
+				switch(kk)
+				{
+					case 0x07:	return "LD V" + hex1(x) + ", DT";
+					case 0x0a:	return "LD V" + hex1(x) + ", K";
+					case 0x15:	return "LD DT, V" + hex1(x);
+					case 0x18:	return "LD ST, V" + hex1(x);
+					case 0x1e:	return "ADD I, V" + hex1(x);
+					case 0x29:	return "LD F, V" + hex1(x);
+					case 0x33:	return "LD B, V" + hex1(x);
+					case 0x55:	return "LD [I], V" + hex1(x);
+					case 0x65:	return "LD V" + hex1(x) + ", [I]";
+				}
+				break;
+		}
+		return "DW " + String.format("0x%04X", opcode);
+	}
+
+	private static String hex1(int value)	{	return Integer.toHexString(value).toUpperCase();	}
+	private static String hex2(int value)	{	return String.format("0x%02X", value);	}
+	private static String hex3(int value)	{	return String.format("0x%03X", value);	}
+}
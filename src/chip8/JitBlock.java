@@ -0,0 +1,9 @@
+package chip8;
+
+interface JitBlock
+{
+	/*
+	 * Executes a whole compiled basic block against the given core. Implemented by classes BlockCompiler generates at runtime.
+	 */
+	void execute(Chip8Core core);
+}
@@ -0,0 +1,237 @@
+package chip8;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class JitChip8Core extends Chip8Core
+{
+	/*
+	Engine that compiles CHIP8 basic blocks to JVM bytecode (see BlockCompiler) and runs them as a whole.
+
+	blocks[addr] holds the compiled block starting at addr, lengths[addr] its number of instructions. Blocks are compiled
+	the first time execution reaches their start address. A compiled block only depends on the bytes it was compiled from,
+	not on where they sit or which machine runs them, so the classes themselves are shared JVM-wide, keyed by those bytes and
+	the quirks profile they were compiled for : every instance running the same ROM (or restarting it) under that profile reuses them.
+	That cache is never evicted, which suits a fixed set of ROMs but not a stream of new ones (RomFuzzer) : those instances get
+	a private cache instead, dropped whenever it holds cacheLimit blocks, so their classes can be unloaded.
+
+	A memory write (FX33, FX55, program load) touching a block marks it stale rather than dropping it. Next time execution reaches it,
+	its source bytes are compared against memory; only if they really changed is the block looked up / compiled again.
+
+	Only runFor() executes blocks. It never lets a block overshoot the cycle budget : if the block at pc is longer than what's left,
+	the remaining cycles are interpreted one by one, up to the end of that block even across runFor() calls. A block that isn't
+	compiled yet waits for a budget it fits in, so short budgets (a frame at the default clock rate, lockstep bisection's single
+	steps) don't compile a new block at every address they stop on. run() and anything with a tracer installed also go through the interpreter,
+	since a compiled block can't report its individual instructions.
+	*/
+
+	private static final ConcurrentHashMap<String, JitBlock> SHARED_BLOCKS = new ConcurrentHashMap<String, JitBlock>();
+
+	private final JitBlock[] blocks		= new JitBlock[4096];
+	private final String[] sources		= new String[4096];	// the bytes each block was compiled from, one char per byte
+	private final int[] lengths			= new int[4096];
+	private final boolean[] stale		= new boolean[4096];
+	private final boolean[] halts		= new boolean[4096];	// block is a single 1NNN jumping to its own address
+	/*
+	 * covered[addr] is set once any block has been compiled from the byte at addr. Lets memoryWritten() skip the block scan for
+	 * plain data writes, which are by far the common case. Never cleared; a false positive only costs a scan.
+	 */
+	private final boolean[] covered		= new boolean[4096];
+	/*
+	 * Prefix of this machine's SHARED_BLOCKS keys, telling the blocks of different quirks profiles apart.
+	 */
+	private final String profile;
+	/*
+	 * SHARED_BLOCKS, or this instance's own cache when cacheLimit > 0.
+	 */
+	private final Map<String, JitBlock> cache;
+	private final int cacheLimit;
+	/*
+	 * The block runFor() last had to interpret because the budget ran out first, as [cutFrom, cutTo). Until execution leaves it,
+	 * its remaining instructions are interpreted too. Only a hint : a stale range after a restore() costs a few interpreted cycles.
+	 */
+	private int cutFrom;
+	private int cutTo;
+	/*
+	 * The bytes of the block being compiled, one char per byte.
+	 */
+	private final char[] scratch		= new char[2 * BlockCompiler.MAX_LENGTH];
+
+	public JitChip8Core()							{	this(Chip8Quirks.ORIGINAL);	}
+	public JitChip8Core(Chip8Quirks quirks)			{	this(quirks, 0);	}
+
+	/*
+	 * With cacheLimit > 0, blocks are cached for this instance only and the cache is dropped once it holds cacheLimit blocks.
+	 */
+	public JitChip8Core(Chip8Quirks quirks, int cacheLimit)
+	{
+		super(quirks);
+		profile			= String.valueOf((char) quirks.ordinal());
+		this.cacheLimit	= cacheLimit;
+		cache			= (cacheLimit > 0) ? new HashMap<String, JitBlock>() : SHARED_BLOCKS;
+	}
+
+	JitChip8Core(PagedMemory memory, Chip8Quirks quirks, int cacheLimit)
+	{
+		super(memory, quirks);
+		profile			= String.valueOf((char) quirks.ordinal());
+		this.cacheLimit	= cacheLimit;
+		cache			= (cacheLimit > 0) ? new HashMap<String, JitBlock>() : SHARED_BLOCKS;
+	}
+
+	@Override
+	Chip8Core newFork(PagedMemory forkedMemory)
+	{
+		return new JitChip8Core(forkedMemory, quirks, cacheLimit);
+	}
+
+	@Override
+	public int runFor(int cycles)
+	{
+		if(tracer != Chip8Tracer.NONE)	{	return super.runFor(cycles);	}
+
+		int done = 0;
+		while(done < cycles)
+		{
+			int start = pc;
+			if(start > cutFrom && start < cutTo)
+			{
+				//the rest of a block a budget cut short : finish it interpreted rather than compiling a block for every suffix of it
+				if(isHalted())	{	break;	}	//memory may have changed since the block was cut
+				cycle();
+				advanceClock(1);
+				done++;
+				if(pc != start + 2)	{	cutTo = 0;	}	//left the block
+				continue;
+			}
+
+			JitBlock block = blocks[start];
+			int length;
+			if(block == null || (stale[start] && !revalidate(start)))
+			{
+				//only compile a block that is going to run
+				length = BlockCompiler.blockLength(memory, start);
+				block = (length <= cycles - done) ? compileAt(start, length) : null;
+			}
+			else
+			{
+				length = lengths[start];
+			}
+			if(block != null && halts[start])	{	break;	}
+
+			//a block at 0xFFF is empty (its instruction runs off the end of memory); interpreting it fails the same way cycle() does
+			if(block != null && length > 0 && length <= cycles - done)
+			{
+				block.execute(this);
+				advanceClock(length);
+				done += length;
+			}
+			else
+			{
+				cutFrom	= start;
+				cutTo	= start + 2 * length;
+				cycle();
+				advanceClock(1);
+				done++;
+			}
+		}
+		return done;
+	}
+
+	/*
+	 * Single steps (the rest of a runFor() budget too short for the block, run(), and everything while a tracer is installed) :
+	 * Chip8Core.cycle() only knows the ORIGINAL op methods, so the instruction goes through DecodedChip8Core's handler table,
+	 * remapped by the quirks profile like a compiled block would be.
+	 */
+	@Override
+	void cycle()
+	{
+		int opcode = (memory.read(pc) << 8) | memory.read(pc + 1);
+		tracer.trace(this, pc, opcode);
+		DecodedChip8Core.execute(this, quirkHandlers[DecodedChip8Core.handlerFor(opcode)], opcode);
+	}
+//############################################################################################################################################################
+	private JitBlock compileAt(int start, int length)
+	{
+		for(int i = 0; i < 2 * length; i++)	{	scratch[i] = (char) memory.read(start + i);	}
+		String source = new String(scratch, 0, 2 * length);
+		String key = profile.concat(source);
+		JitBlock block = cache.get(key);
+		if(block == null)
+		{
+			if(cacheLimit > 0 && cache.size() >= cacheLimit)	{	cache.clear();	}
+			block = BlockCompiler.compile(memory, start, length, quirks);
+			JitBlock raced = cache.putIfAbsent(key, block);
+			if(raced != null)	{	block = raced;	}
+		}
+
+		blocks[start]	= block;
+		sources[start]	= source;
+		lengths[start]	= length;
+		stale[start]	= false;
+		halts[start]	= (length == 1) && (((memory.read(start) << 8) | memory.read(start + 1)) == (0x1000 | start));
+		Arrays.fill(covered, start, start + 2 * length, true);
+		return block;
+	}
+
+	/*
+	 * A stale block is still good if the bytes it was compiled from are unchanged (e.g. the same ROM was loaded again).
+	 */
+	private boolean revalidate(int start)
+	{
+		String source = sources[start];
+		for(int i = 0; i < source.length(); i++)
+		{
+			if(source.charAt(i) != memory.read(start + i))	{	return false;	}
+		}
+		stale[start] = false;
+		return true;
+	}
+//############################################################################################################################################################
+	/*
+	 * A block starting at s covers bytes s .. s + 2 * length - 1, so any block starting up to 2 * MAX_LENGTH - 1 bytes before from may overlap.
+	 */
+	@Override
+	void memoryWritten(int from, int to)
+	{
+		boolean touchesCode = false;
+		for(int address = from; address <= to && address < covered.length; address++)
+		{
+			if(covered[address])	{	touchesCode = true;	break;	}
+		}
+		if(!touchesCode)	{	return;	}
+
+		int first = Math.max(from - 2 * BlockCompiler.MAX_LENGTH + 1, 0);
+		int last = Math.min(to, blocks.length - 1);
+		for(int start = first; start <= last; start++)
+		{
+			if(blocks[start] != null && start + 2 * lengths[start] > from)
+			{
+				stale[start] = true;
+			}
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Number of blocks currently compiled for this instance, for diagnostics.
+	 */
+	public int compiledBlocks()
+	{
+		int count = 0;
+		for(JitBlock block : blocks)
+		{
+			if(block != null)	{	count++;	}
+		}
+		return count;
+	}
+
+	/*
+	 * Number of distinct block classes generated so far in this JVM.
+	 */
+	public static int sharedBlocks()
+	{
+		return SHARED_BLOCKS.size();
+	}
+}
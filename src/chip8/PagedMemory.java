@@ -0,0 +1,176 @@
+package chip8;
+
+import java.util.Arrays;
+
+final class PagedMemory
+{
+	/*
+	The 4 KB of CHIP8 memory as 16 pages of 256 cells, shared copy-on-write between a machine and its forks.
+
+	fork() copies only the 16 page references and marks every page shared, in both memories. Writing to a shared page first
+	replaces it with a private copy, so a fork only ever pays for the pages it (or its parent) writes after the fork : with most
+	programs that is a page or two of variables, while code and sprites stay shared.
+
+	A shared flag isn't a reference count : after one side copied a page, the other still treats its page as shared and copies it
+	too on its next write. That costs one spare 256 byte copy and keeps fork() and the write path trivial.
+
+	Cells are bytes, like the real machine's; read() gives them back unsigned (0 - 255) and write() keeps the low 8 bits.
+	Addresses past 4 KB throw ArrayIndexOutOfBoundsException, like the plain array did.
+	*/
+
+	static final int SIZE		= 4096;
+	static final int PAGE_BITS	= 8;
+	static final int PAGE_SIZE	= 1 << PAGE_BITS;
+	static final int PAGE_MASK	= PAGE_SIZE - 1;
+	static final int PAGES		= SIZE / PAGE_SIZE;
+
+	/*
+	 * Every memory starts out (and is reset to) this page everywhere, shared, so cleared memory costs nothing until written.
+	 */
+	private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+	private final byte[][] pages	= new byte[PAGES][];
+	private final boolean[] shared	= new boolean[PAGES];
+
+	PagedMemory()
+	{
+		Arrays.fill(pages, ZERO_PAGE);
+		Arrays.fill(shared, true);
+	}
+
+	int read(int address)
+	{
+		return pages[address >> PAGE_BITS][address & PAGE_MASK] & 0xff;
+	}
+
+	void write(int address, int value)
+	{
+		int page = address >> PAGE_BITS;
+		byte[] cells = shared[page] ? unshare(page) : pages[page];
+		cells[address & PAGE_MASK] = (byte) value;
+	}
+
+	private byte[] unshare(int page)
+	{
+		byte[] copy = pages[page].clone();
+		pages[page] = copy;
+		shared[page] = false;
+		return copy;
+	}
+//############################################################################################################################################################
+	/*
+	 * A new memory with the same contents, sharing every page with this one until either side writes to it.
+	 */
+	PagedMemory fork()
+	{
+		PagedMemory child = new PagedMemory();
+		//every page of the child is marked shared by its constructor already
+		System.arraycopy(pages, 0, child.pages, 0, PAGES);
+		Arrays.fill(shared, true);
+		return child;
+	}
+
+	/*
+	 * Zeroes everything. Private pages are cleared in place, so resetting a machine doesn't allocate; shared ones just point back at ZERO_PAGE.
+	 */
+	void clear()
+	{
+		for(int page = 0; page < PAGES; page++)
+		{
+			if(shared[page] || pages[page] == null)
+			{
+				pages[page] = ZERO_PAGE;
+				shared[page] = true;
+			}
+			else
+			{
+				Arrays.fill(pages[page], (byte) 0);
+			}
+		}
+	}
+
+	/*
+	 * Number of pages this memory holds a private copy of, i.e. what it costs on top of the memories it shares with.
+	 */
+	int privatePages()
+	{
+		int count = 0;
+		for(boolean isShared : shared)
+		{
+			if(!isShared)	{	count++;	}
+		}
+		return count;
+	}
+//############################################################################################################################################################
+	/*
+	 * Copies length cells starting at address into target[offset ..].
+	 */
+	void copyTo(int address, byte[] target, int offset, int length)
+	{
+		while(length > 0)
+		{
+			int page = address >> PAGE_BITS;
+			int start = address & PAGE_MASK;
+			int count = Math.min(length, PAGE_SIZE - start);
+			System.arraycopy(pages[page], start, target, offset, count);
+			address += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/*
+	 * Copies length bytes from source[offset ..] into the cells starting at address, one arraycopy per page.
+	 * A shared page that gets overwritten completely is replaced by a fresh one rather than copied first.
+	 */
+	void load(int address, byte[] source, int offset, int length)
+	{
+		while(length > 0)
+		{
+			int page = address >> PAGE_BITS;
+			int start = address & PAGE_MASK;
+			int count = Math.min(length, PAGE_SIZE - start);
+			byte[] cells = pages[page];
+			if(shared[page])
+			{
+				cells = (count == PAGE_SIZE) ? new byte[PAGE_SIZE] : cells.clone();
+				pages[page] = cells;
+				shared[page] = false;
+			}
+			System.arraycopy(source, offset, cells, start, count);
+			address += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/*
+	 * Makes this memory equal to source (SIZE cells). Only pages that differ are written, so identical pages stay shared.
+	 * Returns the first differing address in the low 16 bits and the last one in the high 16 bits, or -1 if nothing differed.
+	 */
+	int copyChanged(byte[] source)
+	{
+		int first = -1;
+		int last = -1;
+		for(int page = 0; page < PAGES; page++)
+		{
+			int base = page << PAGE_BITS;
+			byte[] cells = pages[page];
+			int mismatch = Arrays.mismatch(cells, 0, PAGE_SIZE, source, base, base + PAGE_SIZE);
+			if(mismatch < 0)	{	continue;	}
+
+			int end = PAGE_MASK;
+			while(cells[end] == source[base + end])	{	end--;	}
+			if(first < 0)	{	first = base + mismatch;	}
+			last = base + end;
+			if(shared[page])
+			{
+				cells = new byte[PAGE_SIZE];
+				pages[page] = cells;
+				shared[page] = false;
+			}
+			System.arraycopy(source, base, cells, 0, PAGE_SIZE);
+		}
+		return (first < 0) ? -1 : (last << 16) | first;
+	}
+}
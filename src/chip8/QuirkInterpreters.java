@@ -0,0 +1,75 @@
+package chip8;
+
+final class QuirkInterpreters
+{
+	/*
+	The INTERPRETER engine under the quirks profiles other than ORIGINAL. Chip8Core.cycle() calls the ORIGINAL op methods straight
+	from its switch; each class here overrides the ones its profile changes to run the variant instead. The profile is picked once,
+	as the class of the machine, so the switch and the instructions are exactly those of the ORIGINAL interpreter.
+
+	DecodedChip8Core and JitChip8Core resolve the profile through Chip8Quirks' handler table instead and call the variants directly,
+	so they are never these classes.
+	*/
+
+	private QuirkInterpreters()	{	}
+
+	static Chip8Core create(Chip8Quirks quirks)
+	{
+		switch(quirks)
+		{
+			case COSMAC_VIP:	return new CosmacVip();
+			case CHIP_48:		return new Chip48();
+			case SUPER_CHIP:	return new SuperChip();
+			default:			return new Chip8Core();
+		}
+	}
+//############################################################################################################################################################
+	static final class CosmacVip extends Chip8Core
+	{
+		CosmacVip()					{	super(Chip8Quirks.COSMAC_VIP);	}
+		CosmacVip(PagedMemory memory)	{	super(memory, Chip8Quirks.COSMAC_VIP);	}
+
+		@Override
+		Chip8Core newFork(PagedMemory forkedMemory)	{	return new CosmacVip(forkedMemory);	}
+
+		@Override	void op8XY1(int x, int y)			{	op8XY1ResetVF(x, y);	}
+		@Override	void op8XY2(int x, int y)			{	op8XY2ResetVF(x, y);	}
+		@Override	void op8XY3(int x, int y)			{	op8XY3ResetVF(x, y);	}
+		@Override	void op8XY6(int x, int y)			{	op8XY6ShiftVy(x, y);	}
+		@Override	void op8XYE(int x, int y)			{	op8XYEShiftVy(x, y);	}
+		@Override	void opBNNN(int nnn)				{	opBNNNWide(nnn);	}
+		@Override	void opDXYN(int x, int y, int n)	{	opDXYNClip(x, y, n);	}
+		@Override	void opFX55(int x)					{	opFX55AddX1(x);	}
+		@Override	void opFX65(int x)					{	opFX65AddX1(x);	}
+	}
+
+	static final class Chip48 extends Chip8Core
+	{
+		Chip48()					{	super(Chip8Quirks.CHIP_48);	}
+		Chip48(PagedMemory memory)	{	super(memory, Chip8Quirks.CHIP_48);	}
+
+		@Override
+		Chip8Core newFork(PagedMemory forkedMemory)	{	return new Chip48(forkedMemory);	}
+
+		@Override	void op8XY6(int x, int y)			{	op8XY6ShiftVx(x, y);	}
+		@Override	void op8XYE(int x, int y)			{	op8XYEShiftVx(x, y);	}
+		@Override	void opBNNN(int nnn)				{	opBXNN((nnn >> 8) & 0xf, nnn);	}
+		@Override	void opDXYN(int x, int y, int n)	{	opDXYNClip(x, y, n);	}
+		@Override	void opFX55(int x)					{	opFX55AddX(x);	}
+		@Override	void opFX65(int x)					{	opFX65AddX(x);	}
+	}
+
+	static final class SuperChip extends Chip8Core
+	{
+		SuperChip()					{	super(Chip8Quirks.SUPER_CHIP);	}
+		SuperChip(PagedMemory memory)	{	super(memory, Chip8Quirks.SUPER_CHIP);	}
+
+		@Override
+		Chip8Core newFork(PagedMemory forkedMemory)	{	return new SuperChip(forkedMemory);	}
+
+		@Override	void op8XY6(int x, int y)			{	op8XY6ShiftVx(x, y);	}
+		@Override	void op8XYE(int x, int y)			{	op8XYEShiftVx(x, y);	}
+		@Override	void opBNNN(int nnn)				{	opBXNN((nnn >> 8) & 0xf, nnn);	}
+		@Override	void opDXYN(int x, int y, int n)	{	opDXYNClip(x, y, n);	}
+	}
+}
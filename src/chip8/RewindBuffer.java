@@ -0,0 +1,283 @@
+package chip8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public final class RewindBuffer
+{
+	/*
+	Bounded history of a machine, one entry per recorded frame, for stepping a session backwards.
+
+	Entries live in one circular byte arena. Every keyframeInterval frames (and whenever a delta would not be smaller) an entry
+	is a full keyframe, written in the Chip8State binary format. Every other entry is a delta against the frame before it :
+	# all registers, stack, timers, keypad, generator and clock (about 120 bytes, cheaper to store than to diff)
+	# a 32 bit mask of changed screen rows, then the XOR of each changed row
+	# runs of memory cells that changed
+	Reconstructing a frame therefore reads its keyframe and applies at most keyframeInterval - 1 deltas.
+
+	record() costs the same however long the history is. When the arena or the frame limit is full, the oldest segment
+	(a keyframe and its deltas) is dropped, so memory stays at arenaBytes plus a few scratch states.
+	Nothing is allocated after construction.
+	*/
+
+	private static final byte KEYFRAME	= 0;
+	private static final byte DELTA		= 1;
+	private final int maxFrames;
+	private final int keyframeInterval;
+	private final ByteBuffer arena;
+
+	// ring of entries, frame n at index n % maxFrames; frames first .. next - 1 are retained
+	private final long[] entryStart;	// absolute arena position, the byte index being position % capacity
+	private final int[] entryLength;
+	private final boolean[] isKeyframe;
+	private long first;
+	private long next;
+	private long arenaHead;				// absolute position after the newest entry
+	private int sinceKeyframe;
+
+	private final Chip8State last		= new Chip8State();	// state of frame next - 1
+	private final Chip8State current	= new Chip8State();
+	private final ByteBuffer scratch;	// entry being encoded
+	/*
+	 * Largest entry : a keyframe, as Chip8State writes it now (deltas that would be larger are written as keyframes instead).
+	 */
+	private final int maxEntry			= 1 + current.serializedSize();
+
+	/*
+	 * Keeps up to maxFrames frames in at most arenaBytes bytes, with a keyframe every keyframeInterval frames.
+	 */
+	public RewindBuffer(int maxFrames, int keyframeInterval, int arenaBytes)
+	{
+		if(keyframeInterval < 1 || maxFrames < 2 * keyframeInterval)
+		{
+			throw new IllegalArgumentException("Need a keyframe interval >= 1 and room for at least two intervals of frames");
+		}
+		if(arenaBytes < 4 * maxEntry)	{	throw new IllegalArgumentException("Arena too small : " + arenaBytes + " bytes");	}
+		this.maxFrames			= maxFrames;
+		this.keyframeInterval	= keyframeInterval;
+		this.arena				= ByteBuffer.allocate(arenaBytes);
+		this.entryStart			= new long[maxFrames];
+		this.entryLength		= new int[maxFrames];
+		this.isKeyframe			= new boolean[maxFrames];
+		// encoding stops once it passes maxEntry, and the run that got it there is at most the whole memory
+		this.scratch			= ByteBuffer.allocate(maxEntry + 4 + PagedMemory.SIZE);
+	}
+
+	/*
+	 * Five minutes at 60 frames per second, keyframe every second, in 8 MB.
+	 */
+	public static RewindBuffer fiveMinutes()
+	{
+		return new RewindBuffer(5 * 60 * 60, 60, 8 << 20);
+	}
+
+	public int size()				{	return (int) (next - first);	}
+	public boolean isEmpty()		{	return next == first;	}
+	/*
+	 * Arena bytes taken by the retained frames.
+	 */
+	public long bytesUsed()			{	return isEmpty() ? 0 : arenaHead - entryStart[slot(first)];	}
+	public int capacityBytes()		{	return arena.capacity();	}
+
+	private int slot(long frame)	{	return (int) (frame % maxFrames);	}
+
+	public void clear()
+	{
+		first = next = 0;
+		arenaHead = 0;
+		sinceKeyframe = 0;
+	}
+//############################################################################################################################################################
+	/*
+	 * Appends the machine's current state as the newest frame.
+	 */
+	public void record(Chip8Core chip8core)
+	{
+		chip8core.snapshot(current);
+
+		int length;
+		boolean keyframe = isEmpty() || sinceKeyframe + 1 >= keyframeInterval || !encodeDelta();
+		if(keyframe)
+		{
+			scratch.clear();
+			scratch.put(KEYFRAME);
+			current.writeTo(scratch);
+		}
+		length = scratch.position();
+
+		long start = arenaHead;
+		int capacity = arena.capacity();
+		if((start % capacity) + length > capacity)	{	start += capacity - (start % capacity);	}	//entries never wrap : skip to the arena start
+		long end = start + length;
+		while(!isEmpty() && (end - entryStart[slot(first)] > capacity || size() >= maxFrames))
+		{
+			dropOldestSegment();
+		}
+		if(!keyframe && isEmpty())
+		{
+			//the segment this delta belonged to was just dropped (tiny arena), so store a keyframe after all
+			record(chip8core);
+			return;
+		}
+
+		arena.position((int) (start % capacity));
+		scratch.flip();
+		arena.put(scratch);
+
+		int slot = slot(next);
+		entryStart[slot]	= start;
+		entryLength[slot]	= length;
+		isKeyframe[slot]	= keyframe;
+		next++;
+		arenaHead = end;
+		sinceKeyframe = keyframe ? 0 : sinceKeyframe + 1;
+		last.copyFrom(current);
+	}
+
+	/*
+	 * Drops frames from the oldest one up to (not including) the next keyframe.
+	 */
+	private void dropOldestSegment()
+	{
+		do
+		{
+			first++;
+		}while(first < next && !isKeyframe[slot(first)]);
+		if(isEmpty())	{	sinceKeyframe = 0;	}
+	}
+//############################################################################################################################################################
+	/*
+	 * Reconstructs the frame framesAgo frames before the newest one (0 = newest) into target, without changing the history.
+	 */
+	public Chip8State peek(int framesAgo, Chip8State target)
+	{
+		if(framesAgo < 0 || framesAgo >= size())	{	throw new IndexOutOfBoundsException("Only " + size() + " frames recorded : " + framesAgo);	}
+		long frame = next - 1 - framesAgo;
+		long keyframe = frame;
+		while(!isKeyframe[slot(keyframe)])	{	keyframe--;	}
+
+		int capacity = arena.capacity();
+		arena.position((int) (entryStart[slot(keyframe)] % capacity) + 1);
+		target.readFrom(arena);
+		for(long delta = keyframe + 1; delta <= frame; delta++)
+		{
+			arena.position((int) (entryStart[slot(delta)] % capacity) + 1);
+			applyDelta(target);
+		}
+		return target;
+	}
+
+	/*
+	 * Puts the machine back framesAgo frames (0 = newest) and forgets the frames after that one, so recording carries on from there.
+	 */
+	public void rewind(int framesAgo, Chip8Core chip8core)
+	{
+		peek(framesAgo, current);
+		chip8core.restore(current);
+		last.copyFrom(current);
+
+		next -= framesAgo;
+		int slot = slot(next - 1);
+		arenaHead = entryStart[slot] + entryLength[slot];
+		sinceKeyframe = 0;
+		for(long frame = next - 1; !isKeyframe[slot(frame)]; frame--)	{	sinceKeyframe++;	}
+	}
+//############################################################################################################################################################
+	/*
+	 * Encodes current against last into scratch. Returns false if the delta wouldn't be smaller than a keyframe.
+	 */
+	private boolean encodeDelta()
+	{
+		scratch.clear();
+		scratch.put(DELTA);
+		writeRegisters(current, scratch);
+
+		int rowMask = 0;
+		for(int row = 0; row < 32; row++)
+		{
+			if(current.display[row] != last.display[row])	{	rowMask |= 1 << row;	}
+		}
+		scratch.putInt(rowMask);
+		for(int row = 0; row < 32; row++)
+		{
+			if((rowMask & (1 << row)) != 0)	{	scratch.putLong(current.display[row] ^ last.display[row]);	}
+		}
+
+		int runCountAt = scratch.position();
+		scratch.putShort((short) 0);
+		int runs = 0;
+		int address = 0;
+		byte[] now = current.memory;
+		byte[] before = last.memory;
+		while(address < now.length)
+		{
+			int mismatch = Arrays.mismatch(now, address, now.length, before, address, before.length);
+			if(mismatch < 0)	{	break;	}
+			int start = address + mismatch;
+			int end = start + 1;
+			while(end < now.length && now[end] != before[end])	{	end++;	}
+			scratch.putShort((short) start);
+			scratch.putShort((short) (end - start));
+			scratch.put(now, start, end - start);
+			runs++;
+			address = end;
+			if(scratch.position() >= maxEntry)	{	return false;	}
+		}
+		scratch.putShort(runCountAt, (short) runs);
+		return scratch.position() < maxEntry;
+	}
+
+	/*
+	 * Applies the delta at the arena's position to target, which holds the frame before it.
+	 */
+	private void applyDelta(Chip8State target)
+	{
+		readRegisters(target, arena);
+		int rowMask = arena.getInt();
+		for(int row = 0; row < 32; row++)
+		{
+			if((rowMask & (1 << row)) != 0)	{	target.display[row] ^= arena.getLong();	}
+		}
+		int runs = arena.getShort();
+		for(int run = 0; run < runs; run++)
+		{
+			int start = arena.getShort();
+			int length = arena.getShort();
+			arena.get(target.memory, start, length);
+		}
+	}
+
+	private static void writeRegisters(Chip8State state, ByteBuffer out)
+	{
+		for(int register : state.V)	{	out.put((byte) register);	}
+		out.putChar(state.I);
+		out.putChar(state.pc);
+		for(char address : state.stack)	{	out.putChar(address);	}
+		out.put((byte) state.stackPointer);
+		out.putChar((char) state.delayTimer);
+		out.putChar((char) state.soundTimer);
+		out.put(state.keypad);
+		out.put((byte) (state.drawFlag ? 1 : 0));
+		out.putLong(state.randomState);
+		out.putInt(state.clockRate);
+		out.putInt(state.timerPhase);
+		out.putLong(state.cycleCount);
+	}
+
+	private static void readRegisters(Chip8State state, ByteBuffer in)
+	{
+		for(int i = 0; i < state.V.length; i++)	{	state.V[i] = in.get() & 0xff;	}
+		state.I				= in.getChar();
+		state.pc			= in.getChar();
+		for(int i = 0; i < state.stack.length; i++)	{	state.stack[i] = in.getChar();	}
+		state.stackPointer	= in.get();
+		state.delayTimer	= in.getChar();
+		state.soundTimer	= in.getChar();
+		in.get(state.keypad);
+		state.drawFlag		= in.get() != 0;
+		state.randomState	= in.getLong();
+		state.clockRate		= in.getInt();
+		state.timerPhase	= in.getInt();
+		state.cycleCount	= in.getLong();
+	}
+}
@@ -0,0 +1,96 @@
+package chip8.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import chip8.Chip8Engine;
+
+public class AllocationCheck
+{
+	/*
+	Regression check that executing instructions allocates nothing, on every engine : after a warmup (JIT compilation,
+	decode caches, first-touch memory pages), each bundled ROM and each micro benchmark program runs MEASURED_CYCLES cycles
+	under scripted input while HotSpot's per-thread allocation counter (ThreadMXBean.getThreadAllocatedBytes) watches.
+	Anything at or above LIMIT bytes per cycle fails the check, and the process exits with status 1.
+
+	The limit isn't exactly zero because reading the counter may itself allocate a few bytes; a single object per cycle
+	would already show as 16 bytes per cycle or more. A run over the limit is measured again, up to ATTEMPTS times in all :
+	the JIT engine still compiles the odd block when a game reaches code the warmup didn't, which is a one-off cost, whereas
+	allocation per cycle shows up every time.
+
+	Usage : AllocationCheck [--engine NAME] [--cycles N]
+	*/
+
+	private static final double LIMIT			= 0.01;
+	private static final int WARMUP_CYCLES		= 2000000;
+	private static final int MEASURED_CYCLES	= 5000000;
+	private static final int ATTEMPTS			= 3;
+
+	public static void main(String[] args) throws IOException
+	{
+		Chip8Engine[] engines = Chip8Engine.values();
+		int cycles = MEASURED_CYCLES;
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--engine"))		{	engines = new Chip8Engine[] { Chip8Engine.parse(args[++i]) };	}
+			else if(args[i].equals("--cycles"))	{	cycles = Integer.parseInt(args[++i]);	}
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		PrintStream out = System.out;
+		int failures = 0;
+
+		List<String> names = new ArrayList<String>();
+		List<byte[]> programs = new ArrayList<byte[]>();
+		for(String rom : Chip8Benchmarks.BUNDLED_ROMS)
+		{
+			if(!new File(rom).isFile())
+			{
+				System.err.println("Skipping " + rom + " (not found in working directory)");
+				continue;
+			}
+			names.add(rom);
+			programs.add(Files.readAllBytes(new File(rom).toPath()));
+		}
+		names.addAll(Arrays.asList("micro:DXYN", "micro:00E0", "micro:FX55", "micro:FX65"));
+		programs.addAll(Arrays.asList(Chip8Benchmarks.drawProgram(), Chip8Benchmarks.clearProgram(),
+				Chip8Benchmarks.storeProgram(), Chip8Benchmarks.loadProgram()));
+
+		for(int i = 0; i < names.size(); i++)
+		{
+			for(Chip8Engine engine : engines)
+			{
+				BenchmarkHarness.Workload workload = Chip8Benchmarks.romWorkload(engine, programs.get(i));
+				workload.run(WARMUP_CYCLES);
+				long allocated = 0;
+				double perCycle = 0;
+				boolean ok = false;
+				for(int attempt = 0; attempt < ATTEMPTS && !ok; attempt++)
+				{
+					long before = threadBean.getThreadAllocatedBytes(threadId);
+					workload.run(cycles);
+					allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+					perCycle = (double) allocated / cycles;
+					ok = perCycle < LIMIT;
+				}
+				if(!ok)	{	failures++;	}
+				out.printf("%-5s %-14s %-12s %10d bytes over %d cycles (%.4f B/cycle)%n", ok ? "ok" : "FAIL", names.get(i),
+						engine.name().toLowerCase(), allocated, cycles, perCycle);
+			}
+		}
+
+		if(failures > 0)
+		{
+			out.println(failures + " allocating run(s)");
+			System.exit(1);
+		}
+		out.println("No allocation per cycle");
+	}
+}
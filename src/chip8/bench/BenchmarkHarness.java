@@ -0,0 +1,130 @@
+package chip8.bench;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+public class BenchmarkHarness
+{
+	/*
+	Small JMH-style measurement loop, so benchmarks run from a plain classpath on any build agent.
+
+	Each benchmark gets a number of warmup iterations (results thrown away, lets the JIT settle)
+	followed by measurement iterations of a fixed wall-clock length. For every measurement iteration we record
+	# operations per second
+	# bytes allocated by the benchmark thread (HotSpot's per-thread allocation counter, the same one JMH's gc profiler reads)
+	and report mean and standard deviation over the iterations.
+	*/
+
+	public interface Workload
+	{
+		/*
+		 * Performs the given number of operations. Whatever an "operation" is (one instruction, one frame...) is up to the workload.
+		 */
+		void run(int operations);
+	}
+
+	public static class Result
+	{
+		public final String name;
+		public final double opsPerSecond;
+		public final double opsPerSecondError;
+		public final double bytesPerOp;
+		public final double allocMBPerSecond;
+
+		Result(String name, double opsPerSecond, double opsPerSecondError, double bytesPerOp, double allocMBPerSecond)
+		{
+			this.name = name;
+			this.opsPerSecond = opsPerSecond;
+			this.opsPerSecondError = opsPerSecondError;
+			this.bytesPerOp = bytesPerOp;
+			this.allocMBPerSecond = allocMBPerSecond;
+		}
+	}
+
+	/*
+	 * Operations are handed to the workload in chunks this big, so the clock is read rarely.
+	 */
+	private static final int CHUNK = 10000;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationNanos;
+	private final com.sun.management.ThreadMXBean threadBean;
+
+	public BenchmarkHarness(int warmupIterations, int measurementIterations, long iterationMillis)
+	{
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+		this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	}
+//############################################################################################################################################################
+	public Result measure(String name, Workload workload)
+	{
+		for(int i = 0; i < warmupIterations; i++)
+		{
+			iteration(workload, null);
+		}
+
+		double[] opsPerSecond = new double[measurementIterations];
+		long totalOps = 0;
+		long totalBytes = 0;
+		long totalNanos = 0;
+		long[] sample = new long[3];
+		for(int i = 0; i < measurementIterations; i++)
+		{
+			iteration(workload, sample);
+			opsPerSecond[i] = sample[0] * 1e9 / sample[2];
+			totalOps	+= sample[0];
+			totalBytes	+= sample[1];
+			totalNanos	+= sample[2];
+		}
+
+		double mean = 0;
+		for(double value : opsPerSecond)	{	mean += value;	}
+		mean /= measurementIterations;
+		double variance = 0;
+		for(double value : opsPerSecond)	{	variance += (value - mean) * (value - mean);	}
+		double error = measurementIterations > 1 ? Math.sqrt(variance / (measurementIterations - 1)) : 0;
+
+		return new Result(name, mean, error, (double) totalBytes / totalOps, totalBytes / 1048576.0 / (totalNanos / 1e9));
+	}
+
+	/*
+	 * One timed iteration. sample receives { operations, bytes allocated, nanos } unless it is null (warmup).
+	 */
+	private void iteration(Workload workload, long[] sample)
+	{
+		long threadId = Thread.currentThread().getId();
+		long bytesBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		long now;
+		long ops = 0;
+		do
+		{
+			workload.run(CHUNK);
+			ops += CHUNK;
+			now = System.nanoTime();
+		}
+		while(now - start < iterationNanos);
+		long bytesAfter = threadBean.getThreadAllocatedBytes(threadId);
+
+		if(sample != null)
+		{
+			sample[0] = ops;
+			sample[1] = bytesAfter - bytesBefore;
+			sample[2] = now - start;
+		}
+	}
+//############################################################################################################################################################
+	public static void printHeader(PrintStream out)
+	{
+		out.printf("%-36s %16s %12s %12s %14s%n", "Benchmark", "ops/s", "error", "B/op", "alloc MB/s");
+	}
+
+	public static void print(PrintStream out, Result result)
+	{
+		out.printf("%-36s %16.0f %12.0f %12.3f %14.3f%n", result.name, result.opsPerSecond, result.opsPerSecondError,
+				result.bytesPerOp, result.allocMBPerSecond);
+	}
+}
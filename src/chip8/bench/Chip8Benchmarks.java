@@ -0,0 +1,423 @@
+package chip8.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import chip8.BatchedChip8;
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.Chip8Quirks;
+import chip8.Chip8State;
+
+public class Chip8Benchmarks
+{
+	/*
+	Throughput benchmarks for the interpreter core, headless (no LWJGL on the classpath needed).
+
+	ROM benchmarks	: each bundled .ch8 runs under ScriptedInput; one operation = one executed instruction.
+					  When a game ends (spins on a self-jump) the core is reset and the ROM reloaded, inside the measurement.
+	Micro benchmarks: synthetic ROMs made of one instruction repeated 126 times plus a jump back,
+					  so ~99% of executed instructions are the one under test (DXYN, 00E0, FX55, FX65).
+
+	Batch benchmarks: BATCH_MACHINES copies of a ROM, each with its own seed and input, either as one BatchedChip8 stepping them
+				  in lockstep ("batched") or as that many separate cores taking turns ("separate <engine>").
+				  One operation = one instruction on one machine.
+
+	State benchmarks: snapshot() / restore() of a warm brix.ch8 machine into a reused Chip8State, and serializing it into a reused
+				  ByteBuffer. One operation = one snapshot, restore or serialization.
+
+	Fork benchmarks: forking a warm stars.ch8 machine, copy-on-write (fork()) against a full copy (new machine + restore()),
+				  alone and followed by FORK_RUN_CYCLES cycles on the fork, which is when pages get duplicated.
+				  One operation = one fork; B/op is what a fork costs.
+
+	Quirks benchmarks: brix.ch8, the micro:DXYN program (its sprite crosses both edges, so clipping has work to do) and a run of 8XY6 under every
+				  Chip8Quirks profile, to show the profiles cost the same : a profile only changes which op method an instruction
+				  resolves to, never adds a test while it executes. Each engine first measures a baseline, the profile-less
+				  romWorkload() the ROM and micro benchmarks have always used (the pre-profile code path: ORIGINAL runs the same
+				  op methods), and every profile is printed as a share of it. The original row should sit at 100% within the error.
+
+	Every benchmark runs once per engine (see Chip8Engine), unless --engine picks one.
+
+	Usage : Chip8Benchmarks [--quick] [--engine NAME] [name filter]
+	*/
+
+	public static final String[] BUNDLED_ROMS = { "brix.ch8", "pong2.ch8", "stars.ch8", "tron.ch8", "maze2.ch8", "zerodemo.ch8" };
+
+	/*
+	 * Input is only re-applied this often, like a real frontend polling between batches.
+	 */
+	private static final int INPUT_INTERVAL = 64;
+	private static final int BATCH_MACHINES = 256;
+	private static final long INPUT_SHIFT = 1000;
+	private static final int FORK_RUN_CYCLES = 1000;
+
+	public static void main(String[] args) throws IOException
+	{
+		boolean quick = false;
+		String filter = "";
+		Chip8Engine[] engines = Chip8Engine.values();
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--quick"))		{	quick = true;	}
+			else if(args[i].equals("--engine"))	{	engines = new Chip8Engine[] { Chip8Engine.parse(args[++i]) };	}
+			else								{	filter = args[i];	}
+		}
+
+		BenchmarkHarness harness = quick ? new BenchmarkHarness(2, 3, 200) : new BenchmarkHarness(5, 5, 1000);
+		PrintStream out = System.out;
+		BenchmarkHarness.printHeader(out);
+
+		for(String rom : BUNDLED_ROMS)
+		{
+			String name = "rom:" + rom;
+			if(!name.contains(filter))	{	continue;	}
+			if(!new File(rom).isFile())
+			{
+				System.err.println("Skipping " + rom + " (not found in working directory)");
+				continue;
+			}
+			byte[] program = Files.readAllBytes(new File(rom).toPath());
+			for(Chip8Engine engine : engines)
+			{
+				BenchmarkHarness.print(out, harness.measure(name + " " + engine.name().toLowerCase(), romWorkload(engine, program)));
+			}
+		}
+
+		for(String rom : new String[] { "brix.ch8", "stars.ch8" })
+		{
+			String name = "batch:" + rom;
+			if(!name.contains(filter) || !new File(rom).isFile())	{	continue;	}
+			byte[] program = Files.readAllBytes(new File(rom).toPath());
+			BenchmarkHarness.print(out, harness.measure(name + " batched", batchedWorkload(program, BATCH_MACHINES)));
+			for(Chip8Engine engine : engines)
+			{
+				BenchmarkHarness.print(out, harness.measure(name + " separate " + engine.name().toLowerCase(), separateWorkload(engine, program, BATCH_MACHINES)));
+			}
+		}
+
+		if(new File("brix.ch8").isFile())
+		{
+			byte[] program = Files.readAllBytes(new File("brix.ch8").toPath());
+			for(Chip8Engine engine : engines)
+			{
+				String suffix = " " + engine.name().toLowerCase();
+				if(("state:snapshot" + suffix).contains(filter))	{	BenchmarkHarness.print(out, harness.measure("state:snapshot" + suffix, stateWorkload(engine, program, 0)));	}
+				if(("state:restore" + suffix).contains(filter))		{	BenchmarkHarness.print(out, harness.measure("state:restore" + suffix, stateWorkload(engine, program, 1)));	}
+			}
+			if("state:serialize".contains(filter))	{	BenchmarkHarness.print(out, harness.measure("state:serialize", stateWorkload(Chip8Engine.INTERPRETER, program, 2)));	}
+		}
+
+		if(new File("stars.ch8").isFile())
+		{
+			byte[] program = Files.readAllBytes(new File("stars.ch8").toPath());
+			String[] forkNames = { "fork:cow", "fork:copy", "fork+run:cow", "fork+run:copy" };
+			for(Chip8Engine engine : engines)
+			{
+				for(int i = 0; i < forkNames.length; i++)
+				{
+					String name = forkNames[i] + " " + engine.name().toLowerCase();
+					if(name.contains(filter))	{	BenchmarkHarness.print(out, harness.measure(name, forkWorkload(engine, program, i % 2 == 0, i >= 2)));	}
+				}
+			}
+		}
+
+		String[] microNames		= { "micro:DXYN", "micro:00E0", "micro:FX55", "micro:FX65" };
+		byte[][] microPrograms	= { drawProgram(), clearProgram(), storeProgram(), loadProgram() };
+		for(int i = 0; i < microNames.length; i++)
+		{
+			if(!microNames[i].contains(filter))	{	continue;	}
+			for(Chip8Engine engine : engines)
+			{
+				BenchmarkHarness.print(out, harness.measure(microNames[i] + " " + engine.name().toLowerCase(), romWorkload(engine, microPrograms[i])));
+			}
+		}
+
+		String[] quirkNames		= { "brix", "DXYN", "8XY6" };
+		byte[][] quirkPrograms	= { new File("brix.ch8").isFile() ? Files.readAllBytes(new File("brix.ch8").toPath()) : null, drawProgram(), shiftProgram() };
+		for(int i = 0; i < quirkNames.length; i++)
+		{
+			if(quirkPrograms[i] == null)	{	continue;	}
+			for(Chip8Engine engine : engines)
+			{
+				String suffix = " " + quirkNames[i] + " " + engine.name().toLowerCase();
+				BenchmarkHarness.Result baseline = null;
+				for(Chip8Quirks quirks : Chip8Quirks.values())
+				{
+					String name = "quirks:" + quirks.name().toLowerCase() + suffix;
+					if(!name.contains(filter) && !("quirks:baseline" + suffix).contains(filter))	{	continue;	}
+					if(baseline == null)
+					{
+						baseline = harness.measure("quirks:baseline" + suffix, romWorkload(engine, quirkPrograms[i]));
+						BenchmarkHarness.print(out, baseline);
+					}
+					printRelative(out, harness.measure(name, romWorkload(engine, quirks, quirkPrograms[i])), baseline);
+				}
+			}
+		}
+	}
+
+	/*
+	 * A result line followed by its throughput as a share of the baseline's.
+	 */
+	private static void printRelative(PrintStream out, BenchmarkHarness.Result result, BenchmarkHarness.Result baseline)
+	{
+		out.printf("%-36s %16.0f %12.0f %12.3f %14.3f %9.1f%% of baseline%n", result.name, result.opsPerSecond, result.opsPerSecondError,
+				result.bytesPerOp, result.allocMBPerSecond, 100 * result.opsPerSecond / baseline.opsPerSecond);
+	}
+//############################################################################################################################################################
+	/*
+	 * Runs a ROM under the default input script, restarting it whenever it halts. A program that halts on its first instruction
+	 * ends the run() after one fruitless restart instead of looping forever, so its figures aren't meaningful.
+	 */
+	public static BenchmarkHarness.Workload romWorkload(Chip8Engine engine, final byte[] program)
+	{
+		return romWorkload(engine, Chip8Quirks.ORIGINAL, program);
+	}
+
+	public static BenchmarkHarness.Workload romWorkload(Chip8Engine engine, Chip8Quirks quirks, final byte[] program)
+	{
+		final Chip8Core chip8core = engine.create(quirks);
+		final ScriptedInput input = ScriptedInput.defaultScript();
+		chip8core.loadProgram(program);
+
+		return new BenchmarkHarness.Workload()
+		{
+			private long cycle;
+
+			@Override
+			public void run(int operations)
+			{
+				int done = 0;
+				boolean restarted = false;
+				while(done < operations)
+				{
+					input.apply(chip8core, cycle);
+					int batch = Math.min(INPUT_INTERVAL, operations - done);
+					int executed = chip8core.runFor(batch);
+					done += executed;
+					cycle += executed;
+					if(executed < batch)
+					{
+						chip8core.reset();
+						chip8core.loadProgram(program);
+						//halted without a single cycle since the last restart : restarting again wouldn't get any further (as in RomFarm)
+						if(executed == 0 && restarted)	{	return;	}
+						restarted = true;
+					}
+					else	{	restarted = false;	}
+				}
+			}
+		};
+	}
+//############################################################################################################################################################
+	/*
+	 * Runs machines copies of a ROM as one BatchedChip8, each with its own seed and input, restarting halted ones between input updates.
+	 */
+	public static BenchmarkHarness.Workload batchedWorkload(final byte[] program, final int machines)
+	{
+		final BatchedChip8 batch = new BatchedChip8(machines);
+		final ScriptedInput input = ScriptedInput.defaultScript();
+		for(int m = 0; m < machines; m++)
+		{
+			batch.setSeed(m, m);
+			batch.loadProgram(m, program);
+		}
+
+		return new BenchmarkHarness.Workload()
+		{
+			private long cycle;
+			private long pending;	// operations asked for but not yet a whole step of every machine
+
+			@Override
+			public void run(int operations)
+			{
+				pending += operations;
+				int steps = (int) (pending / machines);
+				pending -= (long) steps * machines;
+				int done = 0;
+				while(done < steps)
+				{
+					for(int m = 0; m < machines; m++)
+					{
+						if(batch.isHalted(m))
+						{
+							batch.reset(m);
+							batch.loadProgram(m, program);
+						}
+						batch.setKeys(m, input.keyMask(cycle + m * INPUT_SHIFT));
+					}
+					int chunk = Math.min(INPUT_INTERVAL, steps - done);
+					batch.run(chunk);
+					done += chunk;
+					cycle += chunk;
+				}
+			}
+		};
+	}
+
+	/*
+	 * The same job as batchedWorkload() done with separate cores : each runs INPUT_INTERVAL cycles in turn.
+	 */
+	public static BenchmarkHarness.Workload separateWorkload(Chip8Engine engine, final byte[] program, final int machines)
+	{
+		final Chip8Core[] cores = new Chip8Core[machines];
+		final ScriptedInput input = ScriptedInput.defaultScript();
+		for(int m = 0; m < machines; m++)
+		{
+			cores[m] = engine.create();
+			cores[m].setSeed(m);
+			cores[m].loadProgram(program);
+		}
+
+		return new BenchmarkHarness.Workload()
+		{
+			private long cycle;
+			private long pending;	// operations asked for but not yet a whole step of every machine
+
+			@Override
+			public void run(int operations)
+			{
+				pending += operations;
+				int steps = (int) (pending / machines);
+				pending -= (long) steps * machines;
+				int done = 0;
+				while(done < steps)
+				{
+					int chunk = Math.min(INPUT_INTERVAL, steps - done);
+					for(int m = 0; m < machines; m++)
+					{
+						Chip8Core chip8core = cores[m];
+						input.apply(chip8core, cycle + m * INPUT_SHIFT);
+						if(chip8core.runFor(chunk) < chunk)
+						{
+							chip8core.reset();
+							chip8core.loadProgram(program);
+						}
+					}
+					done += chunk;
+					cycle += chunk;
+				}
+			}
+		};
+	}
+//############################################################################################################################################################
+	/*
+	 * Warms a machine up on the ROM, then repeatedly snapshots it (mode 0), restores it (mode 1) or serializes its state (mode 2).
+	 */
+	static BenchmarkHarness.Workload stateWorkload(Chip8Engine engine, byte[] program, final int mode)
+	{
+		final Chip8Core chip8core = engine.create();
+		chip8core.setSeed(1);
+		chip8core.loadProgram(program);
+		ScriptedInput input = ScriptedInput.defaultScript();
+		for(int cycle = 0; cycle < 100000; cycle += INPUT_INTERVAL)
+		{
+			input.apply(chip8core, cycle);
+			chip8core.runFor(INPUT_INTERVAL);
+		}
+		final Chip8State state = chip8core.snapshot(new Chip8State());
+		final ByteBuffer buffer = ByteBuffer.allocate(Chip8State.MAX_SIZE);
+
+		return new BenchmarkHarness.Workload()
+		{
+			@Override
+			public void run(int operations)
+			{
+				for(int i = 0; i < operations; i++)
+				{
+					switch(mode)
+					{
+						case 0:		chip8core.snapshot(state);		break;
+						case 1:		chip8core.restore(state);		break;
+						default:	buffer.clear();	state.writeTo(buffer);	break;
+					}
+				}
+			}
+		};
+	}
+//############################################################################################################################################################
+	/*
+	 * Warms a machine up on the ROM, then repeatedly forks it, either with fork() or by restoring a snapshot into a new machine,
+	 * optionally running each fork for FORK_RUN_CYCLES cycles.
+	 */
+	static BenchmarkHarness.Workload forkWorkload(final Chip8Engine engine, byte[] program, final boolean copyOnWrite, final boolean run)
+	{
+		final Chip8Core parent = engine.create();
+		parent.setSeed(1);
+		parent.loadProgram(program);
+		ScriptedInput input = ScriptedInput.defaultScript();
+		for(int cycle = 0; cycle < 100000; cycle += INPUT_INTERVAL)
+		{
+			input.apply(parent, cycle);
+			parent.runFor(INPUT_INTERVAL);
+		}
+		final Chip8State state = parent.snapshot(new Chip8State());
+
+		return new BenchmarkHarness.Workload()
+		{
+			private long seed;
+
+			@Override
+			public void run(int operations)
+			{
+				for(int i = 0; i < operations; i++)
+				{
+					Chip8Core child;
+					if(copyOnWrite)
+					{
+						child = parent.fork();
+					}
+					else
+					{
+						child = engine.create();
+						child.restore(state);
+					}
+					if(run)
+					{
+						child.setSeed(seed++);
+						child.runFor(FORK_RUN_CYCLES);
+					}
+				}
+			}
+		};
+	}
+//############################################################################################################################################################
+	/*
+	 * Builds "setup; op x 126; JP back to the first op". Setup runs once; afterwards only the loop executes.
+	 */
+	static byte[] repeatProgram(int[] setup, int opcode)
+	{
+		int count = 126;
+		byte[] program = new byte[(setup.length + count + 1) * 2];
+		int offset = 0;
+		for(int word : setup)
+		{
+			program[offset++] = (byte) (word >> 8);
+			program[offset++] = (byte) word;
+		}
+		int loopStart = 0x200 + offset;
+		for(int i = 0; i < count; i++)
+		{
+			program[offset++] = (byte) (opcode >> 8);
+			program[offset++] = (byte) opcode;
+		}
+		int jump = 0x1000 | loopStart;
+		program[offset++] = (byte) (jump >> 8);
+		program[offset] = (byte) jump;
+		return program;
+	}
+
+	// V0 = 60, V1 = 28 so the 5-row "0" glyph wraps around both edges; I = glyph "0"; DRW V0, V1, 5
+	static byte[] drawProgram()		{	return repeatProgram(new int[] { 0x603C, 0x611C, 0xA050 }, 0xD015);	}
+	// CLS
+	static byte[] clearProgram()	{	return repeatProgram(new int[0], 0x00E0);	}
+	// I = 0x400; LD [I], VF
+	static byte[] storeProgram()	{	return repeatProgram(new int[] { 0xA400 }, 0xFF55);	}
+	// I = 0x400; LD VF, [I]
+	static byte[] loadProgram()		{	return repeatProgram(new int[] { 0xA400 }, 0xFF65);	}
+	// V0 = V1 = 0xA5; SHR V0, V1
+	static byte[] shiftProgram()	{	return repeatProgram(new int[] { 0x60A5, 0x61A5 }, 0x8016);	}
+}
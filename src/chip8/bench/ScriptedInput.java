@@ -0,0 +1,67 @@
+package chip8.bench;
+
+import java.util.Random;
+
+import chip8.Chip8Core;
+
+public class ScriptedInput
+{
+	/*
+	 * Deterministic stand-in for a player : holds one key of the script at a time, moving to the next key every holdCycles cycles.
+	 * A key of -1 in the script means "nothing pressed" for that step.
+	 */
+	private final int[] keys;
+	private final long holdCycles;
+
+	public ScriptedInput(int[] keys, long holdCycles)
+	{
+		this.keys = keys.clone();
+		this.holdCycles = holdCycles;
+	}
+
+	/*
+	 * Sets the keypad to the state the script prescribes at the given cycle.
+	 */
+	public void apply(Chip8Core chip8core, long cycle)
+	{
+		int held = keys[(int) ((cycle / holdCycles) % keys.length)];
+		for(int key = 0; key < 16; key++)
+		{
+			chip8core.keypad[key] = (byte) (key == held ? 1 : 0);
+		}
+	}
+
+	/*
+	 * The same keypad state as a bit mask (bit k = key k held), for BatchedChip8.setKeys().
+	 */
+	public int keyMask(long cycle)
+	{
+		int held = keys[(int) ((cycle / holdCycles) % keys.length)];
+		return (held < 0) ? 0 : 1 << held;
+	}
+
+	/*
+	 * Left / right / up / down / fire on the usual 4-6-2-8-5 layout, with idle gaps in between, which every bundled game reacts to.
+	 */
+	public static ScriptedInput defaultScript()
+	{
+		return new ScriptedInput(new int[] { 0x4, -1, 0x6, -1, 0x2, 0x5, 0x8, -1, 0x1, 0xC, 0xD }, 2000);
+	}
+
+	/*
+	 * A random script of RANDOM_LENGTH steps (any key, or nothing about one step in four) held 200 - 3000 cycles each,
+	 * the same for the same seed. For fuzzing engines with inputs no one wrote down.
+	 */
+	public static ScriptedInput random(long seed)
+	{
+		Random random = new Random(seed);
+		int[] keys = new int[RANDOM_LENGTH];
+		for(int i = 0; i < keys.length; i++)
+		{
+			keys[i] = (random.nextInt(4) == 0) ? -1 : random.nextInt(16);
+		}
+		return new ScriptedInput(keys, 200 + random.nextInt(2801));
+	}
+
+	private static final int RANDOM_LENGTH = 64;
+}
@@ -0,0 +1,417 @@
+package chip8.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import chip8.BatchedChip8;
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.Chip8Quirks;
+import chip8.Chip8State;
+import chip8.Disassembler;
+import chip8.bench.Chip8Benchmarks;
+import chip8.bench.ScriptedInput;
+
+public class EngineLockstep
+{
+	/*
+	Runs two engines side by side on the same ROM, seed and scripted input, and checks they stay in the same complete machine state
+	(registers, stack, timers, memory and display). Batch sizes vary, so a block-at-a-time engine gets checked both when whole
+	blocks fit and when it has to fall back to single steps.
+
+	Both machines are compared by stateHash() every --every N cycles (default DEFAULT_EVERY), which costs about as much as
+	a few hundred instructions, and snapshotted whenever they agree. When the hashes differ, the window since the last agreeing
+	snapshot is searched for the first instruction after which the candidate differs : the reference is restored and stepped
+	one instruction at a time, the candidate restored and run for the same number of cycles in one runFor(), bisecting on the count.
+	The report names that instruction (cycle, address, disassembly) and the first differing item of state. --every 1 checks
+	after every instruction, but then block engines never run a whole block.
+
+	--seeds N runs every ROM N times : run 0 with the default input script, the others with ScriptedInput.random() scripts and
+	other CXKK seeds. All runs go to a thread pool, one per processor.
+
+	With --batched N, a BatchedChip8 of N machines is checked instead : machine m against its own reference core,
+	each pair with its own seed and its own position in the input script. That comparison is a full one after every batch.
+
+	--quirks NAME runs both machines under that Chip8Quirks profile (original, vip, chip48, schip), so the engines' variants get
+	checked against each other too. BatchedChip8 only implements the original profile.
+
+	Usage : EngineLockstep [--engine NAME] [--reference NAME] [--quirks NAME] [--batched N] [--cycles N] [--every N] [--seeds N] [--hz N]
+			[rom.ch8 ...]
+		defaults : jit against interpreter, original quirks, 2,000,000 cycles, Chip8Core.DEFAULT_CLOCK_RATE, 1 seed, all bundled ROMs.
+	Exits with status 1 if any run diverged.
+	*/
+
+	private static final int[] BATCH_SIZES = { 1, 7, 64, 97, 500, 3 };
+	public static final int DEFAULT_EVERY = 1000;
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		Chip8Engine engine = Chip8Engine.JIT;
+		Chip8Engine reference = Chip8Engine.INTERPRETER;
+		Chip8Quirks quirks = Chip8Quirks.ORIGINAL;
+		long cycles = 2000000;
+		int clockRate = Chip8Core.DEFAULT_CLOCK_RATE;
+		int batched = 0;
+		int every = DEFAULT_EVERY;
+		int seeds = 1;
+		List<String> roms = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+			case "--engine":	engine = Chip8Engine.parse(args[++i]);		break;
+			case "--reference":	reference = Chip8Engine.parse(args[++i]);	break;
+			case "--quirks":	quirks = Chip8Quirks.parse(args[++i]);		break;
+			case "--cycles":	cycles = Long.parseLong(args[++i]);			break;
+			case "--batched":	batched = Integer.parseInt(args[++i]);		break;
+			case "--every":		every = Integer.parseInt(args[++i]);		break;
+			case "--seeds":		seeds = Integer.parseInt(args[++i]);		break;
+			case "--hz":		clockRate = Integer.parseInt(args[++i]);	break;
+			default:			roms.add(args[i]);							break;
+			}
+		}
+		if(every < 1 || seeds < 1)
+		{
+			System.err.println("--every and --seeds must be at least 1");
+			System.exit(2);
+		}
+		if(batched > 0 && quirks != Chip8Quirks.ORIGINAL)
+		{
+			System.err.println("--batched only supports the original quirks profile");
+			System.exit(2);
+		}
+		if(roms.isEmpty())
+		{
+			for(String rom : Chip8Benchmarks.BUNDLED_ROMS)	{	roms.add(rom);	}
+		}
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		List<String> names = new ArrayList<String>();
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for(String rom : roms)
+		{
+			if(!new File(rom).isFile())
+			{
+				System.err.println("No such file : " + rom);
+				System.exit(2);
+			}
+			byte[] program = Files.readAllBytes(new File(rom).toPath());
+			for(int run = 0; run < seeds; run++)
+			{
+				names.add((seeds == 1) ? rom : rom + " seed " + run);
+				results.add(pool.submit(new Run(reference, engine, quirks, batched, program, cycles, clockRate, every, rom.hashCode(), run)));
+			}
+		}
+
+		boolean allMatched = true;
+		for(int i = 0; i < results.size(); i++)
+		{
+			String result = results.get(i).get();
+			System.out.println(names.get(i) + " : " + (result == null ? "identical over " + cycles + " cycles" : result));
+			allMatched &= (result == null);
+		}
+		pool.shutdown();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long compared = cycles * results.size() * Math.max(batched, 1);
+		System.out.printf("%d runs, at most %d instructions compared in %.1f s (%.0f million per minute)%n", results.size(), compared,
+				seconds, compared / seconds * 60 / 1e6);
+		if(!allMatched)	{	System.exit(1);	}
+	}
+
+	/*
+	 * One ROM under one input seed. Run 0 uses the default script and the ROM's own seed, so it matches what
+	 * a single-seed run has always compared.
+	 */
+	private static final class Run implements Callable<String>
+	{
+		private final Chip8Engine reference;
+		private final Chip8Engine engine;
+		private final Chip8Quirks quirks;
+		private final int batched;
+		private final byte[] program;
+		private final long cycles;
+		private final int clockRate;
+		private final int every;
+		private final long seed;
+		private final int run;
+
+		Run(Chip8Engine reference, Chip8Engine engine, Chip8Quirks quirks, int batched, byte[] program, long cycles, int clockRate, int every, long seed, int run)
+		{
+			this.reference = reference;
+			this.engine = engine;
+			this.quirks = quirks;
+			this.batched = batched;
+			this.program = program;
+			this.cycles = cycles;
+			this.clockRate = clockRate;
+			this.every = every;
+			this.seed = seed;
+			this.run = run;
+		}
+
+		@Override
+		public String call()
+		{
+			if(batched > 0)	{	return compareBatched(reference, batched, program, cycles, clockRate, seed + run * (long) batched);	}
+			ScriptedInput input = (run == 0) ? ScriptedInput.defaultScript() : ScriptedInput.random(seed * 31 + run);
+			return compare(reference, engine, program, cycles, clockRate, seed + run, input, every, quirks);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Returns null if both engines stayed identical for the given number of cycles, otherwise a description of the first difference.
+	 * Compares every DEFAULT_EVERY cycles under the default input script and the original quirks profile.
+	 */
+	public static String compare(Chip8Engine referenceEngine, Chip8Engine engine, byte[] program, long cycles, int clockRate, long seed)
+	{
+		return compare(referenceEngine, engine, program, cycles, clockRate, seed, ScriptedInput.defaultScript(), DEFAULT_EVERY, Chip8Quirks.ORIGINAL);
+	}
+
+	/*
+	 * Same as above with the given input script and quirks profile, comparing state hashes every `every` cycles. The input is applied at
+	 * the start of every window, so it only changes between comparisons and a window can be replayed exactly.
+	 */
+	public static String compare(Chip8Engine referenceEngine, Chip8Engine engine, byte[] program, long cycles, int clockRate, long seed,
+			ScriptedInput input, int every, Chip8Quirks quirks)
+	{
+		Chip8Core reference = referenceEngine.create(quirks);
+		Chip8Core candidate = engine.create(quirks);
+		reference.setClockRate(clockRate);
+		candidate.setClockRate(clockRate);
+		reference.setSeed(seed);
+		candidate.setSeed(seed);
+		reference.loadProgram(program);
+		candidate.loadProgram(program);
+		Chip8State referenceCheckpoint = new Chip8State();
+		Chip8State candidateCheckpoint = new Chip8State();
+
+		long cycle = 0;
+		int step = 0;
+		while(cycle < cycles)
+		{
+			input.apply(reference, cycle);
+			input.apply(candidate, cycle);
+			reference.snapshot(referenceCheckpoint);
+			candidate.snapshot(candidateCheckpoint);
+
+			int window = (int) Math.min(every, cycles - cycle);
+			int done = 0;
+			boolean halted = false;
+			while(done < window && !halted)
+			{
+				int batch = Math.min(BATCH_SIZES[step++ % BATCH_SIZES.length], window - done);
+				int doneReference = reference.runFor(batch);
+				int doneCandidate = candidate.runFor(batch);
+				done += doneReference;
+				//a different count shows up as a different cycle count in the hash
+				halted = doneReference < batch || doneCandidate < batch;
+			}
+			if(stateHash(reference) != stateHash(candidate))
+			{
+				return firstDivergence(reference, candidate, referenceCheckpoint, candidateCheckpoint, cycle, done);
+			}
+			cycle += done;
+			if(halted)	{	break;	}	//both halted
+		}
+		return null;
+	}
+
+	/*
+	 * Both machines differ after running `window` cycles from their checkpoints, taken at cycle start. Finds the smallest number of
+	 * cycles after which the candidate, run in a single runFor(), differs from the reference stepped one instruction at a time,
+	 * assuming the machines stay apart once they diverge. Returns the description of that instruction and the difference.
+	 */
+	private static String firstDivergence(Chip8Core reference, Chip8Core candidate, Chip8State referenceCheckpoint, Chip8State candidateCheckpoint,
+			long start, int window)
+	{
+		String whole = difference(reference, candidate);
+		if(whole == null)	{	whole = "state hash " + Long.toHexString(stateHash(reference)) + " vs " + Long.toHexString(stateHash(candidate));	}
+		if(diverges(reference, candidate, referenceCheckpoint, candidateCheckpoint, window) == null)
+		{
+			//only shows when the candidate runs in the same batches as before, e.g. a bug at a block boundary
+			return "cycles " + start + " - " + (start + window) + " (not reproduced by a single runFor) : " + whole;
+		}
+		int low = 1;
+		int high = window;
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if(diverges(reference, candidate, referenceCheckpoint, candidateCheckpoint, middle) != null)	{	high = middle;	}
+			else																						{	low = middle + 1;	}
+		}
+		String difference = diverges(reference, candidate, referenceCheckpoint, candidateCheckpoint, low - 1);
+		if(difference != null)	{	return "cycle " + start + " : machines already differ at the checkpoint : " + difference;	}
+		int pc = reference.getPC();
+		int opcode = reference.peekOpcode();
+		difference = diverges(reference, candidate, referenceCheckpoint, candidateCheckpoint, low);
+		return String.format("cycle %d, instruction %03X  %04X  %s : %s", start + low - 1, pc, opcode, Disassembler.disassemble(opcode), difference);
+	}
+
+	/*
+	 * Restores both machines to their checkpoints, steps the reference `count` instructions one by one and runs the candidate for
+	 * `count` cycles at once, then returns their difference (null if their hashes match).
+	 */
+	private static String diverges(Chip8Core reference, Chip8Core candidate, Chip8State referenceCheckpoint, Chip8State candidateCheckpoint, int count)
+	{
+		reference.restore(referenceCheckpoint);
+		candidate.restore(candidateCheckpoint);
+		for(int i = 0; i < count; i++)	{	reference.runFor(1);	}
+		candidate.runFor(count);
+		if(stateHash(reference) == stateHash(candidate))	{	return null;	}
+		String difference = difference(reference, candidate);
+		return (difference != null) ? difference : "state hash " + Long.toHexString(stateHash(reference)) + " vs " + Long.toHexString(stateHash(candidate));
+	}
+//############################################################################################################################################################
+	/*
+	 * 64 bit hash of everything difference() compares : cycle count, registers, I, PC, stack, timers, memory and display.
+	 * Equal machines always hash equal; the reverse only holds with overwhelming probability, which is why a mismatch
+	 * is confirmed with difference().
+	 */
+	public static long stateHash(Chip8Core chip8core)
+	{
+		long hash = mix(chip8core.getCycleCount());
+		hash = mix(hash ^ ((long) chip8core.getPC() << 48 | (long) chip8core.getI() << 32 | chip8core.getStackPointer() << 16
+				| chip8core.getDelayTimer() << 8 | chip8core.getSoundTimer()));
+		for(int i = 0; i < 16; i++)
+		{
+			hash = mix(hash ^ ((long) chip8core.getV(i) << 16 | chip8core.getStack(i)));
+		}
+		for(int address = 0; address < 4096; address += 8)
+		{
+			long cells = 0;
+			for(int j = 0; j < 8; j++)	{	cells = cells << 8 | chip8core.readMemory(address + j);	}
+			hash = mix(hash ^ cells);
+		}
+		for(long row : chip8core.getDisplayRows())	{	hash = mix(hash ^ row);	}
+		return hash;
+	}
+
+	/*
+	 * Finalizer of SplitMix64 : spreads every input bit over the whole result.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+//############################################################################################################################################################
+	/*
+	 * Like compare(), for every machine of a BatchedChip8 against its own reference core. Machine m uses seed + m, and sees the
+	 * input script shifted by m * INPUT_SHIFT cycles. The batch never stops at a self-jump, so neither do the references (run()).
+	 */
+	public static String compareBatched(Chip8Engine referenceEngine, int machines, byte[] program, long cycles, int clockRate, long seed)
+	{
+		BatchedChip8 batch = new BatchedChip8(machines);
+		batch.setClockRate(clockRate);
+		Chip8Core[] references = new Chip8Core[machines];
+		for(int m = 0; m < machines; m++)
+		{
+			references[m] = referenceEngine.create();
+			references[m].setClockRate(clockRate);
+			references[m].setSeed(seed + m);
+			references[m].loadProgram(program);
+			batch.setSeed(m, seed + m);
+			batch.loadProgram(m, program);
+		}
+		ScriptedInput input = ScriptedInput.defaultScript();
+
+		long cycle = 0;
+		for(int step = 0; cycle < cycles; step++)
+		{
+			int steps = (int) Math.min(BATCH_SIZES[step % BATCH_SIZES.length], cycles - cycle);
+			for(int m = 0; m < machines; m++)
+			{
+				input.apply(references[m], cycle + m * INPUT_SHIFT);
+				batch.setKeys(m, input.keyMask(cycle + m * INPUT_SHIFT));
+				for(int i = 0; i < steps; i++)	{	references[m].run();	}
+			}
+			batch.run(steps);
+			for(int m = 0; m < machines; m++)
+			{
+				String difference = difference(references[m], batch, m);
+				if(difference != null)
+				{
+					return "machine " + m + ", cycles " + cycle + " - " + (cycle + steps) + " : " + difference;
+				}
+			}
+			cycle += steps;
+		}
+		return null;
+	}
+
+	private static final long INPUT_SHIFT = 1000;
+//############################################################################################################################################################
+	/*
+	 * Compares the full visible state of two machines. Returns null if equal, otherwise the first differing item.
+	 */
+	public static String difference(Chip8Core a, Chip8Core b)
+	{
+		if(a.getCycleCount() != b.getCycleCount())		{	return "cycle count " + a.getCycleCount() + " vs " + b.getCycleCount();	}
+		if(a.getPC() != b.getPC())						{	return String.format("PC %03X vs %03X", a.getPC(), b.getPC());	}
+		if(a.getI() != b.getI())						{	return String.format("I %03X vs %03X", a.getI(), b.getI());	}
+		if(a.getStackPointer() != b.getStackPointer())	{	return "SP " + a.getStackPointer() + " vs " + b.getStackPointer();	}
+		if(a.getDelayTimer() != b.getDelayTimer())		{	return "DT " + a.getDelayTimer() + " vs " + b.getDelayTimer();	}
+		if(a.getSoundTimer() != b.getSoundTimer())		{	return "ST " + a.getSoundTimer() + " vs " + b.getSoundTimer();	}
+		for(int i = 0; i < 16; i++)
+		{
+			if(a.getV(i) != b.getV(i))					{	return String.format("V%X %02X vs %02X", i, a.getV(i), b.getV(i));	}
+			if(a.getStack(i) != b.getStack(i))			{	return String.format("stack[%d] %03X vs %03X", i, a.getStack(i), b.getStack(i));	}
+		}
+		for(int address = 0; address < 4096; address++)
+		{
+			if(a.readMemory(address) != b.readMemory(address))
+			{
+				return String.format("memory[%03X] %02X vs %02X", address, a.readMemory(address), b.readMemory(address));
+			}
+		}
+		long[] rowsA = a.getDisplayRows();
+		long[] rowsB = b.getDisplayRows();
+		for(int y = 0; y < rowsA.length; y++)
+		{
+			if(rowsA[y] != rowsB[y])					{	return "display row " + y + " " + Long.toHexString(rowsA[y]) + " vs " + Long.toHexString(rowsB[y]);	}
+		}
+		return null;
+	}
+
+	/*
+	 * Same as above, against machine m of a batch.
+	 */
+	public static String difference(Chip8Core a, BatchedChip8 b, int m)
+	{
+		if(a.getCycleCount() != b.getCycleCount())			{	return "cycle count " + a.getCycleCount() + " vs " + b.getCycleCount();	}
+		if(a.getPC() != b.getPC(m))							{	return String.format("PC %03X vs %03X", a.getPC(), b.getPC(m));	}
+		if(a.getI() != b.getI(m))							{	return String.format("I %03X vs %03X", a.getI(), b.getI(m));	}
+		if(a.getStackPointer() != b.getStackPointer(m))		{	return "SP " + a.getStackPointer() + " vs " + b.getStackPointer(m);	}
+		if(a.getDelayTimer() != b.getDelayTimer(m))			{	return "DT " + a.getDelayTimer() + " vs " + b.getDelayTimer(m);	}
+		if(a.getSoundTimer() != b.getSoundTimer(m))			{	return "ST " + a.getSoundTimer() + " vs " + b.getSoundTimer(m);	}
+		for(int i = 0; i < 16; i++)
+		{
+			if(a.getV(i) != b.getV(m, i))					{	return String.format("V%X %02X vs %02X", i, a.getV(i), b.getV(m, i));	}
+			if(a.getStack(i) != b.getStack(m, i))			{	return String.format("stack[%d] %03X vs %03X", i, a.getStack(i), b.getStack(m, i));	}
+		}
+		for(int address = 0; address < 4096; address++)
+		{
+			if(a.readMemory(address) != b.readMemory(m, address))
+			{
+				return String.format("memory[%03X] %02X vs %02X", address, a.readMemory(address), b.readMemory(m, address));
+			}
+		}
+		long[] rowsA = a.getDisplayRows();
+		long[] rowsB = b.getDisplayRows();
+		for(int y = 0; y < rowsA.length; y++)
+		{
+			if(rowsA[y] != rowsB[m * 32 + y])				{	return "display row " + y + " " + Long.toHexString(rowsA[y]) + " vs " + Long.toHexString(rowsB[m * 32 + y]);	}
+		}
+		return null;
+	}
+}
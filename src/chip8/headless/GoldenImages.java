@@ -0,0 +1,242 @@
+package chip8.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.bench.Chip8Benchmarks;
+import chip8.bench.ScriptedInput;
+
+public class GoldenImages
+{
+	/*
+	Regression check over the bundled ROMs : runs each one for a fixed number of cycles with a fixed seed and scripted input,
+	hashes the screen every few cycles, and compares the hashes with the golden values stored in a text file.
+
+	Every (ROM, engine) pair is a separate task on a thread pool, so the whole suite takes about as long as its slowest ROM.
+	A mismatch names the ROM, engine and first checkpoint that differs; re-running that ROM with HeadlessRunner
+	(same seed and cycle count) or EngineLockstep narrows it down further.
+
+	Usage : GoldenImages [--golden FILE] [--engine NAME] [--cycles N] [--every N] [--update] [rom.ch8 ...]
+		defaults : golden-framebuffers.txt, every engine, 500,000 cycles, a checkpoint every 10,000 cycles, all bundled ROMs.
+		--update rewrites the golden file from the interpreter's run (after checking the other engines agree with it).
+	Exits with status 1 if any hash differs or is missing.
+
+	Golden file : one line per checkpoint, "rom cycle hash" with the hash in hex. Lines starting with # are comments.
+	*/
+
+	private static final long SEED				= 0x5EEDL;
+	/*
+	 * Input is re-applied this often, like a real frontend polling between batches.
+	 */
+	private static final int INPUT_INTERVAL		= 64;
+	/*
+	 * ScriptedInput.defaultScript()'s keys with F and 0 in front, which Tron waits for before it starts a game.
+	 */
+	private static final int[] SCRIPT			= { 0xF, 0x0, -1, 0x4, -1, 0x6, -1, 0x2, 0x5, 0x8, -1, 0x1, 0xC, 0xD };
+
+	/*
+	 * 64 bit hash of the 32 screen rows : each row goes through the SplitMix64 finalizer, chained so row order matters.
+	 */
+	public static long hashDisplay(long[] rows)
+	{
+		long hash = 0;
+		for(long row : rows)
+		{
+			long z = (hash ^ row) + 0x9E3779B97F4A7C15L;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			hash = z ^ (z >>> 31);
+		}
+		return hash;
+	}
+
+	/*
+	 * Runs one ROM on one engine and returns the screen hash at every checkpoint.
+	 * A program that halts (game over, mostly) is reset and restarted, the generator carrying on, so later checkpoints still see new screens.
+	 */
+	private static final class Run implements Callable<long[]>
+	{
+		private final Chip8Engine engine;
+		private final byte[] program;
+		private final long cycles;
+		private final long every;
+
+		Run(Chip8Engine engine, byte[] program, long cycles, long every)
+		{
+			this.engine = engine;
+			this.program = program;
+			this.cycles = cycles;
+			this.every = every;
+		}
+
+		@Override
+		public long[] call()
+		{
+			Chip8Core chip8core = engine.create();
+			chip8core.setSeed(SEED);
+			chip8core.loadProgram(program);
+			ScriptedInput input = new ScriptedInput(SCRIPT, 2000);
+
+			long[] hashes = new long[(int) (cycles / every)];
+			long done = 0;
+			for(int checkpoint = 0; checkpoint < hashes.length; checkpoint++)
+			{
+				long target = (checkpoint + 1) * every;
+				while(done < target)
+				{
+					input.apply(chip8core, done);
+					int batch = (int) Math.min(INPUT_INTERVAL, target - done);
+					int executed = chip8core.runFor(batch);
+					if(executed < batch)
+					{
+						chip8core.reset();
+						chip8core.loadProgram(program);
+					}
+					//the halted instruction counts as a cycle, so a program halting at once still moves on
+					done += Math.max(executed, 1);
+				}
+				hashes[checkpoint] = hashDisplay(chip8core.getDisplayRows());
+			}
+			return hashes;
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Reads a golden file into "rom cycle" -> hash.
+	 */
+	static Map<String, Long> readGolden(Path file) throws IOException
+	{
+		Map<String, Long> golden = new LinkedHashMap<String, Long>();
+		if(!Files.isRegularFile(file))	{	return golden;	}
+		for(String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+		{
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))	{	continue;	}
+			String[] fields = line.split("\\s+");
+			if(fields.length != 3)	{	throw new IllegalArgumentException("Bad golden line : " + line);	}
+			golden.put(fields[0] + " " + fields[1], Long.parseUnsignedLong(fields[2], 16));
+		}
+		return golden;
+	}
+
+	static void writeGolden(Path file, Map<String, Long> golden) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		lines.add("# Screen hashes for chip8.headless.GoldenImages : rom, cycle, hash. Regenerate with --update.");
+		for(Map.Entry<String, Long> entry : golden.entrySet())
+		{
+			lines.add(entry.getKey() + " " + String.format("%016x", entry.getValue()));
+		}
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+//############################################################################################################################################################
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		Path goldenFile = Paths.get("golden-framebuffers.txt");
+		List<Chip8Engine> engines = new ArrayList<Chip8Engine>();
+		long cycles = 500000;
+		long every = 10000;
+		boolean update = false;
+		List<String> roms = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+			case "--golden":	goldenFile = Paths.get(args[++i]);				break;
+			case "--engine":	engines.add(Chip8Engine.parse(args[++i]));		break;
+			case "--cycles":	cycles = Long.parseLong(args[++i]);				break;
+			case "--every":		every = Long.parseLong(args[++i]);				break;
+			case "--update":	update = true;									break;
+			default:			roms.add(args[i]);								break;
+			}
+		}
+		if(roms.isEmpty())
+		{
+			for(String rom : Chip8Benchmarks.BUNDLED_ROMS)	{	roms.add(rom);	}
+		}
+		if(engines.isEmpty())
+		{
+			for(Chip8Engine engine : Chip8Engine.values())	{	engines.add(engine);	}
+		}
+		//the golden values always come from the interpreter, the reference for every other engine
+		if(update && !engines.contains(Chip8Engine.INTERPRETER))	{	engines.add(0, Chip8Engine.INTERPRETER);	}
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		Map<String, Map<Chip8Engine, Future<long[]>>> results = new LinkedHashMap<String, Map<Chip8Engine, Future<long[]>>>();
+		for(String rom : roms)
+		{
+			if(!new File(rom).isFile())
+			{
+				System.err.println("No such file : " + rom);
+				System.exit(2);
+			}
+			byte[] program = Files.readAllBytes(new File(rom).toPath());
+			Map<Chip8Engine, Future<long[]>> perEngine = new LinkedHashMap<Chip8Engine, Future<long[]>>();
+			for(Chip8Engine engine : engines)
+			{
+				perEngine.put(engine, pool.submit(new Run(engine, program, cycles, every)));
+			}
+			results.put(new File(rom).getName(), perEngine);
+		}
+
+		Map<String, Long> golden = update ? new LinkedHashMap<String, Long>() : readGolden(goldenFile);
+		PrintStream out = System.out;
+		int failures = 0;
+		for(Map.Entry<String, Map<Chip8Engine, Future<long[]>>> rom : results.entrySet())
+		{
+			if(update)
+			{
+				long[] hashes = rom.getValue().get(Chip8Engine.INTERPRETER).get();
+				for(int i = 0; i < hashes.length; i++)	{	golden.put(rom.getKey() + " " + (i + 1) * every, hashes[i]);	}
+			}
+			for(Map.Entry<Chip8Engine, Future<long[]>> run : rom.getValue().entrySet())
+			{
+				long[] hashes = run.getValue().get();
+				String failure = null;
+				for(int i = 0; i < hashes.length && failure == null; i++)
+				{
+					long cycle = (i + 1) * every;
+					Long expected = golden.get(rom.getKey() + " " + cycle);
+					if(expected == null)					{	failure = "no golden hash for cycle " + cycle;	}
+					else if(expected != hashes[i])
+					{
+						failure = String.format("cycle %d : screen hash %016x, expected %016x", cycle, hashes[i], expected);
+					}
+				}
+				String engine = run.getKey().name().toLowerCase();
+				if(failure == null)	{	out.printf("ok    %-14s %-12s %d checkpoints%n", rom.getKey(), engine, hashes.length);	}
+				else
+				{
+					out.printf("FAIL  %-14s %-12s %s%n", rom.getKey(), engine, failure);
+					failures++;
+				}
+			}
+		}
+		pool.shutdown();
+
+		if(update && failures == 0)
+		{
+			writeGolden(goldenFile, golden);
+			out.println("Wrote " + golden.size() + " hashes to " + goldenFile);
+		}
+		out.println((failures == 0 ? "All passed" : failures + " failed") + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		if(failures > 0)	{	System.exit(1);	}
+	}
+}
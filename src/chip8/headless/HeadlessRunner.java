@@ -0,0 +1,304 @@
+package chip8.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.Chip8Quirks;
+import chip8.Chip8State;
+import chip8.input.InputReplay;
+import chip8.trace.BinaryTraceSink;
+import chip8.trace.ConsoleTracer;
+import chip8.trace.HotSpotProfiler;
+
+public class HeadlessRunner
+{
+	/*
+	Runs a Chip8Core without any window, GPU or LWJGL classes, as fast as the host allows.
+
+	Execution stops on the first of:
+	# the program halting, i.e. the next instruction is a 1NNN jump to its own address
+	# the cycle budget running out
+	# the wall-clock budget running out
+	The final framebuffer and register state can then be dumped for inspection or comparison.
+
+	However fast the host runs, emulated time follows the core's clock rate : the timers tick 60 times per clock rate cycles.
+	With an InputReplay attached, recorded keypad events are fed in at their cycle numbers, so a recorded session reruns identically.
+	*/
+
+	public enum HaltReason	{	SELF_JUMP, CYCLE_BUDGET, TIME_BUDGET	}
+
+	/*
+	 * Cycles are handed to the core in batches of this size (so engines like the JIT can run whole blocks),
+	 * and the wall-clock budget is only checked between batches : reading the clock costs more than an instruction.
+	 */
+	private static final int BATCH = 1024;
+
+	private final Chip8Core chip8core;
+	private InputReplay input;
+
+	private long cyclesExecuted;
+	private long elapsedNanos;
+	private HaltReason haltReason;
+
+	public HeadlessRunner(Chip8Core chip8core)
+	{
+		this.chip8core = chip8core;
+	}
+
+	public Chip8Core getCore()			{	return chip8core;	}
+	public long getCyclesExecuted()		{	return cyclesExecuted;	}
+	public long getElapsedNanos()		{	return elapsedNanos;	}
+	public HaltReason getHaltReason()	{	return haltReason;	}
+	/*
+	 * Feeds the given log's events to the core while running; null runs without input.
+	 */
+	public void setInput(InputReplay input)	{	this.input = input;	}
+//############################################################################################################################################################
+	/*
+	 * Runs until halt, or until either budget is used up. A budget <= 0 means "no limit".
+	 */
+	public HaltReason run(long maxCycles, long maxNanos) throws IOException
+	{
+		long start = System.nanoTime();
+		long deadline = start + maxNanos;
+		long cycles = 0;
+		HaltReason reason;
+
+		while(true)
+		{
+			if(maxCycles > 0 && cycles >= maxCycles)					{	reason = HaltReason.CYCLE_BUDGET;	break;	}
+			if(maxNanos > 0 && System.nanoTime() - deadline >= 0)		{	reason = HaltReason.TIME_BUDGET;	break;	}
+			int batch = (maxCycles > 0) ? (int) Math.min(BATCH, maxCycles - cycles) : BATCH;
+			int done = (input != null) ? input.runFor(chip8core, batch) : chip8core.runFor(batch);
+			cycles += done;
+			//runFor() only comes back early when the program halted
+			if(done < batch)											{	reason = HaltReason.SELF_JUMP;		break;	}
+		}
+
+		elapsedNanos = System.nanoTime() - start;
+		cyclesExecuted = cycles;
+		haltReason = reason;
+		return reason;
+	}
+//############################################################################################################################################################
+	/*
+	 * Instructions per second over the last run.
+	 */
+	public double getInstructionsPerSecond()
+	{
+		if(elapsedNanos == 0)	{	return 0;	}
+		return cyclesExecuted * 1e9 / elapsedNanos;
+	}
+//############################################################################################################################################################
+	/*
+	 * Prints the 64x32 framebuffer, one text line per row ('#' = lit pixel, '.' = dark pixel).
+	 */
+	public static void dumpDisplay(Chip8Core chip8core, PrintStream out)
+	{
+		StringBuilder line = new StringBuilder(64);
+		for(int y = 0; y < 32; y++)
+		{
+			line.setLength(0);
+			for(int x = 0; x < 64; x++)
+			{
+				line.append(chip8core.isPixelSet(x, y) ? '#' : '.');
+			}
+			out.println(line);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Prints pc, I, stack, timers and V0 - VF in hex.
+	 */
+	public static void dumpRegisters(Chip8Core chip8core, PrintStream out)
+	{
+		out.printf("PC=%03X I=%03X SP=%X DT=%02X ST=%02X%n", chip8core.getPC(), chip8core.getI(),
+				chip8core.getStackPointer(), chip8core.getDelayTimer(), chip8core.getSoundTimer());
+		StringBuilder line = new StringBuilder();
+		for(int i = 0; i < 16; i++)
+		{
+			line.append(String.format("V%X=%02X ", i, chip8core.getV(i)));
+		}
+		out.println(line.toString().trim());
+		line.setLength(0);
+		for(int i = 0; i < chip8core.getStackPointer(); i++)
+		{
+			line.append(String.format("%03X ", chip8core.getStack(i)));
+		}
+		out.println("Stack: " + line.toString().trim());
+	}
+//############################################################################################################################################################
+	/*
+	 * Usage : HeadlessRunner [--cycles N] [--millis M] [--hz N] [--engine NAME] [--quirks NAME] [--trace console|FILE] [--profile FILE]
+	 * 						[--save-state FILE] [--replay-input FILE] (--load-state FILE | <rom.ch8>)
+	 * 		cycles defaults to 1,000,000; millis defaults to no limit; tracing defaults to off.
+	 * 		--hz sets the emulated clock rate (default Chip8Core.DEFAULT_CLOCK_RATE); 0 leaves the timers stopped.
+	 * 		--trace FILE writes BinaryTraceSink records instead of text.
+	 * 		--profile FILE writes a HotSpotProfiler report (hot addresses, hot loops, call graph) at the end. It replaces --trace.
+	 * 		--engine picks a Chip8Engine (interpreter, decoded, ...); defaults to the interpreter.
+	 * 		--quirks picks a Chip8Quirks profile (original, vip, chip48, schip); defaults to original.
+	 * 		--load-state starts from a Chip8State file instead of a ROM (its clock rate and quirks profile win over --hz and --quirks);
+	 * 		--save-state writes one at the end.
+	 * 		--replay-input plays back an InputRecorder log (recorded with the emulator's --record-input) from the start of the ROM,
+	 * 		with the log's seed, clock rate and quirks profile (which win over --hz and --quirks).
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		long maxCycles = 1000000;
+		long maxNanos = 0;
+		int clockRate = Chip8Core.DEFAULT_CLOCK_RATE;
+		String trace = null;
+		Chip8Engine engine = Chip8Engine.INTERPRETER;
+		Chip8Quirks quirks = Chip8Quirks.ORIGINAL;
+		String romPath = null;
+		String loadState = null;
+		String saveState = null;
+		String replayInput = null;
+		String profile = null;
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+			case "--cycles":
+				maxCycles = Long.parseLong(args[++i]);
+				break;
+			case "--millis":
+				maxNanos = Long.parseLong(args[++i]) * 1000000L;
+				break;
+			case "--hz":
+				clockRate = Integer.parseInt(args[++i]);
+				break;
+			case "--engine":
+				engine = Chip8Engine.parse(args[++i]);
+				break;
+			case "--quirks":
+				quirks = Chip8Quirks.parse(args[++i]);
+				break;
+			case "--trace":
+				trace = args[++i];
+				break;
+			case "--load-state":
+				loadState = args[++i];
+				break;
+			case "--save-state":
+				saveState = args[++i];
+				break;
+			case "--replay-input":
+				replayInput = args[++i];
+				break;
+			case "--profile":
+				profile = args[++i];
+				break;
+			default:
+				romPath = args[i];
+				break;
+			}
+		}
+		if(trace != null && profile != null)
+		{
+			System.err.println("--trace and --profile can't be used together");
+			System.exit(2);
+		}
+		if(romPath == null && loadState == null)
+		{
+			System.err.println("Usage : HeadlessRunner [--cycles N] [--millis M] [--hz N] [--engine NAME] [--quirks NAME] [--trace console|FILE] [--profile FILE]"
+					+ " [--save-state FILE] [--replay-input FILE] (--load-state FILE | <rom.ch8>)");
+			System.exit(2);
+		}
+		String input = (loadState != null) ? loadState : romPath;
+		if(!new File(input).isFile())
+		{
+			System.err.println("No such file : " + input);
+			System.exit(2);
+		}
+
+		Chip8State state = null;
+		if(loadState != null)
+		{
+			state = new Chip8State();
+			try
+			{
+				state.load(Paths.get(loadState));
+			}catch (IllegalArgumentException e)
+			{
+				System.err.println(loadState + " : " + e.getMessage());
+				System.exit(2);
+			}
+			quirks = state.getQuirks();
+		}
+		InputReplay replay = null;
+		if(replayInput != null)
+		{
+			try
+			{
+				replay = new InputReplay(Paths.get(replayInput));
+			}catch (IllegalArgumentException e)
+			{
+				System.err.println(replayInput + " : " + e.getMessage());
+				System.exit(2);
+			}
+			if(state != null && replay.getQuirks() != quirks)
+			{
+				System.err.println(replayInput + " : recorded with quirks " + replay.getQuirks() + ", " + loadState + " was saved with " + quirks);
+				System.exit(2);
+			}
+			quirks = replay.getQuirks();
+		}
+		Chip8Core chip8core = engine.create(quirks);
+		chip8core.setClockRate(clockRate);
+		if(state != null)
+		{
+			chip8core.restore(state);
+		}
+		else
+		{
+			try
+			{
+				chip8core.loadProgram(romPath);
+			}catch (IllegalArgumentException e)
+			{
+				System.err.println(romPath + " : " + e.getMessage());
+				System.exit(2);
+			}
+		}
+		if(replay != null)	{	replay.prepare(chip8core);	}
+		BinaryTraceSink traceSink = null;
+		if("console".equals(trace))
+		{
+			chip8core.setTracer(new ConsoleTracer());
+		}
+		else if(trace != null)
+		{
+			traceSink = new BinaryTraceSink(Paths.get(trace));
+			chip8core.setTracer(traceSink);
+		}
+		HotSpotProfiler profiler = null;
+		if(profile != null)
+		{
+			profiler = new HotSpotProfiler();
+			chip8core.setTracer(profiler);
+		}
+
+		HeadlessRunner runner = new HeadlessRunner(chip8core);
+		runner.setInput(replay);
+		HaltReason reason = runner.run(maxCycles, maxNanos);
+		if(replay != null)	{	replay.close();	}
+		if(traceSink != null)	{	traceSink.close();	}
+		if(profiler != null)	{	profiler.write(chip8core, Paths.get(profile), 20);	}
+		if(saveState != null)	{	chip8core.snapshot(new Chip8State()).save(Paths.get(saveState));	}
+
+		PrintStream out = System.out;
+		out.println("Stopped : " + reason + " after " + runner.getCyclesExecuted() + " cycles in "
+				+ (runner.getElapsedNanos() / 1000000) + " ms (" + (long) runner.getInstructionsPerSecond() + " instructions/s)");
+		if(replay != null)
+		{
+			out.println("Input : " + replay.getAppliedCount() + " events replayed" + (replay.isFinished() ? "" : ", more left in the log"));
+		}
+		dumpRegisters(chip8core, out);
+		dumpDisplay(chip8core, out);
+	}
+}
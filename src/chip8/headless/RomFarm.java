@@ -0,0 +1,288 @@
+package chip8.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.bench.Chip8Benchmarks;
+import chip8.bench.ScriptedInput;
+import chip8.rom.RomImage;
+import chip8.rom.RomLibrary;
+
+public class RomFarm
+{
+	/*
+	Runs many independent machines side by side on a fork-join pool, for regression corpora, bots and the like.
+
+	Every instance owns its core, ROM, seed and cycle count; nothing is shared between them apart from read-only ROM images
+	and (with the JIT) the JVM-wide block cache. Work is scheduled in slices : each round hands every instance sliceCycles cycles,
+	split over the pool by index range, so a thread keeps working on the same few cores and their state stays in its cache.
+	An instance whose program halts is reset and restarted inside its slice. If the restart itself makes no progress (the program
+	halts on its first instruction) the instance's slice ends there, so such a ROM costs one restart per slice instead of hanging the round.
+
+	Usage : RomFarm [--instances N] [--cycles N] [--slice N] [--engine NAME] [--seed S] [--threads N] [rom.ch8 | dir | archive.zip ...]
+		defaults : 1000 instances round-robin over the bundled ROMs, 20,000 cycles per instance per measurement,
+		slices of 5,000 cycles, the JIT, seed 0, and a scaling run over 1, 2, 4 ... available processors threads.
+		--threads N only measures 1 and N threads.
+		Directories and archives contribute every .ch8 in them (see RomLibrary); ROMs with identical content share one image.
+	*/
+
+	/*
+	 * Instances handled by one fork-join leaf task. Big enough that splitting costs nothing next to the emulation.
+	 */
+	private static final int LEAF_INSTANCES = 8;
+	/*
+	 * Input is only re-applied this often, like a real frontend polling between batches.
+	 */
+	private static final int INPUT_INTERVAL = 64;
+	/*
+	 * Minimum number of cycles (over all instances) run before measuring, so the first scaling step isn't still warming up.
+	 */
+	private static final long WARMUP_CYCLES = 20000000L;
+
+	public static class Instance
+	{
+		private final Chip8Core chip8core;
+		private final byte[] program;
+		private final ScriptedInput input;
+		private final long seed;
+		/*
+		 * Where in the input script this instance starts, so instances of the same ROM don't all press the same keys at the same time.
+		 */
+		private final long inputPhase;
+		private long cycles;
+		private int restarts;
+
+		Instance(Chip8Engine engine, byte[] program, ScriptedInput input, long seed)
+		{
+			this.chip8core = engine.create();
+			this.program = program;
+			this.input = input;
+			this.seed = seed;
+			this.inputPhase = (seed >>> 1) % 1000000;
+			chip8core.setSeed(seed);
+			chip8core.loadProgram(program);
+		}
+
+		void runSlice(int sliceCycles)
+		{
+			int done = 0;
+			boolean restarted = false;
+			while(done < sliceCycles)
+			{
+				input.apply(chip8core, cycles + inputPhase);
+				int batch = Math.min(INPUT_INTERVAL, sliceCycles - done);
+				int executed = chip8core.runFor(batch);
+				done += executed;
+				cycles += executed;
+				if(executed < batch)
+				{
+					chip8core.reset();
+					chip8core.loadProgram(program);
+					restarts++;
+					//halted without a single cycle since the last restart : restarting again wouldn't get any further
+					if(executed == 0 && restarted)	{	return;	}
+					restarted = true;
+				}
+				else	{	restarted = false;	}
+			}
+		}
+
+		public Chip8Core getCore()	{	return chip8core;	}
+		public long getSeed()		{	return seed;	}
+		public long getCycles()		{	return cycles;	}
+		public int getRestarts()	{	return restarts;	}
+	}
+
+	@SuppressWarnings("serial")
+	private final class SliceTask extends RecursiveAction
+	{
+		private final int from;
+		private final int to;
+
+		SliceTask(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(to - from <= LEAF_INSTANCES)
+			{
+				for(int i = from; i < to; i++)	{	instances[i].runSlice(sliceCycles);	}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SliceTask(from, middle), new SliceTask(middle, to));
+		}
+	}
+
+	private final Instance[] instances;
+	private final int sliceCycles;
+
+	/*
+	 * Creates count instances, instance i running programs[i % programs.size()] with its own seed derived from baseSeed.
+	 */
+	public RomFarm(Chip8Engine engine, List<byte[]> programs, int count, long baseSeed, int sliceCycles)
+	{
+		if(programs.isEmpty() || count <= 0 || sliceCycles <= 0)
+		{
+			throw new IllegalArgumentException("Need at least one ROM, one instance and a positive slice");
+		}
+		this.instances = new Instance[count];
+		this.sliceCycles = sliceCycles;
+		ScriptedInput input = ScriptedInput.defaultScript();
+		for(int i = 0; i < count; i++)
+		{
+			instances[i] = new Instance(engine, programs.get(i % programs.size()), input, mixSeed(baseSeed, i));
+		}
+	}
+
+	/*
+	 * Spreads consecutive indices over the whole 64 bit range (SplitMix64 finalizer), so neighbouring instances get unrelated seeds.
+	 */
+	static long mixSeed(long baseSeed, int index)
+	{
+		long z = baseSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public int size()						{	return instances.length;	}
+	public Instance getInstance(int index)	{	return instances[index];	}
+//############################################################################################################################################################
+	/*
+	 * Runs every instance for (at least) cyclesPerInstance more cycles, a slice per round, on the given pool; instances whose
+	 * program halts right after a restart run fewer. Returns the number of cycles executed over all instances.
+	 */
+	public long run(long cyclesPerInstance, ForkJoinPool pool)
+	{
+		long before = totalCycles();
+		long rounds = (cyclesPerInstance + sliceCycles - 1) / sliceCycles;
+		for(long round = 0; round < rounds; round++)
+		{
+			pool.invoke(new SliceTask(0, instances.length));
+		}
+		return totalCycles() - before;
+	}
+
+	public long totalCycles()
+	{
+		long total = 0;
+		for(Instance instance : instances)	{	total += instance.cycles;	}
+		return total;
+	}
+
+	public long totalRestarts()
+	{
+		long total = 0;
+		for(Instance instance : instances)	{	total += instance.restarts;	}
+		return total;
+	}
+//############################################################################################################################################################
+	/*
+	 * Thread counts for the scaling run : powers of two up to the number of processors, plus that number itself.
+	 */
+	static List<Integer> scalingSteps(int processors)
+	{
+		List<Integer> steps = new ArrayList<Integer>();
+		for(int threads = 1; threads < processors; threads *= 2)	{	steps.add(threads);	}
+		steps.add(processors);
+		return steps;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int count = 1000;
+		long cycles = 20000;
+		int slice = 5000;
+		long seed = 0;
+		int threads = 0;
+		Chip8Engine engine = Chip8Engine.JIT;
+		List<String> roms = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+			case "--instances":	count = Integer.parseInt(args[++i]);	break;
+			case "--cycles":	cycles = Long.parseLong(args[++i]);		break;
+			case "--slice":		slice = Integer.parseInt(args[++i]);	break;
+			case "--seed":		seed = Long.parseLong(args[++i]);		break;
+			case "--threads":	threads = Integer.parseInt(args[++i]);	break;
+			case "--engine":	engine = Chip8Engine.parse(args[++i]);	break;
+			default:			roms.add(args[i]);						break;
+			}
+		}
+		if(roms.isEmpty())
+		{
+			for(String rom : Chip8Benchmarks.BUNDLED_ROMS)	{	roms.add(rom);	}
+		}
+		//each argument may be a ROM, a directory of them or a .zip; bad entries are reported and skipped
+		List<byte[]> programs = new ArrayList<byte[]>();
+		for(String rom : roms)
+		{
+			if(!new File(rom).exists())
+			{
+				System.err.println("Skipping " + rom + " (not found)");
+				continue;
+			}
+			try(RomLibrary library = RomLibrary.open(Paths.get(rom)))
+			{
+				for(RomImage image : library.loadAll())	{	programs.add(image.bytes());	}
+				for(String error : library.getErrors())		{	System.err.println("Skipping " + error);	}
+			}
+		}
+		if(programs.isEmpty())
+		{
+			System.err.println("No ROMs to run");
+			System.exit(2);
+		}
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		//the single thread run is always there, as the baseline for speedup
+		List<Integer> steps = scalingSteps(processors);
+		if(threads > 0)
+		{
+			steps.clear();
+			steps.add(1);
+			if(threads > 1)	{	steps.add(threads);	}
+		}
+
+		RomFarm farm = new RomFarm(engine, programs, count, seed, slice);
+		PrintStream out = System.out;
+		out.println(count + " instances of " + programs.size() + " ROM(s), engine " + engine.name().toLowerCase() + ", "
+				+ processors + " processor(s), " + cycles + " cycles per instance per step");
+
+		//one untimed pass so every instance has been class-loaded, JIT-compiled and has its blocks
+		ForkJoinPool warmupPool = new ForkJoinPool(steps.get(steps.size() - 1));
+		farm.run(Math.max(cycles, WARMUP_CYCLES / count), warmupPool);
+		warmupPool.shutdown();
+
+		out.printf("%8s %16s %10s %11s%n", "threads", "instructions/s", "speedup", "efficiency");
+		double singleThread = 0;
+		for(int step : steps)
+		{
+			ForkJoinPool pool = new ForkJoinPool(step);
+			long start = System.nanoTime();
+			long executed = farm.run(cycles, pool);
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+
+			double ips = executed * 1e9 / elapsed;
+			if(step == 1)	{	singleThread = ips;	}
+			double speedup = ips / singleThread;
+			out.printf("%8d %16.0f %9.2fx %10.0f%%%n", step, ips, speedup, 100 * speedup / step);
+		}
+		out.println("Total : " + farm.totalCycles() + " cycles, " + farm.totalRestarts() + " program restarts");
+	}
+}
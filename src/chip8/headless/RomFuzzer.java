@@ -0,0 +1,598 @@
+package chip8.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.Chip8Quirks;
+import chip8.DecodedChip8Core;
+import chip8.Disassembler;
+import chip8.JitChip8Core;
+import chip8.bench.Chip8Benchmarks;
+import chip8.bench.ScriptedInput;
+import chip8.rom.RomImage;
+import chip8.rom.RomLibrary;
+import chip8.trace.CoverageTracer;
+
+public class RomFuzzer
+{
+	/*
+	Coverage-guided fuzzer for the cores : generates and mutates ROM images, runs each one headless on every selected engine
+	with a cycle budget, and saves the inputs that crash, hang, or make the engines disagree.
+
+	Each worker thread owns one core per engine for the whole session; an execution is reset() + loadProgram() + runFor(),
+	with a fixed CXKK seed and the default input script, so nothing is constructed per input and every finding replays exactly.
+	The first engine runs with a CoverageTracer (addresses, instruction kinds and address-to-address edges, see there);
+	an input that sets coverage bits no earlier input did joins the corpus that later inputs are mutated from.
+
+	Findings, each saved once per signature as <kind>-<n>.ch8 plus a .txt describing it :
+		crash	: an engine threw (stack over/underflow, memory past 0xFFF, a key index past 15, ...)
+		hang	: the machine stopped advancing without halting (an unsupported opcode never moves pc on),
+				  or one execution took longer than --timeout milliseconds on the host. An engine that never returns at all
+				  is caught by a watchdog in the main thread, which saves the input and replaces the worker thread.
+		diverge	: an engine ended in another state (stateHash() of EngineLockstep) or outcome than the first engine
+	Crashes are told apart by exception and the instruction at pc when it was thrown, as the engines decode it (not by stack trace :
+	once HotSpot throws its preallocated exceptions they have none), hangs by the first nibble of the instruction they are stuck on.
+	Programs ending on a 1NNN self-jump are simply done, not hung.
+
+	While fuzzing, System.err is muted : the cores report every unsupported opcode there, which random code hits all the time.
+
+	Throughput, per thread : several thousand executions a second on the interpreter alone. The JIT engine compiles a class for
+	every block it hasn't seen, which random code nearly always is, so it cuts that to about a thousand. Its cores keep their blocks
+	in a private cache of at most JIT_CACHE_BLOCKS blocks rather than the JVM-wide one, so the generated classes get unloaded and
+	metaspace stays flat however long the session. Fuzz with --engine interpreter --engine decoded for speed, and with the JIT for its bugs.
+
+	Usage : RomFuzzer [--seconds N] [--execs N] [--cycles N] [--engine NAME ...] [--quirks NAME] [--threads N] [--seed S] [--timeout MS]
+					  [--out DIR] [--replay file.ch8] [seed.ch8 | dir | archive.zip ...]
+		defaults : 60 seconds, 10,000 cycles per execution, all engines (interpreter first), original quirks, one thread per processor,
+		seed 0, 1000 ms, findings in ./fuzz-findings, the bundled ROMs as initial corpus.
+		--quirks runs every engine under that Chip8Quirks profile.
+		--replay runs one file through every engine and prints the outcomes instead.
+	Exits with status 1 if anything was found.
+	*/
+
+	/*
+	 * CXKK seed of every execution, so findings replay the same.
+	 */
+	private static final long CXKK_SEED = 0x5eed;
+	/*
+	 * Input is re-applied this often, like a frontend polling between batches.
+	 */
+	private static final int INPUT_INTERVAL = 250;
+	private static final int MAX_MUTATIONS = 4;
+	/*
+	 * Past this many entries new coverage is still counted, but no longer kept (every add copies the list).
+	 */
+	private static final int MAX_CORPUS = 50000;
+	/*
+	 * One input in this many is generated from scratch rather than mutated from the corpus.
+	 */
+	private static final int GENERATE_ONE_IN = 16;
+	/*
+	 * How often progress is printed and workers are checked for endless runs.
+	 */
+	private static final int WATCHDOG_MILLIS = 1000;
+	/*
+	 * Size of each JIT core's private block cache (see JitChip8Core).
+	 */
+	private static final int JIT_CACHE_BLOCKS = 4096;
+
+	private final Chip8Engine[] engines;
+	private final Chip8Quirks quirks;
+	private final int cycles;
+	private final long timeoutNanos;
+	private final Path out;
+
+	private final CopyOnWriteArrayList<byte[]> corpus	= new CopyOnWriteArrayList<byte[]>();
+	private final AtomicLongArray coverage				= new AtomicLongArray(CoverageTracer.WORDS);
+	private final ConcurrentHashMap<String, String> findings	= new ConcurrentHashMap<String, String>();
+	private final AtomicInteger saved					= new AtomicInteger();
+	private final LongAdder execs						= new LongAdder();
+	private final PrintStream errors					= System.err;
+	private volatile boolean stopping;
+
+	public RomFuzzer(Chip8Engine[] engines, Chip8Quirks quirks, int cycles, long timeoutMillis, Path out)
+	{
+		this.engines		= engines.clone();
+		this.quirks			= quirks;
+		this.cycles			= cycles;
+		this.timeoutNanos	= timeoutMillis * 1000000L;
+		this.out			= out;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		long seconds = 60;
+		long maxExecs = 0;
+		int cycles = 10000;
+		List<Chip8Engine> engines = new ArrayList<Chip8Engine>();
+		Chip8Quirks quirks = Chip8Quirks.ORIGINAL;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 0;
+		long timeout = 1000;
+		String out = "fuzz-findings";
+		String replay = null;
+		List<String> roms = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+			case "--seconds":	seconds = Long.parseLong(args[++i]);		break;
+			case "--execs":		maxExecs = Long.parseLong(args[++i]);		break;
+			case "--cycles":	cycles = Integer.parseInt(args[++i]);		break;
+			case "--engine":	engines.add(Chip8Engine.parse(args[++i]));	break;
+			case "--quirks":	quirks = Chip8Quirks.parse(args[++i]);		break;
+			case "--threads":	threads = Integer.parseInt(args[++i]);		break;
+			case "--seed":		seed = Long.parseLong(args[++i]);			break;
+			case "--timeout":	timeout = Long.parseLong(args[++i]);		break;
+			case "--out":		out = args[++i];							break;
+			case "--replay":	replay = args[++i];							break;
+			default:			roms.add(args[i]);							break;
+			}
+		}
+		if(engines.isEmpty())
+		{
+			for(Chip8Engine engine : Chip8Engine.values())	{	engines.add(engine);	}
+		}
+		RomFuzzer fuzzer = new RomFuzzer(engines.toArray(new Chip8Engine[0]), quirks, cycles, timeout, Paths.get(out));
+
+		if(replay != null)
+		{
+			fuzzer.replay(Files.readAllBytes(Paths.get(replay)), System.out);
+			return;
+		}
+
+		if(roms.isEmpty())
+		{
+			for(String rom : Chip8Benchmarks.BUNDLED_ROMS)
+			{
+				if(new File(rom).isFile())	{	roms.add(rom);	}
+			}
+		}
+		for(String rom : roms)
+		{
+			try(RomLibrary library = RomLibrary.open(Paths.get(rom)))
+			{
+				for(RomImage image : library.loadAll())	{	fuzzer.corpus.add(image.bytes());	}
+				for(String error : library.getErrors())		{	System.err.println("Skipping " + error);	}
+			}
+		}
+
+		Files.createDirectories(fuzzer.out);
+		int found = fuzzer.fuzz(threads, seed, seconds, maxExecs, System.out);
+		if(found > 0)	{	System.exit(1);	}
+	}
+//############################################################################################################################################################
+	/*
+	 * Fuzzes on the given number of threads until the time is up or maxExecs inputs ran (0 = no limit), printing progress every second.
+	 * Returns the number of findings.
+	 */
+	public int fuzz(int threads, long seed, long seconds, long maxExecs, PrintStream report) throws InterruptedException
+	{
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+		try
+		{
+			Worker[] workers = new Worker[threads];
+			Thread[] running = new Thread[threads];
+			long start = System.nanoTime();
+			for(int t = 0; t < threads; t++)
+			{
+				//worker 0 goes through the initial corpus first, so its coverage counts before any mutant's
+				workers[t] = new Worker(seed * 31 + t, (t == 0) ? new ArrayList<byte[]>(corpus) : new ArrayList<byte[]>());
+				running[t] = start(workers[t], t);
+			}
+
+			long deadline = start + seconds * 1000000000L;
+			long replaced = 0;
+			while(System.nanoTime() < deadline && (maxExecs == 0 || execs.sum() < maxExecs))
+			{
+				Thread.sleep(Math.max(1, Math.min(WATCHDOG_MILLIS, (deadline - System.nanoTime()) / 1000000)));
+				for(int t = 0; t < threads; t++)
+				{
+					//an engine looping forever on the host can't be interrupted : save the input, abandon the thread, start another
+					String stuck = workers[t].overdue(System.nanoTime());
+					if(stuck == null)	{	continue;	}
+					record("hang endless (" + stuck + ")", stuck + " : still running after " + timeoutNanos / 1000000 + " ms", workers[t].current);
+					workers[t] = new Worker(seed * 31 + threads + replaced++, new ArrayList<byte[]>());
+					running[t] = start(workers[t], t);
+				}
+				printStatus(report, System.nanoTime() - start);
+			}
+			stopping = true;
+			for(int t = 0; t < threads; t++)	{	running[t].join(timeoutNanos / 1000000 + WATCHDOG_MILLIS);	}
+			printStatus(report, System.nanoTime() - start);
+		}finally
+		{
+			System.setErr(errors);
+		}
+
+		Map<String, String> sorted = new TreeMap<String, String>(findings);
+		for(String description : sorted.values())	{	report.println(description);	}
+		report.println(findings.isEmpty() ? "Nothing found" : findings.size() + " finding(s) saved to " + out.toAbsolutePath());
+		return findings.size();
+	}
+
+	private static Thread start(Worker worker, int index)
+	{
+		Thread thread = new Thread(worker, "fuzzer-" + index);
+		//an abandoned worker must not keep the JVM alive
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private void printStatus(PrintStream report, long elapsedNanos)
+	{
+		long[] map = new long[CoverageTracer.WORDS];
+		for(int i = 0; i < map.length; i++)	{	map[i] = coverage.get(i);	}
+		long total = execs.sum();
+		report.printf("%5.0f s  %10d execs  %8.0f/s  corpus %5d  coverage : %4d addresses %3d kinds %6d edges  findings %d%n",
+				elapsedNanos / 1e9, total, total / (elapsedNanos / 1e9), corpus.size(),
+				CoverageTracer.count(map, CoverageTracer.ADDRESSES, CoverageTracer.ADDRESS_WORDS),
+				CoverageTracer.count(map, CoverageTracer.KINDS, CoverageTracer.KIND_WORDS),
+				CoverageTracer.count(map, CoverageTracer.EDGES, CoverageTracer.EDGE_WORDS), findings.size());
+	}
+
+	/*
+	 * Runs one input through every engine and prints what each did.
+	 */
+	public void replay(byte[] rom, PrintStream report)
+	{
+		Worker worker = new Worker(0, new ArrayList<byte[]>());
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+		try
+		{
+			worker.execute(rom);
+		}finally
+		{
+			System.setErr(errors);
+		}
+		for(int e = 0; e < engines.length; e++)
+		{
+			String outcome = worker.outcomes[e];
+			report.printf("%-12s %s%n", engines[e].name().toLowerCase(), (outcome == null)
+					? String.format("ran %d cycles, state hash %016x", worker.cores[e].getCycleCount(), worker.hashes[e]) : outcome);
+		}
+	}
+//############################################################################################################################################################
+	private final class Worker implements Runnable
+	{
+		private final Random random;
+		private final Chip8Core[] cores = new Chip8Core[engines.length];
+		private final CoverageTracer tracer = new CoverageTracer();
+		private final ScriptedInput input = ScriptedInput.defaultScript();
+		/*
+		 * Results of the last execute(), per engine : null if it ran normally, else what went wrong.
+		 */
+		private final String[] outcomes = new String[engines.length];
+		private final String[] signatures = new String[engines.length];
+		private final long[] hashes = new long[engines.length];
+		private final List<byte[]> initial;
+		/*
+		 * What is running right now, for the watchdog : the input, and since when (0 = nothing) on which engine.
+		 */
+		private volatile byte[] current;
+		private volatile long since;
+		private volatile int engine;
+
+		Worker(long seed, List<byte[]> initial)
+		{
+			this.initial = initial;
+			random = new Random(seed);
+			for(int e = 0; e < engines.length; e++)
+			{
+				cores[e] = (engines[e] == Chip8Engine.JIT) ? new JitChip8Core(quirks, JIT_CACHE_BLOCKS) : engines[e].create(quirks);
+			}
+			cores[0].setTracer(tracer);
+		}
+
+		@Override
+		public void run()
+		{
+			for(byte[] rom : initial)
+			{
+				execute(rom);
+				examine(rom);
+			}
+			while(!stopping)
+			{
+				byte[] rom = nextInput();
+				execute(rom);
+				examine(rom);
+			}
+		}
+
+		/*
+		 * Name of the engine if it has been running the current input for longer than the timeout, else null.
+		 */
+		String overdue(long now)
+		{
+			long started = since;
+			return (started != 0 && now - started > timeoutNanos) ? engines[engine].name().toLowerCase() : null;
+		}
+
+		void execute(byte[] rom)
+		{
+			tracer.reset();
+			current = rom;
+			for(int e = 0; e < engines.length; e++)
+			{
+				Chip8Core chip8core = cores[e];
+				engine = e;
+				chip8core.reset();
+				chip8core.setSeed(CXKK_SEED);
+				chip8core.loadProgram(rom);
+				outcomes[e] = null;
+				signatures[e] = null;
+				long start = System.nanoTime();
+				since = start;
+				try
+				{
+					if(!runBudget(chip8core))
+					{
+						outcomes[e] = String.format("stuck at %03X on %04X %s", chip8core.getPC(), chip8core.peekOpcode(),
+								Disassembler.disassemble(chip8core.peekOpcode()));
+						signatures[e] = String.format("hang stuck on %XNNN", chip8core.peekOpcode() >>> 12);
+					}
+				}catch (RuntimeException | StackOverflowError failure)
+				{
+					//pc may be odd after a jump, and past FFF if the fetch itself failed
+					int pc = chip8core.getPC();
+					int opcode = (pc < 0xfff) ? (chip8core.readMemory(pc) << 8) | chip8core.readMemory(pc + 1) : 0;
+					outcomes[e] = String.format("%s (%s) in %s near %03X %04X %s, cycle %d", failure.getClass().getSimpleName(),
+							failure.getMessage(), innermost(failure), pc, opcode, Disassembler.disassemble(opcode), chip8core.getCycleCount());
+					//the instruction at pc rather than the stack trace, which HotSpot leaves empty once it throws preallocated exceptions
+					String where = (pc >= 0xfff) ? "fetch past FFF" : DecodedChip8Core.instructionName(opcode);
+					signatures[e] = "crash " + failure.getClass().getSimpleName() + " on " + where;
+				}
+				long elapsed = System.nanoTime() - start;
+				since = 0;
+				if(outcomes[e] == null && elapsed > timeoutNanos)
+				{
+					outcomes[e] = String.format("took %d ms for %d cycles", elapsed / 1000000, cycles);
+					signatures[e] = "hang slow (" + engines[e].name().toLowerCase() + ")";
+				}
+				hashes[e] = isCrash(signatures[e]) ? 0 : EngineLockstep.stateHash(chip8core);
+			}
+			execs.increment();
+		}
+
+		/*
+		 * Saves what the last execute() found, and adds the input to the corpus if it covered anything new.
+		 */
+		void examine(byte[] rom)
+		{
+			//crashes and hangs are reported for the first engine; another engine only matters where it does something else
+			if(signatures[0] != null)	{	record(signatures[0], engines[0].name().toLowerCase() + " : " + outcomes[0], rom);	}
+			for(int e = 1; e < engines.length; e++)
+			{
+				String name = engines[e].name().toLowerCase();
+				if(signatures[e] != null && signatures[e].startsWith("hang slow"))	{	record(signatures[e], name + " : " + outcomes[e], rom);	}
+				boolean sameOutcome = category(signatures[0]).equals(category(signatures[e]));
+				if(!sameOutcome || (!isCrash(signatures[0]) && hashes[0] != hashes[e]))
+				{
+					String difference = sameOutcome ? EngineLockstep.difference(cores[0], cores[e]) : "outcome";
+					if(difference == null)	{	difference = "state hash";	}
+					String item = difference.split("[ \\[]")[0];
+					record("diverge " + name + " " + item, name + " vs " + engines[0].name().toLowerCase() + " : " + difference
+							+ " (" + (outcomes[0] == null ? "ran normally" : outcomes[0]) + " / " + (outcomes[e] == null ? "ran normally" : outcomes[e]) + ")", rom);
+				}
+			}
+
+			if(!isCrash(signatures[0]))
+			{
+				if(merge(tracer.map()) && corpus.size() < MAX_CORPUS)	{	corpus.add(rom);	}
+			}
+		}
+
+		/*
+		 * Runs the cycle budget under the input script. Returns false as soon as the machine is stuck : after a batch, one more cycle
+		 * leaves pc where it was, though the program hasn't halted. Checking every batch matters for throughput, since a stuck
+		 * machine usually sits on an unsupported opcode, which costs a console message per cycle.
+		 */
+		private boolean runBudget(Chip8Core chip8core)
+		{
+			int done = 0;
+			while(done < cycles)
+			{
+				input.apply(chip8core, done);
+				int batch = Math.min(INPUT_INTERVAL, cycles - done);
+				int executed = chip8core.runFor(batch);
+				if(executed < batch)	{	return true;	}	//halted
+				int pc = chip8core.getPC();
+				if(chip8core.runFor(1) == 0)	{	return true;	}
+				if(chip8core.getPC() == pc)		{	return false;	}
+				done += executed + 1;
+			}
+			return true;
+		}
+
+		private byte[] nextInput()
+		{
+			if(corpus.isEmpty() || random.nextInt(GENERATE_ONE_IN) == 0)	{	return generate();	}
+			byte[] rom = corpus.get(random.nextInt(corpus.size())).clone();
+			int mutations = 1 + random.nextInt(MAX_MUTATIONS);
+			for(int i = 0; i < mutations; i++)	{	rom = mutate(rom);	}
+			return rom;
+		}
+
+		private byte[] generate()
+		{
+			byte[] rom = new byte[2 * (1 + random.nextInt(128))];
+			for(int at = 0; at < rom.length; at += 2)	{	putOpcode(rom, at, randomOpcode());	}
+			return rom;
+		}
+
+		/*
+		 * One random change. Returns rom itself, or a new array if the length changed; the result is always a loadable size.
+		 */
+		private byte[] mutate(byte[] rom)
+		{
+			int at = random.nextInt(rom.length) & ~1;
+			switch(random.nextInt(7))
+			{
+			case 0:		//flip a bit
+				rom[random.nextInt(rom.length)] ^= 1 << random.nextInt(8);
+				return rom;
+			case 1:		//a random byte
+				rom[random.nextInt(rom.length)] = (byte) random.nextInt(256);
+				return rom;
+			case 2:		//a random instruction in place of another
+				if(at + 1 < rom.length)	{	putOpcode(rom, at, randomOpcode());	}
+				return rom;
+			case 3:		//insert an instruction
+			{
+				if(rom.length + 2 > Chip8Core.MAX_PROGRAM_SIZE)	{	return rom;	}
+				byte[] longer = new byte[rom.length + 2];
+				System.arraycopy(rom, 0, longer, 0, at);
+				System.arraycopy(rom, at, longer, at + 2, rom.length - at);
+				putOpcode(longer, at, randomOpcode());
+				return longer;
+			}
+			case 4:		//delete an instruction
+			{
+				if(rom.length <= 2 || at + 2 > rom.length)	{	return rom;	}
+				byte[] shorter = new byte[rom.length - 2];
+				System.arraycopy(rom, 0, shorter, 0, at);
+				System.arraycopy(rom, at + 2, shorter, at, rom.length - at - 2);
+				return shorter;
+			}
+			case 5:		//copy a run of bytes within the ROM
+			{
+				int from = random.nextInt(rom.length);
+				int length = Math.min(1 + random.nextInt(16), Math.min(rom.length - from, rom.length - at));
+				System.arraycopy(rom, from, rom, at, length);
+				return rom;
+			}
+			default:	//splice : this ROM's head, another corpus entry's tail
+			{
+				byte[] other = corpus.isEmpty() ? rom : corpus.get(random.nextInt(corpus.size()));
+				int split = random.nextInt(other.length) & ~1;
+				int length = Math.min(at + other.length - split, Chip8Core.MAX_PROGRAM_SIZE);
+				if(length == 0)	{	return rom;	}
+				byte[] spliced = new byte[length];
+				System.arraycopy(rom, 0, spliced, 0, Math.min(at, length));
+				if(length > at)	{	System.arraycopy(other, split, spliced, at, length - at);	}
+				return spliced;
+			}
+			}
+		}
+
+		/*
+		 * Any opcode, biased towards existing instructions (the sub-ops of 0, 8, E and F are mostly valid ones)
+		 * and, one time in eight, towards extreme operands : addresses near 0xFFF, registers full of 0xFF.
+		 */
+		private int randomOpcode()
+		{
+			int group = random.nextInt(16);
+			int opcode = group << 12 | random.nextInt(0x1000);
+			if(random.nextInt(8) == 0)	{	opcode |= random.nextBoolean() ? 0x0ff0 : 0x00ff;	}
+			if(random.nextInt(8) != 0)
+			{
+				switch(group)
+				{
+				case 0x0:	opcode = random.nextBoolean() ? 0x00e0 : 0x00ee;							break;
+				case 0x8:	opcode = (opcode & 0xfff0) | SUB_OPS_8[random.nextInt(SUB_OPS_8.length)];	break;
+				case 0xE:	opcode = (opcode & 0xff00) | (random.nextBoolean() ? 0x9e : 0xa1);			break;
+				case 0xF:	opcode = (opcode & 0xff00) | SUB_OPS_F[random.nextInt(SUB_OPS_F.length)];	break;
+				}
+			}
+			return opcode;
+		}
+
+		private void putOpcode(byte[] rom, int at, int opcode)
+		{
+			rom[at]		= (byte) (opcode >>> 8);
+			rom[at + 1]	= (byte) opcode;
+		}
+	}
+
+	private static boolean isCrash(String signature)
+	{
+		return signature != null && signature.startsWith("crash");
+	}
+
+	/*
+	 * What an engine did with an input, for comparing engines : "crash", "stuck" or "ran" (host time doesn't count).
+	 */
+	private static String category(String signature)
+	{
+		if(isCrash(signature))	{	return "crash";	}
+		return (signature != null && signature.startsWith("hang stuck")) ? "stuck" : "ran";
+	}
+
+	private static final int[] SUB_OPS_8 = { 0x0, 0x1, 0x2, 0x3, 0x4, 0x5, 0x6, 0x7, 0xe };
+	private static final int[] SUB_OPS_F = { 0x07, 0x0a, 0x15, 0x18, 0x1e, 0x29, 0x33, 0x55, 0x65 };
+//############################################################################################################################################################
+	/*
+	 * ORs a run's coverage into the session's. Returns true if it set any bit that wasn't set yet.
+	 */
+	private boolean merge(long[] map)
+	{
+		boolean added = false;
+		for(int i = 0; i < map.length; i++)
+		{
+			long bits = map[i];
+			if(bits == 0)	{	continue;	}
+			long seen = coverage.get(i);
+			while((bits & ~seen) != 0)
+			{
+				if(coverage.compareAndSet(i, seen, seen | bits))	{	added = true;	break;	}
+				seen = coverage.get(i);
+			}
+		}
+		return added;
+	}
+
+	/*
+	 * Saves the input the first time a signature shows up.
+	 */
+	private void record(String signature, String description, byte[] rom)
+	{
+		if(findings.putIfAbsent(signature, "") != null)	{	return;	}
+		String kind = signature.substring(0, signature.indexOf(' '));
+		String name = String.format("%s-%03d", kind, saved.incrementAndGet());
+		findings.put(signature, name + " : " + description);
+		try
+		{
+			Files.write(out.resolve(name + ".ch8"), rom);
+			Files.write(out.resolve(name + ".txt"), (signature + "\n" + description + "\n").getBytes(StandardCharsets.UTF_8));
+		}catch (IOException e)
+		{
+			errors.println("Couldn't save " + name + " : " + e.getMessage());
+		}
+	}
+
+	/*
+	 * The innermost stack frame in the emulator's own code, e.g. "Chip8Core.op00EE", for the description. "?" when the trace is empty.
+	 */
+	private static String innermost(Throwable failure)
+	{
+		for(StackTraceElement frame : failure.getStackTrace())
+		{
+			if(frame.getClassName().startsWith("chip8."))
+			{
+				String className = frame.getClassName();
+				return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+			}
+		}
+		return "?";
+	}
+}
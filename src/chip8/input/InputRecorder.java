@@ -0,0 +1,123 @@
+package chip8.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import chip8.Chip8Core;
+import chip8.Chip8Quirks;
+
+public class InputRecorder implements Closeable
+{
+	/*
+	Writes a session's keypad activity to a file, so InputReplay can play it back into a fresh machine cycle for cycle.
+
+	Only edges are logged (a key going down or up), each stamped with the machine's cycle count at the moment it was seen.
+	Together with the seed, clock rate and quirks profile in the header, that's everything a machine needs to redo the session exactly.
+
+	File layout (big endian)
+	------------------------
+	# int	magic "C8IN"
+	# short	version
+	# long	seed the machine was given with setSeed()
+	# int	clock rate
+	# byte	quirks profile, as its Chip8Quirks ordinal (version 2 on; version 1 logs were all ORIGINAL)
+	# then EVENT_SIZE bytes per edge, in cycle order :
+	#	long	cycle count before which the edge applies
+	#	byte	key in the low 4 bits, PRESSED set if the key went down
+
+	Events collect in a buffer that's written out whenever it fills up, and on close().
+	*/
+
+	static final int MAGIC			= 0x4338494E;	// "C8IN"
+	static final int VERSION		= 2;
+	static final int HEADER_SIZE	= 4 + 2 + 8 + 4 + 1;
+	static final int EVENT_SIZE		= 8 + 1;
+	static final int PRESSED		= 0x80;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	/*
+	 * Keypad as of the last capture(), to find the edges.
+	 */
+	private final byte[] held = new byte[16];
+	private long lastCycle;
+	private long events;
+	private boolean closed;
+
+	public InputRecorder(Path file, long seed, int clockRate, Chip8Quirks quirks) throws IOException
+	{
+		this(file, seed, clockRate, quirks, 8192);
+	}
+
+	public InputRecorder(Path file, long seed, int clockRate, Chip8Quirks quirks, int bufferBytes) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocate(Math.max(bufferBytes, HEADER_SIZE + EVENT_SIZE));
+		buffer.putInt(MAGIC);
+		buffer.putShort((short) VERSION);
+		buffer.putLong(seed);
+		buffer.putInt(clockRate);
+		buffer.put((byte) quirks.ordinal());
+	}
+
+	public long getEventCount()	{	return events;	}
+//############################################################################################################################################################
+	/*
+	 * Logs every key whose state changed since the last call, at the machine's current cycle count.
+	 * Call it after each input poll, before the machine runs again.
+	 */
+	public void capture(Chip8Core chip8core) throws IOException
+	{
+		for(int key = 0; key < 16; key++)
+		{
+			byte now = (byte) (chip8core.keypad[key] != 0 ? 1 : 0);
+			if(now != held[key])
+			{
+				record(chip8core.getCycleCount(), key, now != 0);
+				held[key] = now;
+			}
+		}
+	}
+
+	/*
+	 * Logs one edge. Cycles must not go backwards.
+	 */
+	public void record(long cycle, int key, boolean pressed) throws IOException
+	{
+		if(closed)	{	throw new IllegalStateException("Input log already closed");	}
+		if(cycle < lastCycle)	{	throw new IllegalArgumentException("Input event at cycle " + cycle + " after one at " + lastCycle);	}
+		if(buffer.remaining() < EVENT_SIZE)	{	flush();	}
+		buffer.putLong(cycle);
+		buffer.put((byte) ((key & 0xF) | (pressed ? PRESSED : 0)));
+		lastCycle = cycle;
+		events++;
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())	{	channel.write(buffer);	}
+		buffer.clear();
+	}
+//############################################################################################################################################################
+	/*
+	 * Writes the remaining events and closes the file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)	{	return;	}
+		closed = true;
+		try
+		{
+			flush();
+		}finally
+		{
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package chip8.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import chip8.Chip8Core;
+import chip8.Chip8Quirks;
+
+public class InputReplay implements Closeable
+{
+	/*
+	Plays back a log written by InputRecorder : each edge is applied to the keypad right before the cycle it was recorded at.
+
+	runFor() splits the budget at event cycles, so events land on exactly the same instruction whatever the engine
+	and however the caller batches its cycles. The log is streamed through a small buffer, so sessions of any length replay in constant memory.
+	Start from a machine that has the log's seed and clock rate (see prepare()) and has executed nothing yet.
+	The quirks profile can't be changed on an existing machine, so create it with getQuirks() and prepare() checks it matches.
+	*/
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long seed;
+	private final int clockRate;
+	private final Chip8Quirks quirks;
+
+	private long nextCycle;
+	private int nextEvent;
+	private boolean finished;
+	private long applied;
+
+	public InputReplay(Path file) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		buffer = ByteBuffer.allocate(8192);
+		buffer.flip();
+		try
+		{
+			if(!fill(InputRecorder.HEADER_SIZE - 1) || buffer.getInt() != InputRecorder.MAGIC)
+			{
+				throw new IllegalArgumentException("Not a CHIP8 input log : " + file);
+			}
+			int version = buffer.getShort();
+			if(version < 1 || version > InputRecorder.VERSION)	{	throw new IllegalArgumentException("Unsupported input log version " + version);	}
+			seed = buffer.getLong();
+			clockRate = buffer.getInt();
+			if(version == 1)
+			{
+				quirks = Chip8Quirks.ORIGINAL;
+			}
+			else
+			{
+				int profile = fill(1) ? buffer.get() & 0xff : -1;
+				if(profile < 0 || profile >= Chip8Quirks.values().length)	{	throw new IllegalArgumentException("Unknown quirks profile " + profile + " in input log");	}
+				quirks = Chip8Quirks.values()[profile];
+			}
+			advance();
+		}catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	public long getSeed()			{	return seed;	}
+	public int getClockRate()		{	return clockRate;	}
+	public Chip8Quirks getQuirks()	{	return quirks;	}
+	public long getAppliedCount()	{	return applied;	}
+	public boolean isFinished()		{	return finished;	}
+	/*
+	 * Cycle count at which the next event applies, Long.MAX_VALUE once all were applied.
+	 */
+	public long nextEventCycle()	{	return finished ? Long.MAX_VALUE : nextCycle;	}
+
+	/*
+	 * Gives the machine the log's seed and clock rate and releases every key.
+	 * Throws IllegalArgumentException if the machine wasn't created with the log's quirks profile.
+	 */
+	public void prepare(Chip8Core chip8core)
+	{
+		if(chip8core.getQuirks() != quirks)
+		{
+			throw new IllegalArgumentException("Input log was recorded with quirks " + quirks + ", machine has " + chip8core.getQuirks());
+		}
+		chip8core.setSeed(seed);
+		chip8core.setClockRate(clockRate);
+		for(int key = 0; key < 16; key++)	{	chip8core.keypad[key] = 0;	}
+	}
+//############################################################################################################################################################
+	/*
+	 * Applies every event due at or before the machine's current cycle count.
+	 */
+	public void applyDue(Chip8Core chip8core) throws IOException
+	{
+		long cycle = chip8core.getCycleCount();
+		while(!finished && nextCycle <= cycle)
+		{
+			chip8core.keypad[nextEvent & 0xF] = (byte) ((nextEvent & InputRecorder.PRESSED) != 0 ? 1 : 0);
+			applied++;
+			advance();
+		}
+	}
+
+	/*
+	 * Runs the machine for up to cycles cycles, applying events on the way. Same contract as Chip8Core.runFor() :
+	 * returns the number of cycles executed, fewer only if the program halted.
+	 */
+	public int runFor(Chip8Core chip8core, int cycles) throws IOException
+	{
+		int done = 0;
+		while(done < cycles)
+		{
+			applyDue(chip8core);
+			long untilEvent = nextEventCycle() - chip8core.getCycleCount();
+			int batch = (int) Math.min(cycles - done, untilEvent);
+			int executed = chip8core.runFor(batch);
+			done += executed;
+			if(executed < batch)	{	break;	}
+		}
+		return done;
+	}
+//############################################################################################################################################################
+	/*
+	 * Reads the next event, or marks the log finished. A partial event at the end (a recording cut short) is ignored.
+	 */
+	private void advance() throws IOException
+	{
+		if(!fill(InputRecorder.EVENT_SIZE))
+		{
+			finished = true;
+			return;
+		}
+		long cycle = buffer.getLong();
+		if(cycle < nextCycle)	{	throw new IllegalArgumentException("Input log goes back in time at cycle " + cycle);	}
+		nextCycle = cycle;
+		nextEvent = buffer.get() & 0xff;
+	}
+
+	/*
+	 * Makes sure at least count bytes are buffered. Returns false at the end of the file.
+	 */
+	private boolean fill(int count) throws IOException
+	{
+		if(buffer.remaining() >= count)	{	return true;	}
+		buffer.compact();
+		while(buffer.position() < count && channel.read(buffer) >= 0)	{	}
+		buffer.flip();
+		return buffer.remaining() >= count;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
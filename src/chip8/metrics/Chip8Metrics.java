@@ -0,0 +1,143 @@
+package chip8.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import chip8.Chip8Core;
+
+public class Chip8Metrics implements Chip8MetricsMXBean
+{
+	/*
+	Runtime figures for one machine, readable over JMX (register()) or as a log line (summary()).
+
+	Nothing here runs per instruction except the OpcodeCounter tracer. The core keeps its own plain counters
+	(cycles, draws, sprite rows, timer expiries), written only by the thread running it; that thread calls sample() once per frame,
+	which copies them into volatile fields and works out the per-second rates. JMX and logging threads only ever read those,
+	so neither side locks or waits. The render thread reports its frame timings through renderTimings() the same way.
+	*/
+
+	private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+	private final OpcodeCounter opcodes = new OpcodeCounter();
+
+	// thread running the core only
+	private long lastCycleCount;
+	private long windowStart;
+	private long windowCycles;
+	private long windowDraws;
+
+	private volatile long cyclesExecuted;
+	private volatile long draws;
+	private volatile long spriteRows;
+	private volatile long timerExpiries;
+	private volatile double instructionsPerSecond;
+	private volatile double drawsPerSecond;
+
+	private volatile double framesPerSecond;
+	private volatile double averageFrameMillis;
+	private volatile double maxFrameMillis;
+	private volatile double averageRenderMillis;
+
+	/*
+	 * Installs the opcode counter as the core's tracer. Call before the core starts running on its own thread.
+	 */
+	public void attach(Chip8Core chip8core)
+	{
+		chip8core.setTracer(opcodes);
+		lastCycleCount = chip8core.getCycleCount();
+	}
+
+	/*
+	 * Registers this object with the platform MBean server as chip8:type=Emulator.
+	 */
+	public void register() throws JMException
+	{
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("chip8:type=Emulator"));
+	}
+//############################################################################################################################################################
+	/*
+	 * Thread running the core : picks up its counters. Call once per frame.
+	 */
+	public void sample(Chip8Core chip8core, long now)
+	{
+		//rewinding moves the cycle count backwards; only forward progress counts as executed
+		long cycleCount = chip8core.getCycleCount();
+		if(cycleCount > lastCycleCount)	{	cyclesExecuted += cycleCount - lastCycleCount;	}
+		lastCycleCount = cycleCount;
+		draws			= chip8core.getDrawCount();
+		spriteRows		= chip8core.getSpriteRowCount();
+		timerExpiries	= chip8core.getTimerExpiries();
+
+		if(windowStart == 0)
+		{
+			windowStart		= now;
+			windowCycles	= cyclesExecuted;
+			windowDraws		= draws;
+		}
+		else if(now - windowStart >= RATE_WINDOW_NANOS)
+		{
+			double seconds = (now - windowStart) / 1e9;
+			instructionsPerSecond	= (cyclesExecuted - windowCycles) / seconds;
+			drawsPerSecond			= (draws - windowDraws) / seconds;
+			windowStart		= now;
+			windowCycles	= cyclesExecuted;
+			windowDraws		= draws;
+		}
+	}
+
+	/*
+	 * Render thread : frame timings over its last reporting interval (see FrameTimeCounter).
+	 */
+	public void renderTimings(double framesPerSecond, double averageFrameMillis, double maxFrameMillis, double averageRenderMillis)
+	{
+		this.framesPerSecond		= framesPerSecond;
+		this.averageFrameMillis		= averageFrameMillis;
+		this.maxFrameMillis			= maxFrameMillis;
+		this.averageRenderMillis	= averageRenderMillis;
+	}
+//############################################################################################################################################################
+	@Override	public long getCyclesExecuted()				{	return cyclesExecuted;	}
+	@Override	public double getInstructionsPerSecond()	{	return instructionsPerSecond;	}
+	@Override	public long getDraws()						{	return draws;	}
+	@Override	public double getDrawsPerSecond()			{	return drawsPerSecond;	}
+	@Override	public long getTimerExpiries()				{	return timerExpiries;	}
+	@Override	public double getFramesPerSecond()			{	return framesPerSecond;	}
+	@Override	public double getAverageFrameMillis()		{	return averageFrameMillis;	}
+	@Override	public double getMaxFrameMillis()			{	return maxFrameMillis;	}
+	@Override	public double getAverageRenderMillis()		{	return averageRenderMillis;	}
+
+	@Override
+	public double getAverageSpriteHeight()
+	{
+		long drawn = draws;
+		return (drawn == 0) ? 0 : (double) spriteRows / drawn;
+	}
+
+	@Override
+	public Map<String, Long> getOpcodeGroupCounts()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(int group = 0; group < 16; group++)
+		{
+			result.put(Integer.toHexString(group).toUpperCase(), opcodes.groupCount(group));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getOpcodeCounts()	{	return opcodes.counts();	}
+//############################################################################################################################################################
+	/*
+	 * One line with the headline figures, for periodic logging.
+	 */
+	public String summary()
+	{
+		return String.format("%d cycles, %.0f instr/s, %.1f draws/s, sprite height %.2f avg, %d timer expiries, render %.0f fps, frame %.2f ms avg / %.2f ms max, render %.3f ms avg",
+				cyclesExecuted, instructionsPerSecond, drawsPerSecond, getAverageSpriteHeight(), timerExpiries,
+				framesPerSecond, averageFrameMillis, maxFrameMillis, averageRenderMillis);
+	}
+}
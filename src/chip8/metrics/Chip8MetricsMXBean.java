@@ -0,0 +1,29 @@
+package chip8.metrics;
+
+import java.util.Map;
+
+public interface Chip8MetricsMXBean
+{
+	/*
+	 * Management interface of Chip8Metrics, registered as chip8:type=Emulator. Rates are over the last full second.
+	 */
+	long getCyclesExecuted();
+	double getInstructionsPerSecond();
+	long getDraws();
+	double getDrawsPerSecond();
+	double getAverageSpriteHeight();
+	long getTimerExpiries();
+	/*
+	 * Instructions per first nibble, "0" to "F".
+	 */
+	Map<String, Long> getOpcodeGroupCounts();
+	/*
+	 * Instructions per kind, see OpcodeCounter.
+	 */
+	Map<String, Long> getOpcodeCounts();
+
+	double getFramesPerSecond();
+	double getAverageFrameMillis();
+	double getMaxFrameMillis();
+	double getAverageRenderMillis();
+}
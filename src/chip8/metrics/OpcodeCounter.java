@@ -0,0 +1,106 @@
+package chip8.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import chip8.Chip8Core;
+import chip8.Chip8Tracer;
+
+public class OpcodeCounter implements Chip8Tracer
+{
+	/*
+	Counts executed instructions per kind : the first nibble, plus the sub-op for the 0, 8, E and F groups (so 8XY4 and 8XY5
+	are told apart, but all 6XKK are one kind). The kind is a table lookup and a mask, with no branches, and counts
+	go into a plain array owned by the thread running the core.
+
+	Being a tracer, it makes the JIT engine fall back to interpreting (see JitChip8Core). Other threads reading counts()
+	while the core runs may see them a few instructions behind.
+	*/
+
+	/*
+	 * Bits of the opcode that pick the sub-op, per first nibble.
+	 */
+	private static final int[] SUB_OP_MASK =
+		{
+			0xff, 0, 0, 0, 0, 0, 0, 0, 0xf, 0, 0, 0, 0, 0, 0xff, 0xff
+		};
+	private static final String[] PATTERNS =
+		{
+			null, "1NNN", "2NNN", "3XKK", "4XKK", "5XY0", "6XKK", "7XKK", null, "9XY0", "ANNN", "BNNN", "CXKK", "DXYN", null, null
+		};
+
+	/*
+	 * Number of distinct kind indices (see kindIndex()).
+	 */
+	public static final int KINDS = 16 << 8;
+
+	/*
+	 * Indexed by kindIndex().
+	 */
+	private final long[] counts = new long[KINDS];
+
+	@Override
+	public void trace(Chip8Core chip8core, int pc, int opcode)
+	{
+		counts[kindIndex(opcode)]++;
+	}
+
+	/*
+	 * First nibble << 8 | sub-op : the same index for every opcode of one kind.
+	 */
+	public static int kindIndex(int opcode)
+	{
+		int group = opcode >>> 12;
+		return (group << 8) | (opcode & SUB_OP_MASK[group]);
+	}
+
+	/*
+	 * Name of a kind index, e.g. "8XY4" or "00E0".
+	 */
+	public static String kindName(int index)
+	{
+		return kind(index >>> 8, index & 0xff);
+	}
+
+	public void reset()
+	{
+		Arrays.fill(counts, 0L);
+	}
+
+	/*
+	 * Number of instructions in the given group (first nibble 0x0 - 0xF), sub-ops included.
+	 */
+	public long groupCount(int group)
+	{
+		long total = 0;
+		for(int index = group << 8; index < (group + 1) << 8; index++)	{	total += counts[index];	}
+		return total;
+	}
+
+	/*
+	 * Every kind executed at least once, e.g. "8XY4" or "00E0", in opcode order. Allocates; not for the hot path.
+	 */
+	public Map<String, Long> counts()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(int index = 0; index < counts.length; index++)
+		{
+			long count = counts[index];
+			if(count != 0)	{	result.put(kind(index >>> 8, index & 0xff), count);	}
+		}
+		return result;
+	}
+
+	private static String kind(int group, int subOp)
+	{
+		switch(group)
+		{
+			case 0x0:	return String.format("00%02X", subOp);
+			case 0x8:	return String.format("8XY%X", subOp);
+			case 0xE:	return String.format("EX%02X", subOp);
+			case 0xF:	return String.format("FX%02X", subOp);
+			default:	return PATTERNS[group];
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package chip8.rom;
+
+import chip8.Chip8Core;
+
+public final class RomImage
+{
+	/*
+	 * A validated ROM, ready to be copied into any number of machines. Immutable and shared : RomLibrary hands out
+	 * the same image for every file with the same content.
+	 */
+	private final String name;
+	private final String hash;
+	private final byte[] program;
+
+	RomImage(String name, String hash, byte[] program)
+	{
+		this.name		= name;
+		this.hash		= hash;
+		this.program	= program;
+	}
+
+	/*
+	 * Name of the first file this content was loaded from, relative to the library root.
+	 */
+	public String getName()	{	return name;	}
+	/*
+	 * SHA-256 of the content, in hex.
+	 */
+	public String getHash()	{	return hash;	}
+	public int size()		{	return program.length;	}
+
+	/*
+	 * The program bytes. Shared between all users of the image : don't modify them.
+	 */
+	public byte[] bytes()	{	return program;	}
+
+	/*
+	 * Copies the program into the machine at 0x200 in one bulk copy.
+	 */
+	public void loadInto(Chip8Core chip8core)
+	{
+		chip8core.loadProgram(program);
+	}
+}
@@ -0,0 +1,230 @@
+package chip8.rom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import chip8.Chip8Core;
+
+public class RomLibrary implements Closeable
+{
+	/*
+	Index of the .ch8 files in a directory (searched recursively), a .zip archive, or a single file, for loading whole corpora at once.
+
+	Opening a library only lists the files. load() reads one : plain files are memory mapped (FileChannel.map) and hashed
+	straight from the mapping, archive entries are read from the zip. Images are cached JVM-wide by SHA-256 of their content,
+	so a thousand copies of the same ROM, under any names and in any library, end up as one RomImage and one byte array;
+	only content not seen before is copied out of the mapping. Every image is validated on the way in : it must be non-empty
+	and fit between 0x200 and 0xFFF.
+
+	loadAll() loads every entry in parallel and collects what went wrong per file (getErrors()) instead of stopping at the first bad one.
+	*/
+
+	private static final String EXTENSION = ".ch8";
+	private static final ConcurrentHashMap<String, RomImage> BY_CONTENT = new ConcurrentHashMap<String, RomImage>();
+
+	private final Path root;
+	private final ZipFile archive;	// null unless the library is a .zip
+	/*
+	 * Name (relative to the root, '/' separated) to file, sorted by name. Values are null for archive entries.
+	 */
+	private final Map<String, Path> files;
+	private final ConcurrentHashMap<String, RomImage> loaded = new ConcurrentHashMap<String, RomImage>();
+	private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+
+	private RomLibrary(Path root, ZipFile archive, Map<String, Path> files)
+	{
+		this.root		= root;
+		this.archive	= archive;
+		this.files		= files;
+	}
+
+	/*
+	 * Indexes a directory, a .zip archive or a single .ch8 file.
+	 */
+	public static RomLibrary open(Path root) throws IOException
+	{
+		Map<String, Path> files = new TreeMap<String, Path>();
+		if(Files.isDirectory(root))
+		{
+			try(Stream<Path> walk = Files.walk(root))
+			{
+				for(Path file : walk.filter(RomLibrary::isRom).collect(Collectors.toList()))
+				{
+					files.put(root.relativize(file).toString().replace('\\', '/'), file);
+				}
+			}
+			return new RomLibrary(root, null, files);
+		}
+		if(root.getFileName().toString().toLowerCase().endsWith(".zip"))
+		{
+			ZipFile archive = new ZipFile(root.toFile());
+			Enumeration<? extends ZipEntry> entries = archive.entries();
+			while(entries.hasMoreElements())
+			{
+				ZipEntry entry = entries.nextElement();
+				if(!entry.isDirectory() && entry.getName().toLowerCase().endsWith(EXTENSION))	{	files.put(entry.getName(), null);	}
+			}
+			return new RomLibrary(root, archive, files);
+		}
+		if(!Files.isRegularFile(root))	{	throw new IOException("No such file or directory : " + root);	}
+		files.put(root.getFileName().toString(), root);
+		return new RomLibrary(root, null, files);
+	}
+
+	private static boolean isRom(Path file)
+	{
+		return Files.isRegularFile(file) && file.getFileName().toString().toLowerCase().endsWith(EXTENSION);
+	}
+
+	public Path getRoot()		{	return root;	}
+	public int size()			{	return files.size();	}
+	/*
+	 * Entry names, sorted.
+	 */
+	public List<String> names()	{	return new ArrayList<String>(files.keySet());	}
+	/*
+	 * One "name : problem" line per entry loadAll() couldn't load.
+	 */
+	public List<String> getErrors()	{	return new ArrayList<String>(errors);	}
+//############################################################################################################################################################
+	/*
+	 * The image of one entry, read on first use. Throws IllegalArgumentException for unknown names and invalid images.
+	 */
+	public RomImage load(String name) throws IOException
+	{
+		RomImage image = loaded.get(name);
+		if(image != null)	{	return image;	}
+		if(!files.containsKey(name))	{	throw new IllegalArgumentException("No ROM named " + name + " in " + root);	}
+
+		image = (archive != null) ? readEntry(name) : mapFile(name, files.get(name));
+		loaded.put(name, image);
+		return image;
+	}
+
+	/*
+	 * Loads every entry, in parallel, skipping the ones that fail (see getErrors()). Returns the images in name order;
+	 * files with identical content share one image.
+	 */
+	public List<RomImage> loadAll()
+	{
+		errors.clear();
+		List<String> names = names();
+		RomImage[] images = new RomImage[names.size()];
+		IntStream.range(0, images.length).parallel().forEach(i ->
+		{
+			try
+			{
+				images[i] = load(names.get(i));
+			}catch (IOException | IllegalArgumentException e)
+			{
+				errors.add(names.get(i) + " : " + e.getMessage());
+			}
+		});
+		List<RomImage> result = new ArrayList<RomImage>(images.length);
+		for(RomImage image : images)
+		{
+			if(image != null)	{	result.add(image);	}
+		}
+		return result;
+	}
+//############################################################################################################################################################
+	private static RomImage mapFile(String name, Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			validateSize(channel.size());
+			return intern(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	private RomImage readEntry(String name) throws IOException
+	{
+		ZipEntry entry = archive.getEntry(name);
+		if(entry.getSize() >= 0)	{	validateSize(entry.getSize());	}
+		//the size in the archive directory may be missing, so read one byte more than fits to catch oversized entries
+		byte[] buffer = new byte[Chip8Core.MAX_PROGRAM_SIZE + 1];
+		int length = 0;
+		try(InputStream in = archive.getInputStream(entry))
+		{
+			int read;
+			while(length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0)	{	length += read;	}
+		}
+		validateSize(length);
+		return intern(name, ByteBuffer.wrap(buffer, 0, length));
+	}
+
+	private static void validateSize(long size)
+	{
+		if(size == 0)	{	throw new IllegalArgumentException("Empty ROM");	}
+		if(size > Chip8Core.MAX_PROGRAM_SIZE)
+		{
+			throw new IllegalArgumentException("ROM too large : " + size + " bytes, at most " + Chip8Core.MAX_PROGRAM_SIZE + " fit between 0x200 and 0xFFF");
+		}
+	}
+
+	/*
+	 * The cached image with this content, or a new one copied out of content if there is none yet.
+	 */
+	private static RomImage intern(String name, ByteBuffer content)
+	{
+		String hash = sha256(content.duplicate());
+		RomImage image = BY_CONTENT.get(hash);
+		if(image != null)	{	return image;	}
+
+		byte[] program = new byte[content.remaining()];
+		content.duplicate().get(program);
+		image = new RomImage(name, hash, program);
+		RomImage raced = BY_CONTENT.putIfAbsent(hash, image);
+		return (raced != null) ? raced : image;
+	}
+
+	private static String sha256(ByteBuffer content)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(content);
+			StringBuilder hex = new StringBuilder(64);
+			for(byte b : digest.digest())	{	hex.append(String.format("%02x", b & 0xff));	}
+			return hex.toString();
+		}catch (NoSuchAlgorithmException e)
+		{
+			//every Java platform is required to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Number of distinct ROM contents loaded so far in this JVM.
+	 */
+	public static int cachedImages()
+	{
+		return BY_CONTENT.size();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(archive != null)	{	archive.close();	}
+	}
+}
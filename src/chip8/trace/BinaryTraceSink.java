@@ -0,0 +1,160 @@
+package chip8.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import chip8.Chip8Core;
+import chip8.Chip8Tracer;
+
+public class BinaryTraceSink implements Chip8Tracer, Closeable
+{
+	/*
+	Writes one fixed-width record per executed instruction to a file, without allocating on the emulation thread.
+
+	Record layout (big endian, RECORD_SIZE bytes)
+	---------------------------------------------
+	# pc		2 bytes
+	# opcode	2 bytes
+	# I			2 bytes
+	# V0 - VF	16 bytes
+
+	Records go into a ring of preallocated buffers. When the current buffer is full it's handed to a writer thread,
+	which drains it to the file and returns it to the ring. If the writer falls behind, the emulation thread blocks until a buffer frees up,
+	so no records are ever dropped.
+	*/
+
+	public static final int RECORD_SIZE = 22;
+
+	private final FileChannel channel;
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+	private final ArrayBlockingQueue<ByteBuffer> fullBuffers;
+	private final Thread writer;
+	/*
+	 * Queued after the last buffer to tell the writer thread to stop.
+	 */
+	private final ByteBuffer endOfTrace = ByteBuffer.allocate(0);
+
+	private ByteBuffer current;
+	private volatile IOException failure;
+	private boolean closed;
+
+	public BinaryTraceSink(Path file) throws IOException
+	{
+		this(file, 4, 16384);
+	}
+
+	public BinaryTraceSink(Path file, int bufferCount, int recordsPerBuffer) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		freeBuffers = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+		fullBuffers = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+		for(int i = 0; i < bufferCount; i++)
+		{
+			freeBuffers.add(ByteBuffer.allocateDirect(RECORD_SIZE * recordsPerBuffer));
+		}
+		current = freeBuffers.poll();
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()	{	drain();	}
+		}, "chip8-trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+//############################################################################################################################################################
+	@Override
+	public void trace(Chip8Core chip8core, int pc, int opcode)
+	{
+		if(current.remaining() < RECORD_SIZE)
+		{
+			handOff(current);
+			current = takeFree();
+		}
+		current.putShort((short) pc);
+		current.putShort((short) opcode);
+		current.putShort((short) chip8core.getI());
+		for(int i = 0; i < 16; i++)
+		{
+			current.put((byte) chip8core.getV(i));
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Writer thread loop : write each full buffer to the file, then recycle it.
+	 */
+	private void drain()
+	{
+		try
+		{
+			while(true)
+			{
+				ByteBuffer buffer = fullBuffers.take();
+				if(buffer == endOfTrace)	{	return;	}
+				buffer.flip();
+				try
+				{
+					while(buffer.hasRemaining())	{	channel.write(buffer);	}
+				}catch (IOException e)
+				{
+					failure = e;
+				}
+				buffer.clear();
+				freeBuffers.put(buffer);
+			}
+		}catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void handOff(ByteBuffer buffer)
+	{
+		try
+		{
+			fullBuffers.put(buffer);
+		}catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private ByteBuffer takeFree()
+	{
+		try
+		{
+			return freeBuffers.take();
+		}catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a trace buffer", e);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Flushes the partially filled buffer, waits for the writer to finish, and closes the file.
+	 * Throws the first write error the writer thread ran into, if any.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)	{	return;	}
+		closed = true;
+		handOff(current);
+		handOff(endOfTrace);
+		try
+		{
+			writer.join();
+		}catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if(failure != null)	{	throw failure;	}
+	}
+}
@@ -0,0 +1,25 @@
+package chip8.trace;
+
+import java.io.PrintStream;
+
+import chip8.Chip8Core;
+import chip8.Chip8Tracer;
+import chip8.Disassembler;
+
+public class ConsoleTracer implements Chip8Tracer
+{
+	/*
+	 * Prints every executed instruction as "PC : OPCODE : MNEMONIC", the way cycle() used to do unconditionally.
+	 * Slow (string building and a synchronized stream per instruction); use it for debugging only.
+	 */
+	private final PrintStream out;
+
+	public ConsoleTracer()					{	this(System.out);	}
+	public ConsoleTracer(PrintStream out)	{	this.out = out;	}
+
+	@Override
+	public void trace(Chip8Core chip8core, int pc, int opcode)
+	{
+		out.printf("%03X : %04X : %s%n", pc, opcode, Disassembler.disassemble(opcode));
+	}
+}
@@ -0,0 +1,68 @@
+package chip8.trace;
+
+import java.util.Arrays;
+
+import chip8.Chip8Core;
+import chip8.Chip8Tracer;
+import chip8.metrics.OpcodeCounter;
+
+public class CoverageTracer implements Chip8Tracer
+{
+	/*
+	Records which parts of the machine a run exercised, as one bit map for a fuzzer to merge and compare :
+		addresses	: every address an instruction was executed from (4096 bits)
+		kinds		: every kind of instruction executed, as OpcodeCounter tells them apart (4096 bits)
+		edges		: every (previous address, address) pair, hashed down to EDGE_BITS bits the way AFL does,
+					  so loops, taken and untaken branches and return sites count separately
+	trace() sets three bits and allocates nothing; reset() clears the map in place, so one tracer serves any number of runs.
+	Like any tracer it makes the JIT engine interpret.
+	*/
+
+	public static final int ADDRESS_WORDS	= 4096 / 64;
+	public static final int KIND_WORDS		= OpcodeCounter.KINDS / 64;
+	public static final int EDGE_BITS		= 16;
+	public static final int EDGE_WORDS		= (1 << EDGE_BITS) / 64;
+	/*
+	 * Offsets of each part in map().
+	 */
+	public static final int ADDRESSES	= 0;
+	public static final int KINDS		= ADDRESSES + ADDRESS_WORDS;
+	public static final int EDGES		= KINDS + KIND_WORDS;
+	public static final int WORDS		= EDGES + EDGE_WORDS;
+
+	private final long[] map = new long[WORDS];
+	private int previous;
+
+	@Override
+	public void trace(Chip8Core chip8core, int pc, int opcode)
+	{
+		map[ADDRESSES + (pc >>> 6)] |= 1L << pc;
+		int kind = OpcodeCounter.kindIndex(opcode);
+		map[KINDS + (kind >>> 6)] |= 1L << kind;
+		int edge = ((previous * 0x9e37) ^ pc) & ((1 << EDGE_BITS) - 1);
+		map[EDGES + (edge >>> 6)] |= 1L << edge;
+		//shifted so that A -> B and B -> A land on different bits
+		previous = pc >>> 1 | (pc & 1) << 11;
+	}
+
+	public void reset()
+	{
+		Arrays.fill(map, 0L);
+		previous = 0;
+	}
+
+	/*
+	 * Live view of the bits (see WORDS and the part offsets). Callers must not modify it.
+	 */
+	public long[] map()	{	return map;	}
+
+	/*
+	 * Number of bits set in words [from, from + words) of a map, e.g. count(map, EDGES, EDGE_WORDS).
+	 */
+	public static int count(long[] map, int from, int words)
+	{
+		int total = 0;
+		for(int i = from; i < from + words; i++)	{	total += Long.bitCount(map[i]);	}
+		return total;
+	}
+}
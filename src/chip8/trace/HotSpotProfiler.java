@@ -0,0 +1,194 @@
+package chip8.trace;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import chip8.Chip8Core;
+import chip8.Chip8Tracer;
+import chip8.Disassembler;
+
+public class HotSpotProfiler implements Chip8Tracer
+{
+	/*
+	Counts where a CHIP8 program spends its instructions, by address, and builds its call graph.
+
+	Every instruction adds one to executions[pc], and one to selfCounts[] of the subroutine it runs in. Subroutines are tracked
+	with a shadow of the CHIP8 stack : 2NNN pushes its target (and counts the call against the call site), 00EE pops it.
+	Everything lives in fixed 4096 entry primitive arrays, so trace() neither allocates nor boxes; the cost is a few array increments
+	and one test of the opcode. Like any tracer it costs nothing once removed (Chip8Tracer.NONE is inlined away),
+	and it makes the JIT engine interpret.
+
+	The report (print()) lists the hottest addresses with their disassembly, the hot loops (backward 1NNN jumps, with the
+	loop body disassembled), and per subroutine its call count, its own instructions and the call sites it was reached from.
+	Counts are instructions, not host time : every CHIP8 instruction takes one emulated cycle.
+	*/
+
+	private static final int ROOT = 0x200;
+
+	private final long[] executions	= new long[4096];
+	/*
+	 * Instructions executed while the subroutine starting at the index was innermost. Index ROOT stands for the main program.
+	 */
+	private final long[] selfCounts	= new long[4096];
+	private final long[] calls		= new long[4096];	// by call target
+	private final long[] callSites	= new long[4096];	// by address of the 2NNN
+	/*
+	 * Subroutine each call site was last executed from, for the call graph.
+	 */
+	private final int[] callerOf	= new int[4096];
+	private final int[] shadowStack	= new int[16];
+	private int depth;
+	private int current = ROOT;
+	private long total;
+
+	@Override
+	public void trace(Chip8Core chip8core, int pc, int opcode)
+	{
+		executions[pc]++;
+		selfCounts[current]++;
+		total++;
+		switch(opcode & 0xf000)
+		{
+			case 0x2000:
+				int target = opcode & 0xfff;
+				calls[target]++;
+				callSites[pc]++;
+				callerOf[pc] = current;
+				//past 16 levels the real stack overflows anyway; keep attributing to the innermost level we can hold
+				if(depth < shadowStack.length)	{	shadowStack[depth++] = current;	}
+				current = target;
+				break;
+			case 0x0000:
+				if(opcode == 0x00ee && depth > 0)	{	current = shadowStack[--depth];	}
+				break;
+		}
+	}
+
+	/*
+	 * Forgets everything counted so far, e.g. after a warm-up or when switching ROMs.
+	 */
+	public void reset()
+	{
+		Arrays.fill(executions, 0L);
+		Arrays.fill(selfCounts, 0L);
+		Arrays.fill(calls, 0L);
+		Arrays.fill(callSites, 0L);
+		depth	= 0;
+		current	= ROOT;
+		total	= 0;
+	}
+
+	public long getExecutions(int address)	{	return executions[address];	}
+	public long getCalls(int target)		{	return calls[target];	}
+	public long getTotal()					{	return total;	}
+//############################################################################################################################################################
+	/*
+	 * Writes the report for the machine the profile was taken on (its memory is read for the disassembly).
+	 * Lists at most top entries per section.
+	 */
+	public void print(Chip8Core chip8core, PrintStream out, int top)
+	{
+		out.printf("# %d instructions profiled%n%n", total);
+		if(total == 0)	{	return;	}
+
+		out.println("# Hot addresses");
+		for(int address : hottest(executions, top))
+		{
+			out.printf("%03X  %10d  %5.1f%%  %s%n", address, executions[address], percent(executions[address]), disassembleAt(chip8core, address));
+		}
+
+		out.println();
+		out.println("# Hot loops (backward jumps)");
+		long[] loopCounts = new long[4096];
+		for(int address = 0; address < 4095; address++)
+		{
+			int target = loopTarget(chip8core, address);
+			if(target < 0)	{	continue;	}
+			for(int inside = target; inside <= address; inside++)	{	loopCounts[address] += executions[inside];	}
+		}
+		for(int end : hottest(loopCounts, top))
+		{
+			int start = loopTarget(chip8core, end);
+			out.printf("%03X - %03X  %10d instructions  %5.1f%%  %d iterations%n", start, end, loopCounts[end],
+					percent(loopCounts[end]), executions[end]);
+			for(int address = start; address <= end; address += 2)
+			{
+				out.printf("    %03X  %10d  %s%n", address, executions[address], disassembleAt(chip8core, address));
+			}
+		}
+
+		out.println();
+		out.println("# Subroutines (self = instructions executed in the subroutine itself, not its callees)");
+		long[] reached = Arrays.copyOf(selfCounts, selfCounts.length);
+		for(int target = 0; target < 4096; target++)
+		{
+			//a subroutine that only calls others has no instructions of its own, but still belongs in the graph
+			if(calls[target] != 0 && reached[target] == 0)	{	reached[target] = 1;	}
+		}
+		for(int function : hottest(reached, top))
+		{
+			String name = (function == ROOT) ? "main" : String.format("%03X", function);
+			out.printf("%-5s  self %10d  %5.1f%%  called %d times%n", name, selfCounts[function], percent(selfCounts[function]), calls[function]);
+			for(int site = 0; site < 4095; site++)
+			{
+				if(callSites[site] == 0 || chip8core.readMemory(site) >> 4 != 0x2)	{	continue;	}
+				int target = ((chip8core.readMemory(site) & 0xf) << 8) | chip8core.readMemory(site + 1);
+				if(target == function && function != ROOT)
+				{
+					out.printf("    <- %03X (in %s)  %d calls%n", site, (callerOf[site] == ROOT) ? "main" : String.format("%03X", callerOf[site]), callSites[site]);
+				}
+				else if(callerOf[site] == function)
+				{
+					out.printf("    -> %03X at %03X  %d calls%n", target, site, callSites[site]);
+				}
+			}
+		}
+	}
+
+	public void write(Chip8Core chip8core, Path file, int top) throws IOException
+	{
+		try(PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8"))
+		{
+			print(chip8core, out, top);
+		}
+	}
+//############################################################################################################################################################
+	/*
+	 * Target of the 1NNN at address if it jumps backwards (or to itself), else -1.
+	 */
+	private int loopTarget(Chip8Core chip8core, int address)
+	{
+		if(executions[address] == 0)	{	return -1;	}
+		int opcode = (chip8core.readMemory(address) << 8) | chip8core.readMemory(address + 1);
+		if((opcode & 0xf000) != 0x1000)	{	return -1;	}
+		int target = opcode & 0xfff;
+		return (target <= address) ? target : -1;
+	}
+
+	private double percent(long count)	{	return 100.0 * count / total;	}
+
+	private static String disassembleAt(Chip8Core chip8core, int address)
+	{
+		return Disassembler.disassemble((chip8core.readMemory(address) << 8) | chip8core.readMemory((address + 1) & 0xfff));
+	}
+
+	/*
+	 * Indices of the (at most) top largest non-zero counts, largest first.
+	 */
+	private static int[] hottest(long[] counts, int top)
+	{
+		Integer[] order = new Integer[counts.length];
+		int used = 0;
+		for(int index = 0; index < counts.length; index++)
+		{
+			if(counts[index] != 0)	{	order[used++] = index;	}
+		}
+		Arrays.sort(order, 0, used, (a, b) -> Long.compare(counts[b], counts[a]));
+		int[] result = new int[Math.min(top, used)];
+		for(int i = 0; i < result.length; i++)	{	result[i] = order[i];	}
+		return result;
+	}
+}
@@ -0,0 +1,217 @@
+package emu;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import chip8.Chip8Core;
+import chip8.RewindBuffer;
+import chip8.input.InputRecorder;
+import chip8.metrics.Chip8Metrics;
+
+public class EmulationThread extends Thread
+{
+	/*
+	Runs the core on its own thread, paced at 60 emulated frames per second by the clock rather than by the display,
+	so vsync, slow GPU frames and window dragging no longer slow the emulation down.
+
+	Each frame it reads the keypad from a SharedKeypad, runs clockRate / 60 cycles (or, with CLOCK_UNLIMITED, as many as fit
+	in the frame), records the frame for rewinding, samples the metrics, and publishes the screen into a FrameExchange if the core drew anything.
+	Everything touching the core happens on this thread; the render thread only sees published frames.
+
+	With inputSlices > 1 a frame's cycles are spread over that many evenly spaced slices, the keypad being read and the screen
+	published before and after each one. A key pressed mid-frame then reaches the program within a slice instead of
+	waiting for the next frame (provided the render thread polls the keyboard that often too, see Main).
+
+	With a frame skip limit set, a frame that finishes past its deadline makes the next one run without publishing anything,
+	up to that many frames in a row, so a slow machine spends its time emulating rather than presenting. The screen's dirty region
+	keeps accumulating in the core meanwhile, so the next published frame still carries everything that changed.
+	*/
+
+	private static final long FRAME_NANOS		= 1000000000L / 60;
+	/*
+	 * If emulation falls further behind than this (machine suspended, debugger...), skip ahead instead of running frames back to back to catch up.
+	 */
+	private static final long MAX_LAG_NANOS	= 250000000L;
+
+	private final Chip8Core chip8core;
+	private final SharedKeypad keypad;
+	private final FrameExchange frames;
+	private final InputRecorder recorder;
+	/*
+	 * The last five minutes, one entry per frame. Not kept while recording input, whose cycle numbers must only go forward.
+	 */
+	private final RewindBuffer history;
+	private final InputLatency latency;
+	private final Chip8Metrics metrics;
+	private final int inputSlices;
+	private int lastKeys;
+	private int maxFrameSkip;
+	private int skippedInARow;
+	private boolean skipping;
+
+	private volatile boolean running = true;
+	private volatile boolean rewinding;
+	private volatile long framesRun;
+	private volatile long framesSkipped;
+
+	/*
+	 * recorder may be null. The core must not be touched by any other thread once this one is started.
+	 */
+	public EmulationThread(Chip8Core chip8core, SharedKeypad keypad, FrameExchange frames, InputRecorder recorder,
+			InputLatency latency, Chip8Metrics metrics, int inputSlices)
+	{
+		super("chip8-emulation");
+		if(inputSlices < 1)	{	throw new IllegalArgumentException("Need at least one input slice per frame : " + inputSlices);	}
+		setDaemon(true);
+		this.chip8core = chip8core;
+		this.keypad = keypad;
+		this.frames = frames;
+		this.recorder = recorder;
+		this.history = (recorder == null) ? RewindBuffer.fiveMinutes() : null;
+		this.latency = latency;
+		this.metrics = metrics;
+		this.inputSlices = inputSlices;
+	}
+
+	/*
+	 * While set, each frame steps back one recorded frame instead of running.
+	 */
+	public void setRewinding(boolean rewinding)	{	this.rewinding = rewinding;	}
+	public long getFramesRun()					{	return framesRun;	}
+	/*
+	 * Frames whose screen was left unpublished because emulation was running late.
+	 */
+	public long getFramesSkipped()				{	return framesSkipped;	}
+	/*
+	 * Most frames in a row that may go unpublished when emulation runs late; 0 (the default) always publishes. Call before start().
+	 */
+	public void setMaxFrameSkip(int frames)		{	maxFrameSkip = frames;	}
+
+	/*
+	 * Stops after the current frame and waits for the thread to finish (which closes the input log). Safe to call more than once.
+	 */
+	public void shutdown()
+	{
+		running = false;
+		try
+		{
+			join();
+		}catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+//############################################################################################################################################################
+	@Override
+	public void run()
+	{
+		long frameStart = System.nanoTime();
+		//clock rate / (60 * slices) isn't always a whole number, so carry the remainder over to the next slice
+		int cycleRemainder = 0;
+		int slicesPerSecond = 60 * inputSlices;
+		try
+		{
+			while(running)
+			{
+				long deadline = frameStart + FRAME_NANOS;
+				if(rewinding && history != null && history.size() > 1)
+				{
+					history.rewind(1, chip8core);
+					chip8core.drawFlag = true;
+					publishIfDrawn();
+				}
+				else
+				{
+					for(int slice = 0; slice < inputSlices; slice++)
+					{
+						if(slice > 0)	{	waitUntil(frameStart + FRAME_NANOS * slice / inputSlices);	}
+						applyKeys();
+
+						//the core ticks its timers as emulated time passes
+						int clockRate = chip8core.getClockRate();
+						if(clockRate == Chip8Core.CLOCK_UNLIMITED)
+						{
+							chip8core.runUntil(frameStart + FRAME_NANOS * (slice + 1) / inputSlices);
+						}
+						else
+						{
+							cycleRemainder += clockRate;
+							chip8core.runFor(cycleRemainder / slicesPerSecond);
+							cycleRemainder %= slicesPerSecond;
+						}
+						latency.keysRead(chip8core.takeKeysRead(), System.nanoTime());
+						publishIfDrawn();
+					}
+					if(chip8core.getClockRate() == Chip8Core.CLOCK_UNLIMITED)	{	chip8core.tickTimers();	}
+					if(history != null)	{	history.record(chip8core);	}
+				}
+				framesRun++;
+
+				long now = System.nanoTime();
+				metrics.sample(chip8core, now);
+				if(skipping && chip8core.needsRefresh())
+				{
+					skippedInARow++;
+					framesSkipped++;
+				}
+				else	{	skippedInARow = 0;	}
+				skipping = (now - deadline > 0) && skippedInARow < maxFrameSkip;
+				if(now - deadline > MAX_LAG_NANOS)	{	deadline = now;	}
+				waitUntil(deadline);
+				frameStart = deadline;
+			}
+		}catch (IOException e)
+		{
+			System.err.println("Input log failed, emulation stopped : " + e);
+		}finally
+		{
+			if(recorder != null)
+			{
+				try
+				{
+					recorder.close();
+				}catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Hands the keypad the render thread last wrote to the core, logging and timing the keys that changed.
+	 */
+	private void applyKeys() throws IOException
+	{
+		int keys = keypad.mask();
+		if(keys != lastKeys)
+		{
+			latency.keysApplied(keys, keys & ~lastKeys, keypad, System.nanoTime());
+			lastKeys = keys;
+		}
+		chip8core.setKeys(keys);
+		if(recorder != null)	{	recorder.capture(chip8core);	}
+	}
+
+	private void publishIfDrawn()
+	{
+		if(skipping || !chip8core.needsRefresh())	{	return;	}
+		System.arraycopy(chip8core.getDisplayRows(), 0, frames.backBuffer(), 0, 32);
+		frames.publish(latency.takeFrameInput(), chip8core.getDirtyRows(), chip8core.getDirtyColumns());
+		chip8core.clearDirty();
+		chip8core.drawFlag = false;
+	}
+
+	/*
+	 * parkNanos() may return early, so wait in a loop.
+	 */
+	private static void waitUntil(long deadline)
+	{
+		long now = System.nanoTime();
+		while(deadline - now > 0)
+		{
+			LockSupport.parkNanos(deadline - now);
+			now = System.nanoTime();
+		}
+	}
+}
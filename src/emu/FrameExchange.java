@@ -0,0 +1,84 @@
+package emu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameExchange
+{
+	/*
+	Lock-free triple buffer handing finished screens from the emulation thread to the render thread.
+
+	Of the three 32 row buffers, the emulation thread owns one (back), the render thread owns one (front),
+	and the third (middle) holds the latest published frame. publish() swaps back and middle, takeLatest() swaps middle and front,
+	each with a single atomic exchange, so neither thread ever blocks or sees a frame being written.
+	If the emulation thread publishes faster than frames are drawn, older frames are simply overwritten; if slower,
+	the renderer keeps drawing what it has.
+
+	Each frame also carries an input timestamp for InputLatency, and the screen region it changed compared to the frame
+	published before it (see Chip8Core.getDirtyRows()). When a frame is overwritten before it was taken, its timestamp and region
+	move on to the next frame published, so the region of a taken frame always covers everything that changed since the previous one
+	the render thread took, and no measured key press gets lost.
+	*/
+
+	private static final int INDEX	= 0x3;
+	private static final int FRESH	= 0x4;	// middle holds a frame the render thread hasn't taken yet
+
+	private final long[][] buffers = new long[3][32];
+	private final long[] inputNanos = new long[3];
+	private final int[] dirtyRows = new int[3];
+	private final long[] dirtyColumns = new long[3];
+	/*
+	 * Index of the middle buffer, plus FRESH.
+	 */
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back	= 0;	// emulation thread only
+	private int front	= 2;	// render thread only
+	// emulation thread only : input time and region of a frame overwritten before it was taken
+	private long carried;
+	private int carriedRows;
+	private long carriedColumns;
+
+	/*
+	 * Emulation thread : the buffer to fill before calling publish().
+	 */
+	public long[] backBuffer()	{	return buffers[back];	}
+
+	/*
+	 * Emulation thread : makes the back buffer the latest frame. input is the time of the oldest key press
+	 * this is the first frame after (0 if none), see InputLatency. rows and columns say what changed since the last published frame.
+	 */
+	public void publish(long input, int rows, long columns)
+	{
+		if(carried != 0 && (input == 0 || carried < input))	{	input = carried;	}
+		inputNanos[back]	= input;
+		dirtyRows[back]		= rows | carriedRows;
+		dirtyColumns[back]	= columns | carriedColumns;
+		int old = middle.getAndSet(back | FRESH);
+		back = old & INDEX;
+		//a frame still marked fresh was never taken, so its input time and region now ride on the next one
+		boolean dropped = (old & FRESH) != 0;
+		carried			= dropped ? inputNanos[back] : 0;
+		carriedRows		= dropped ? dirtyRows[back] : 0;
+		carriedColumns	= dropped ? dirtyColumns[back] : 0;
+	}
+
+	/*
+	 * Render thread : the latest frame, or null if nothing was published since the last call.
+	 * The returned rows stay valid until the next call.
+	 */
+	public long[] takeLatest()
+	{
+		if((middle.get() & FRESH) == 0)	{	return null;	}
+		front = middle.getAndSet(front) & INDEX;
+		return buffers[front];
+	}
+
+	/*
+	 * Render thread : the input time published with the frame takeLatest() last returned.
+	 */
+	public long frontInputNanos()	{	return inputNanos[front];	}
+	/*
+	 * Render thread : the region that changed between the frame takeLatest() last returned and the one before it.
+	 */
+	public int frontDirtyRows()		{	return dirtyRows[front];	}
+	public long frontDirtyColumns()	{	return dirtyColumns[front];	}
+}
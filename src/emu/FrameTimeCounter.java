@@ -0,0 +1,79 @@
+package emu;
+
+public class FrameTimeCounter
+{
+	/*
+	 * Collects per-frame timings and summarises them once per reporting interval :
+	 * frames per second, average and worst frame time (start of one frame to the start of the next),
+	 * and average render time (the part of the frame spent in our own drawing code).
+	 */
+	private final long intervalNanos;
+
+	private long intervalStart;
+	private long lastFrameStart;
+	private long renderStart;
+	private int frames;
+	private long frameNanosTotal;
+	private long frameNanosMax;
+	private long renderNanosTotal;
+	private String summary = "";
+	private double framesPerSecond;
+	private double averageFrameMillis;
+	private double maxFrameMillis;
+	private double averageRenderMillis;
+
+	public FrameTimeCounter(long intervalMillis)
+	{
+		this.intervalNanos = intervalMillis * 1000000L;
+	}
+
+	/*
+	 * Call at the start of every frame. Returns true when a new summary is ready (see getSummary()).
+	 */
+	public boolean frameStart()
+	{
+		long now = System.nanoTime();
+		boolean ready = false;
+		if(lastFrameStart != 0)
+		{
+			long frameNanos = now - lastFrameStart;
+			frames++;
+			frameNanosTotal += frameNanos;
+			frameNanosMax = Math.max(frameNanosMax, frameNanos);
+		}
+		else
+		{
+			intervalStart = now;
+		}
+		lastFrameStart = now;
+
+		if(now - intervalStart >= intervalNanos && frames > 0)
+		{
+			framesPerSecond		= frames * 1e9 / (now - intervalStart);
+			averageFrameMillis	= frameNanosTotal / 1e6 / frames;
+			maxFrameMillis		= frameNanosMax / 1e6;
+			averageRenderMillis	= renderNanosTotal / 1e6 / frames;
+			summary = String.format("%.0f fps, frame %.2f ms avg / %.2f ms max, render %.3f ms avg",
+					framesPerSecond, averageFrameMillis, maxFrameMillis, averageRenderMillis);
+			intervalStart = now;
+			frames = 0;
+			frameNanosTotal = 0;
+			frameNanosMax = 0;
+			renderNanosTotal = 0;
+			ready = true;
+		}
+		return ready;
+	}
+
+	public void renderStart()	{	renderStart = System.nanoTime();	}
+	public void renderEnd()		{	renderNanosTotal += System.nanoTime() - renderStart;	}
+
+	public String getSummary()	{	return summary;	}
+	/*
+	 * The figures behind the last summary.
+	 */
+	public double getFramesPerSecond()		{	return framesPerSecond;	}
+	public double getAverageFrameMillis()	{	return averageFrameMillis;	}
+	public double getMaxFrameMillis()		{	return maxFrameMillis;	}
+	public double getAverageRenderMillis()	{	return averageRenderMillis;	}
+}
@@ -0,0 +1,107 @@
+package emu;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class InputLatency
+{
+	/*
+	Follows each key press from the keyboard event to the screen, in three stages, each with its own histogram :
+	# key to core	: the event until the emulation thread hands the new keypad to the core
+	# key to read	: the event until the program first looks at that key (EX9E, EXA1 or FX0A), as seen at the end of the CPU batch that did
+	# key to photon	: the event until the first frame published after that read has been drawn and swapped to the screen
+	A press released before the program ever read it is only counted as missed.
+
+	The first two stages are recorded on the emulation thread, the last on the render thread, so each histogram has one writer.
+	Read them only once both threads are done (print() is called after the emulation thread stopped).
+	*/
+
+	private final LatencyHistogram keyToCore	= new LatencyHistogram();
+	private final LatencyHistogram keyToRead	= new LatencyHistogram();
+	private final LatencyHistogram keyToPhoton	= new LatencyHistogram();
+
+	// emulation thread only
+	private final long[] pressedAt = new long[16];
+	private int awaitingRead;
+	private long oldestUnshown;
+	private long missed;
+
+	/*
+	 * Emulation thread : the keypad about to be given to the core. pressed holds the keys that just went down.
+	 */
+	void keysApplied(int keyMask, int pressed, SharedKeypad keypad, long now)
+	{
+		//released before the program got to it
+		int dropped = awaitingRead & ~keyMask;
+		missed += Integer.bitCount(dropped);
+		awaitingRead &= ~dropped;
+		for(int key = 0; key < 16; key++)
+		{
+			if((pressed & (1 << key)) == 0)	{	continue;	}
+			pressedAt[key] = keypad.pressedAt(key);
+			keyToCore.record(now - pressedAt[key]);
+			awaitingRead |= 1 << key;
+		}
+	}
+
+	/*
+	 * Emulation thread : keys the program read during the batch that just ended (Chip8Core.takeKeysRead()).
+	 */
+	void keysRead(int read, long now)
+	{
+		int first = read & awaitingRead;
+		if(first == 0)	{	return;	}
+		awaitingRead &= ~first;
+		for(int key = 0; key < 16; key++)
+		{
+			if((first & (1 << key)) == 0)	{	continue;	}
+			keyToRead.record(now - pressedAt[key]);
+			if(oldestUnshown == 0 || pressedAt[key] < oldestUnshown)	{	oldestUnshown = pressedAt[key];	}
+		}
+	}
+
+	/*
+	 * Emulation thread : a frame is being published. Returns the time of the oldest read key press it's the first frame after
+	 * (0 if none), to travel with the frame to the render thread.
+	 */
+	long takeFrameInput()
+	{
+		long input = oldestUnshown;
+		oldestUnshown = 0;
+		return input;
+	}
+
+	/*
+	 * Render thread : a frame carrying input time inputNanos (see takeFrameInput()) is now on screen.
+	 */
+	void framePresented(long inputNanos, long now)
+	{
+		if(inputNanos != 0)	{	keyToPhoton.record(now - inputNanos);	}
+	}
+//############################################################################################################################################################
+	public void print(PrintStream out)
+	{
+		print(out, "key to core", keyToCore);
+		print(out, "key to read", keyToRead);
+		print(out, "key to photon", keyToPhoton);
+		out.println("# presses released before the program read them : " + missed);
+	}
+
+	private static void print(PrintStream out, String stage, LatencyHistogram histogram)
+	{
+		out.printf("# %s : %d samples, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", stage, histogram.getCount(),
+				histogram.valueAtPercentile(50) / 1e6, histogram.valueAtPercentile(99) / 1e6, histogram.getMax() / 1e6);
+		histogram.printPercentiles(out);
+		out.println();
+	}
+
+	public void write(Path file) throws IOException
+	{
+		try(PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8"))
+		{
+			print(out);
+		}
+	}
+}
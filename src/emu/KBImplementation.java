@@ -2,14 +2,13 @@ package emu;
 
 import org.lwjgl.input.Keyboard;
 
-import chip8.Chip8Core;
-
 public class KBImplementation {
 
 	/*
 	 * Polls input on each frame, and implements the mapping of CHIP8 keypad based on pressed/released keys.
+	 * Runs on the render thread (LWJGL input belongs to the thread owning the window); the emulation thread picks the keys up from keypad.
 	 */
-	public static void pollInput(Chip8Core chip8core)
+	public static void pollInput(SharedKeypad keypad)
 	{
 		while(Keyboard.next())
 		{
@@ -25,8 +24,8 @@ public class KBImplementation {
 					break;
 					/*
 					 * Implement keypad mapping
-					 * If corresponding key pressed, set keypad[key] to 1
-					 * else, if corresponding key released, set keypad[key] to 0
+					 * If corresponding key pressed, set its bit in keypad
+					 * else, if corresponding key released, clear it
 					 * 
 					 * Mapping 
 					 * --------
@@ -44,55 +43,55 @@ public class KBImplementation {
 					 */
 		 
 				case Keyboard.KEY_1:
-					chip8core.keypad[0x1] = 1;
+					keypad.press(0x1);
 					break;
 				case Keyboard.KEY_2:
-					chip8core.keypad[0x2] = 1;
+					keypad.press(0x2);
 					break;
 				case Keyboard.KEY_3:
-					chip8core.keypad[0x3] = 1;
+					keypad.press(0x3);
 					break;
 				case Keyboard.KEY_4:
-					chip8core.keypad[0xC] = 1;
+					keypad.press(0xC);
 					break;
 					
 				case Keyboard.KEY_Q:
-					chip8core.keypad[0x4] = 1;
+					keypad.press(0x4);
 					break;
 				case Keyboard.KEY_W:
-					chip8core.keypad[0x5] = 1;
+					keypad.press(0x5);
 					break;
 				case Keyboard.KEY_E:
-					chip8core.keypad[0x6] = 1;
+					keypad.press(0x6);
 					break;
 				case Keyboard.KEY_R:
-					chip8core.keypad[0xD] = 1;
+					keypad.press(0xD);
 					break;
 					
 				case Keyboard.KEY_A:
-					chip8core.keypad[0x7] = 1;
+					keypad.press(0x7);
 					break;
 				case Keyboard.KEY_S:
-					chip8core.keypad[0x8] = 1;
+					keypad.press(0x8);
 					break;
 				case Keyboard.KEY_D:
-					chip8core.keypad[0x9] = 1;
+					keypad.press(0x9);
 					break;
 				case Keyboard.KEY_F:
-					chip8core.keypad[0xE] = 1;
+					keypad.press(0xE);
 					break;
 					
 				case Keyboard.KEY_Z:
-					chip8core.keypad[0xA] = 1;
+					keypad.press(0xA);
 					break;
 				case Keyboard.KEY_X:
-					chip8core.keypad[0x0] = 1;
+					keypad.press(0x0);
 					break;
 				case Keyboard.KEY_C:
-					chip8core.keypad[0xB] = 1;
+					keypad.press(0xB);
 					break;
 				case Keyboard.KEY_V:
-					chip8core.keypad[0xF] = 1;
+					keypad.press(0xF);
 					break;
 		
 				}//end switch block for pressed keys
@@ -103,55 +102,55 @@ public class KBImplementation {
 				switch(Keyboard.getEventKey())
 				{
 				case Keyboard.KEY_1:
-					chip8core.keypad[0x1] = 0;
+					keypad.release(0x1);
 					break;
 				case Keyboard.KEY_2:
-					chip8core.keypad[0x2] = 0;
+					keypad.release(0x2);
 					break;
 				case Keyboard.KEY_3:
-					chip8core.keypad[0x3] = 0;
+					keypad.release(0x3);
 					break;
 				case Keyboard.KEY_4:
-					chip8core.keypad[0xC] = 0;
+					keypad.release(0xC);
 					break;
 					
 				case Keyboard.KEY_Q:
-					chip8core.keypad[0x4] = 0;
+					keypad.release(0x4);
 					break;
 				case Keyboard.KEY_W:
-					chip8core.keypad[0x5] = 0;
+					keypad.release(0x5);
 					break;
 				case Keyboard.KEY_E:
-					chip8core.keypad[0x6] = 0;
+					keypad.release(0x6);
 					break;
 				case Keyboard.KEY_R:
-					chip8core.keypad[0xD] = 0;
+					keypad.release(0xD);
 					break;
 					
 				case Keyboard.KEY_A:
-					chip8core.keypad[0x7] = 0;
+					keypad.release(0x7);
 					break;
 				case Keyboard.KEY_S:
-					chip8core.keypad[0x8] = 0;
+					keypad.release(0x8);
 					break;
 				case Keyboard.KEY_D:
-					chip8core.keypad[0x9] = 0;
+					keypad.release(0x9);
 					break;
 				case Keyboard.KEY_F:
-					chip8core.keypad[0xE] = 0;
+					keypad.release(0xE);
 					break;
 					
 				case Keyboard.KEY_Z:
-					chip8core.keypad[0xA] = 0;
+					keypad.release(0xA);
 					break;
 				case Keyboard.KEY_X:
-					chip8core.keypad[0x0] = 0;
+					keypad.release(0x0);
 					break;
 				case Keyboard.KEY_C:
-					chip8core.keypad[0xB] = 0;
+					keypad.release(0xB);
 					break;
 				case Keyboard.KEY_V:
-					chip8core.keypad[0xF] = 0;
+					keypad.release(0xF);
 					break;
 				}//end swtich block for released keys
 			}//end else for released keys
@@ -0,0 +1,107 @@
+package emu;
+
+import java.io.PrintStream;
+
+public class LatencyHistogram
+{
+	/*
+	 * Log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram : every power of two is split into
+	 * SUB_BUCKETS / 2 equal buckets, so any recorded value is known to within about 3%, from nanoseconds to minutes, in a fixed 15 KB.
+	 * record() doesn't allocate. Not thread safe : give each recording thread its own histogram.
+	 */
+	private static final int SUB_BUCKET_BITS	= 6;
+	private static final int SUB_BUCKETS		= 1 << SUB_BUCKET_BITS;
+	private static final int HALF				= SUB_BUCKETS / 2;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * HALF + HALF];
+	private long total;
+	private long max;
+	private double sum;
+
+	private static int indexOf(long value)
+	{
+		int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return magnitude * HALF + (int) (value >>> magnitude);
+	}
+
+	/*
+	 * Highest value that falls in the bucket at index.
+	 */
+	private static long highestAt(int index)
+	{
+		int magnitude = Math.max(0, index / HALF - 1);
+		long sub = index - magnitude * HALF;
+		return ((sub + 1) << magnitude) - 1;
+	}
+
+	public void record(long nanos)
+	{
+		if(nanos < 0)	{	nanos = 0;	}
+		counts[indexOf(nanos)]++;
+		total++;
+		sum += nanos;
+		if(nanos > max)	{	max = nanos;	}
+	}
+
+	public long getCount()	{	return total;	}
+	public long getMax()	{	return max;	}
+	public double getMean()	{	return (total == 0) ? 0 : sum / total;	}
+
+	/*
+	 * Smallest recorded value (to the bucket's precision) that percentile percent of the values are at or below.
+	 */
+	public long valueAtPercentile(double percentile)
+	{
+		if(total == 0)	{	return 0;	}
+		long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for(int index = 0; index < counts.length; index++)
+		{
+			seen += counts[index];
+			if(seen >= wanted)	{	return Math.min(highestAt(index), max);	}
+		}
+		return max;
+	}
+//############################################################################################################################################################
+	/*
+	 * Prints the distribution in HdrHistogram's percentile format (values in milliseconds), which its plotting tools read.
+	 * Percentiles get denser towards the tail : five steps per halving of the remaining distance to 100%.
+	 */
+	public void printPercentiles(PrintStream out)
+	{
+		out.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+		out.println();
+		double remaining = 100;
+		double percentile = 0;
+		while(total > 0)
+		{
+			long value = valueAtPercentile(percentile);
+			long below = countAtOrBelow(value);
+			if(percentile >= 100 || below >= total)
+			{
+				out.printf("%12.3f %14.12f %10d%n", max / 1e6, 1.0, total);
+				break;
+			}
+			out.printf("%12.3f %14.12f %10d %14.2f%n", value / 1e6, percentile / 100, below, 100 / (100 - percentile));
+			percentile += remaining / 2 / 5;
+			if(percentile >= 100 - remaining / 2)	{	remaining /= 2;	}
+		}
+		double variance = 0;
+		for(int index = 0; index < counts.length; index++)
+		{
+			double delta = highestAt(index) - getMean();
+			variance += counts[index] * delta * delta;
+		}
+		double deviation = (total == 0) ? 0 : Math.sqrt(variance / total);
+		out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", getMean() / 1e6, deviation / 1e6);
+		out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max / 1e6, total);
+		out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", counts.length / HALF, SUB_BUCKETS);
+	}
+
+	private long countAtOrBelow(long value)
+	{
+		long count = 0;
+		for(int index = 0; index <= indexOf(value); index++)	{	count += counts[index];	}
+		return count;
+	}
+}
@@ -3,6 +3,11 @@ package emu;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Keyboard;
@@ -11,14 +16,72 @@ import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
 
 import chip8.Chip8Core;
+import chip8.Chip8Engine;
+import chip8.Chip8Quirks;
+import chip8.input.InputRecorder;
+import chip8.metrics.Chip8Metrics;
+import chip8.rom.RomLibrary;
 
 public class Main 
 {
-	private static Chip8Core chip8core = new Chip8Core();
+	private static Chip8Core chip8core;
+
+	private static final long FRAME_NANOS		= 1000000000L / 60;
+	/*
+	 * With --input-slices, how often the keyboard is polled while waiting for the next frame.
+	 */
+	private static final long INPUT_POLL_NANOS	= 1000000L;
 	
-	public static void main(String[] args) throws LWJGLException, IOException
+	/*
+	 * Command line options :
+	 * 		--uncapped	don't limit the loop to 60 frames per second (for measuring frame times)
+	 * 		--hz N		emulated CPU speed in instructions per second (default Chip8Core.DEFAULT_CLOCK_RATE)
+	 * 		--unlimited	run the CPU as fast as possible, still ticking the timers once per emulated frame
+	 * 		--seed S	seed for CXKK (default : different every run)
+	 * 		--quirks NAME	behaviour profile (see Chip8Quirks : original, vip, chip48, schip; default original)
+	 * 		--record-input FILE	log keypad events for replaying with HeadlessRunner --replay-input (turns rewinding off)
+	 * 		--input-slices N	split every emulated frame into N CPU batches, reading the keypad before each,
+	 * 							and poll the keyboard every millisecond instead of once per drawn frame
+	 * 		--latency FILE		on exit, write key press latency histograms (see InputLatency) to FILE
+	 * 		--roms PATH			directory (searched recursively) or .zip archive to offer ROMs from (default : the working directory)
+	 * 		--frame-skip N		when emulation runs late, leave up to N frames in a row unpresented so it can catch up
+	 * 		--metrics-log N		print the runtime metrics (also exposed over JMX as chip8:type=Emulator) every N seconds
+	 */
+	public static void main(String[] args) throws LWJGLException, IOException, JMException
 	{
-		
+		boolean uncapped = false;
+		int clockRate = Chip8Core.DEFAULT_CLOCK_RATE;
+		Chip8Quirks quirks = Chip8Quirks.ORIGINAL;
+		long seed = System.nanoTime();
+		String recordInput = null;
+		int inputSlices = 1;
+		String latencyFile = null;
+		int metricsLogSeconds = 0;
+		int frameSkip = 0;
+		String romDirectory = ".";
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--uncapped"))			{	uncapped = true;	}
+			else if(args[i].equals("--hz"))				{	clockRate = Integer.parseInt(args[++i]);	}
+			else if(args[i].equals("--unlimited"))		{	clockRate = Chip8Core.CLOCK_UNLIMITED;	}
+			else if(args[i].equals("--quirks"))			{	quirks = Chip8Quirks.parse(args[++i]);	}
+			else if(args[i].equals("--seed"))			{	seed = Long.parseLong(args[++i]);	}
+			else if(args[i].equals("--record-input"))	{	recordInput = args[++i];	}
+			else if(args[i].equals("--input-slices"))	{	inputSlices = Integer.parseInt(args[++i]);	}
+			else if(args[i].equals("--latency"))		{	latencyFile = args[++i];	}
+			else if(args[i].equals("--metrics-log"))	{	metricsLogSeconds = Integer.parseInt(args[++i]);	}
+			else if(args[i].equals("--frame-skip"))		{	frameSkip = Integer.parseInt(args[++i]);	}
+			else if(args[i].equals("--roms"))			{	romDirectory = args[++i];	}
+		}
+		chip8core = Chip8Engine.INTERPRETER.create(quirks);
+		chip8core.setClockRate(clockRate);
+		chip8core.setSeed(seed);
+		//With --unlimited the timers tick per frame rather than per cycle, which a replay couldn't reproduce
+		if(recordInput != null && chip8core.getClockRate() == Chip8Core.CLOCK_UNLIMITED)
+		{
+			System.err.println("--record-input needs a fixed clock rate, not --unlimited");
+			System.exit(2);
+		}
 
 		/* Menu 
 		 * 
@@ -26,63 +89,59 @@ public class Main
 		System.out.println("_______________CHIP8 Emulator________________");
 		System.out.println("Choose a .ch8 program to load");
 		System.out.println("ESC button quits emulator.");
+		System.out.println("Hold BACKSPACE to rewind.");
 		/**
 		 * ROMS unverified; will be removed if non-public domain
 		 */
-		System.out.println("Demos :");
-		System.out.println("1) Zero");
-		System.out.println("2) Maze2");
-		System.out.println("3) Stars");
-		System.out.println("Games :");
-		System.out.println("4) Tron");
-		System.out.println("5) Brix");
-		System.out.println("6) Pong2");
-		System.out.println("_____________________________________________");
-		
-		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-		String choice = reader.readLine();
-		String filePath = "";
-		
-		/*
-		 * Following switch block is fairly self explanatory; set filePath to point to ROM corresponding to menu choice.
-		 */
-		switch(choice)
+		String loadError = null;
+		try(RomLibrary library = RomLibrary.open(Paths.get(romDirectory)))
 		{
+			List<String> roms = library.names();
+			for(int i = 0; i < roms.size(); i++)
+			{
+				System.out.println((i + 1) + ") " + roms.get(i));
+			}
+			System.out.println("_____________________________________________");
 
-		case "1":
-			filePath = ("./zerodemo.ch8");
-			break;
-		case "2":
-			filePath = ("./maze2.ch8");
-			break;
-		case "3":
-			filePath = ("./stars.ch8");
-			break;
-		case "4":
-			filePath = ("./tron.ch8");
-			break;
-		case "5":
-			filePath = ("./brix.ch8");
-			break;
-		case "6":
-			filePath = ("./pong2.ch8");
-			break;
-		
-		
-	
-		default:
-			System.err.println("Invalid choice. Try again.");
-			main(args);
-			break;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+			int index = -1;
+			while(index < 0)
+			{
+				String choice = reader.readLine();
+				//end of input, nothing to run
+				if(choice == null)	{	return;	}
+				try
+				{
+					index = Integer.parseInt(choice.trim()) - 1;
+				}catch (NumberFormatException e)
+				{
+					index = -1;
+				}
+				if(index >= roms.size())	{	index = -1;	}
+				if(index < 0)	{	System.err.println("Invalid choice. Try again.");	}
+			}
+			//and load the ROM
+			try
+			{
+				library.load(roms.get(index)).loadInto(chip8core);
+			}catch (IllegalArgumentException e)
+			{
+				loadError = roms.get(index) + " : " + e.getMessage();
+			}
+		}
+		//exiting only once the library is closed (System.exit() wouldn't leave the try block)
+		if(loadError != null)
+		{
+			System.err.println(loadError);
+			System.exit(2);
 		}
-		//and load the ROM
-		chip8core.loadProgram(filePath);
+		//Keypad edges go to the log as the emulation thread picks them up
+		InputRecorder recorder = (recordInput == null) ? null : new InputRecorder(Paths.get(recordInput), seed, chip8core.getClockRate(), quirks);
 		
 		
 		/*
 		 * The following section is all about initing OpenGL 1.1 graphics.
-		 * Immediate mode is used for all graphics, rather than the modern VAO/VBO paradigm.
-		 * (Because I was lazy and threw this together really quick.)
+		 * The screen is drawn as a single texture on a single quad (see TextureRenderer), rather than the modern VAO/VBO paradigm.
 		 */
 		 
 		//Create new display w/ resolution = 640 x 320
@@ -93,12 +152,49 @@ public class Main
 		GL11.glLoadIdentity();					//reset view, clear any prior projections
 		GL11.glOrtho(0, 640, 320, 0, 1, -1);			//params are in the order : (left, right, bottom, top, zNear, zFar);
 		GL11.glMatrixMode(GL11.GL_MODELVIEW);
-		//Set size of each pixel to 10x10, since we're upscaling to 640x320 from 64x32 native
-		GL11.glPointSize(10);					
-		//Enable this for freaking ANTIALIASED POINTS! Hilarious, and pointless.
-		//GL11.glEnable(GL11.GL_POINT_SMOOTH); 
-		
+		//The texture is scaled up from 64x32 native to the 640x320 window
+		TextureRenderer renderer = new TextureRenderer(640, 320);
+		renderer.init();
+		renderer.upload(chip8core.getDisplayRows());
+		//Frame timings go into the window title once per second
+		FrameTimeCounter frameTimes = new FrameTimeCounter(1000);
 		
+		/*
+		 * From here on the core belongs to the emulation thread, which runs it at its own 60 Hz pace.
+		 * This thread only polls input into keypad and draws whatever frame the emulation thread last published.
+		 */
+		SharedKeypad keypad = new SharedKeypad();
+		FrameExchange frames = new FrameExchange();
+		final InputLatency latency = new InputLatency();
+		//Counters are cheap enough to always keep; JMX clients (jconsole...) see them under chip8:type=Emulator
+		Chip8Metrics metrics = new Chip8Metrics();
+		metrics.attach(chip8core);
+		metrics.register();
+		final EmulationThread emulation = new EmulationThread(chip8core, keypad, frames, recorder, latency, metrics, inputSlices);
+		emulation.setMaxFrameSkip(frameSkip);
+		final String latencyPath = latencyFile;
+		//ESC quits through System.exit(); stopping the emulation thread first makes sure the input log and latency figures are complete
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				emulation.shutdown();
+				if(latencyPath == null)	{	return;	}
+				try
+				{
+					latency.write(Paths.get(latencyPath));
+				}catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}));
+		emulation.start();
+		long lastFramesRun = 0;
+		long lastFramesSkipped = 0;
+		int summaries = 0;
+		long nextFrame = System.nanoTime();
 		
 		/*
 		 * Main game loop is implemented here as a whileLoop that runs until the window is closed (The [X] button of window, obviously)
@@ -106,62 +202,63 @@ public class Main
 		 */
 		while(!Display.isCloseRequested())
 		{
-			//Initiate a cycle of the emulator
-			chip8core.run();
-			
-			//Poll keyboard for setting chip8core.keypad[key] to either 1(pressed) or 0(released)
-			KBImplementation.pollInput(chip8core);
-			
-			/*
-			 * Check for refresh, and clear (2D) buffer if refresh is needed.
-			 */
-			if(chip8core.needsRefresh())
+			if(frameTimes.frameStart())
 			{
-				//refresh screen
-				GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
-				//reset drawFlag
-				chip8core.drawFlag = false;
+				//emulated frames over the same (one second) interval, to show the emulation keeping its own pace
+				long framesRun = emulation.getFramesRun();
+				long framesSkipped = emulation.getFramesSkipped();
+				Display.setTitle("CHIP8 Emulator - " + frameTimes.getSummary() + " - emulation " + (framesRun - lastFramesRun) + " fps"
+						+ ((framesSkipped > lastFramesSkipped) ? ", " + (framesSkipped - lastFramesSkipped) + " skipped" : ""));
+				lastFramesRun = framesRun;
+				lastFramesSkipped = framesSkipped;
+				metrics.renderTimings(frameTimes.getFramesPerSecond(), frameTimes.getAverageFrameMillis(),
+						frameTimes.getMaxFrameMillis(), frameTimes.getAverageRenderMillis());
+				//summaries come once per second
+				if(metricsLogSeconds > 0 && ++summaries % metricsLogSeconds == 0)	{	System.out.println(metrics.summary());	}
 			}
+
+			//Poll keyboard for setting the keypad bits; the emulation thread applies them at its next frame
+			KBImplementation.pollInput(keypad);
+			//While BACKSPACE is held, the emulation steps back one recorded frame per frame instead of running
+			emulation.setRewinding(Keyboard.isKeyDown(Keyboard.KEY_BACK));
 			
+			frameTimes.renderStart();
 			/*
-			 * This is the actual rendering loop. 
-			 * Loop through the display[] array, 
-			 * 		if an element is not == 0, draw a white point at (i%64, i/64)
-			 * 		else, draw a black point there.
+			 * Only re-upload the screen if the emulation published a new one since the last frame, and only the part that changed.
 			 */
-			for(int i = 0; i < chip8core.getDisplay().length; i++)
+			long[] frame = frames.takeLatest();
+			if(frame != null)
 			{
-				if(chip8core.getDisplay()[i] == 0)
-				{
-					//set color = black
-					GL11.glColor3f(0, 0, 0);
-				}
-				else
-				{
-					//set color = white
-					GL11.glColor3f(1, 1, 1);
-				}
-				
-				//Handle wraparounds
-				int x = (int) i%64;
-				int y = (int) Math.floor(i/64);
-				
-				//Actually draw the point (x,y), each coordinate scaled up by 10 pixels.
-				//The trusty old openGL 1.1 immediate mode, as you can see.
-				GL11.glBegin(GL11.GL_POINTS);
-					GL11.glVertex2f(x*10, y*10);
-				GL11.glEnd();
-				
-			}//end rendering loop
+				renderer.upload(frame, frames.frontDirtyRows(), frames.frontDirtyColumns());
+			}
+			
+			//The whole screen is one textured quad
+			GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
+			renderer.draw();
+			frameTimes.renderEnd();
 			
 			//one rendering cycle done, now update display
 			//This also polls input devices
 			Display.update();
-			//CHIP8 runs at 60 updates per second, so set the sync delay to 60 fps.
-			Display.sync(60);
+			if(frame != null)	{	latency.framePresented(frames.frontInputNanos(), System.nanoTime());	}
+			//The screen changes at most 60 times a second, so there's no point drawing faster.
+			if(!uncapped && inputSlices > 1)
+			{
+				//Keep reading the keyboard until the next frame is due, so a key reaches the emulation thread within a millisecond
+				nextFrame = Math.max(nextFrame + FRAME_NANOS, System.nanoTime());
+				while(System.nanoTime() - nextFrame < 0)
+				{
+					LockSupport.parkNanos(INPUT_POLL_NANOS);
+					Display.processMessages();
+					KBImplementation.pollInput(keypad);
+				}
+			}
+			else if(!uncapped)	{	Display.sync(60);	}
 			
 		}//end main game logic loop
 		
+		emulation.shutdown();
+		renderer.destroy();
 		//Window was closed by user
 		Display.destroy();
 	}
@@ -0,0 +1,39 @@
+package emu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedKeypad
+{
+	/*
+	 * The 16 CHIP8 keys as one atomic bit mask (bit k = key k held), written by the input thread and read by the emulation thread.
+	 * Neither side ever waits on the other, and the emulation thread always sees a whole keypad, never half an update.
+	 * Presses are timestamped for InputLatency; the time is written before the key's bit, so whoever sees the bit sees the time too.
+	 */
+	private final AtomicInteger keys = new AtomicInteger();
+	private final long[] pressNanos = new long[16];
+
+	public void press(int key)
+	{
+		pressNanos[key] = System.nanoTime();
+		int old;
+		do
+		{
+			old = keys.get();
+		}while(!keys.compareAndSet(old, old | (1 << key)));
+	}
+
+	public void release(int key)
+	{
+		int old;
+		do
+		{
+			old = keys.get();
+		}while(!keys.compareAndSet(old, old & ~(1 << key)));
+	}
+
+	public int mask()	{	return keys.get();	}
+	/*
+	 * System.nanoTime() of the key's last press. Only meaningful once mask() has shown the key held.
+	 */
+	public long pressedAt(int key)	{	return pressNanos[key];	}
+}
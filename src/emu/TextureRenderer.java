@@ -0,0 +1,101 @@
+package emu;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+public class TextureRenderer
+{
+	/*
+	 * Draws the CHIP8 screen as one 64x32 luminance texture stretched over a single quad.
+	 * 
+	 * The old renderer issued glColor/glBegin/glVertex/glEnd for each of the 2048 pixels every frame, i.e. thousands of JNI calls per frame.
+	 * Here a frame is one glTexSubImage2D (only when the screen actually changed, and only over the rectangle that did) plus one quad.
+	 * The pixel data goes through a single direct ByteBuffer, allocated once and reused.
+	 */
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 32;
+
+	private final int screenWidth;
+	private final int screenHeight;
+	private final ByteBuffer pixels = BufferUtils.createByteBuffer(WIDTH * HEIGHT);
+	private int texture;
+
+	public TextureRenderer(int screenWidth, int screenHeight)
+	{
+		this.screenWidth = screenWidth;
+		this.screenHeight = screenHeight;
+	}
+//##################################################################################################################################################
+	/*
+	 * Creates the texture. Needs a current GL context, i.e. call after Display.create().
+	 */
+	public void init()
+	{
+		texture = GL11.glGenTextures();
+		GL11.glEnable(GL11.GL_TEXTURE_2D);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		//nearest filtering keeps the pixels sharp when scaled up
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_CLAMP);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_CLAMP);
+		//rows are 64 single bytes, so no row padding
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_LUMINANCE, WIDTH, HEIGHT, 0, GL11.GL_LUMINANCE, GL11.GL_UNSIGNED_BYTE, pixels);
+	}
+//##################################################################################################################################################
+	/*
+	 * Copies the screen rows (bit 63 = leftmost pixel) into the texture.
+	 */
+	public void upload(long[] rows)
+	{
+		upload(rows, -1, -1L);
+	}
+
+	/*
+	 * Copies only the bounding rectangle of the changed region into the texture (see Chip8Core.getDirtyRows() for the masks).
+	 */
+	public void upload(long[] rows, int dirtyRows, long dirtyColumns)
+	{
+		if(dirtyRows == 0 || dirtyColumns == 0)	{	return;	}
+		int top		= Integer.numberOfTrailingZeros(dirtyRows);
+		int bottom	= 31 - Integer.numberOfLeadingZeros(dirtyRows);
+		int left	= Long.numberOfLeadingZeros(dirtyColumns);
+		int right	= 63 - Long.numberOfTrailingZeros(dirtyColumns);
+
+		pixels.clear();
+		for(int y = top; y <= bottom; y++)
+		{
+			long row = rows[y];
+			for(int x = left; x <= right; x++)
+			{
+				pixels.put((row << x) < 0 ? (byte) 0xff : 0);
+			}
+		}
+		pixels.flip();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, left, top, right - left + 1, bottom - top + 1, GL11.GL_LUMINANCE, GL11.GL_UNSIGNED_BYTE, pixels);
+	}
+//##################################################################################################################################################
+	/*
+	 * Draws the texture over the whole window.
+	 */
+	public void draw()
+	{
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glColor3f(1, 1, 1);
+		GL11.glBegin(GL11.GL_QUADS);
+			GL11.glTexCoord2f(0, 0);	GL11.glVertex2f(0, 0);
+			GL11.glTexCoord2f(1, 0);	GL11.glVertex2f(screenWidth, 0);
+			GL11.glTexCoord2f(1, 1);	GL11.glVertex2f(screenWidth, screenHeight);
+			GL11.glTexCoord2f(0, 1);	GL11.glVertex2f(0, screenHeight);
+		GL11.glEnd();
+	}
+
+	public void destroy()
+	{
+		GL11.glDeleteTextures(texture);
+	}
+}